@@ -55,14 +55,23 @@ public abstract class BasicSetupUpgradeProcess extends UpgradeProcess {
 
         String[] fileNames = getSetupFileNames();
         for (String fileName : fileNames) {
+            boolean succeeded;
             try {
                 File configurationFile =
                         new File(BasicSetupUpgradeProcess.class.getClassLoader().getResource(fileName).toURI());
-                LiferaySetup.setup(MarshallUtil.unmarshall(configurationFile));
-            } catch (FileNotFoundException | URISyntaxException e) {
+                if (isStreamed()) {
+                    succeeded = LiferaySetup.setup(SetupStream.open(configurationFile));
+                } else {
+                    succeeded = LiferaySetup.setup(MarshallUtil.unmarshall(configurationFile, isSnapshotted()));
+                }
+            } catch (FileNotFoundException | URISyntaxException | LiferaySetupException e) {
                 throw new UpgradeException(
                         String.format("Failed to process liferay setup configuration (%1$s)", fileName), e);
             }
+            if (!succeeded) {
+                throw new UpgradeException(
+                        String.format("Failed to process liferay setup configuration (%1$s)", fileName));
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug(String.format("Upgraded database with liferay setup configuration: %1$s", fileName));
             }
@@ -78,4 +87,18 @@ public abstract class BasicSetupUpgradeProcess extends UpgradeProcess {
      * @return paths to setup xml files.
      */
     protected abstract String[] getSetupFileNames();
+
+    /**
+     * @return true if the setup xml files are read section by section, see {@link SetupStream}.
+     */
+    protected boolean isStreamed() {
+        return false;
+    }
+
+    /**
+     * @return true if the setup xml files are loaded from their snapshots when unchanged, see {@link SetupSnapshot}.
+     */
+    protected boolean isSnapshotted() {
+        return false;
+    }
 }
@@ -27,31 +27,37 @@ package com.ableneo.liferay.portal.setup;
  * #L%
  */
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.ableneo.liferay.portal.setup.core.*;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.SetupCheckpoints;
+import com.ableneo.liferay.portal.setup.core.util.SetupExecutors;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
+import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.RunAsUsers;
 import com.ableneo.liferay.portal.setup.domain.*;
 import com.liferay.portal.kernel.exception.PortalException;
 import com.liferay.portal.kernel.exception.SystemException;
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
 import com.liferay.portal.kernel.model.GroupConstants;
-import com.liferay.portal.kernel.model.Role;
-import com.liferay.portal.kernel.model.RoleConstants;
-import com.liferay.portal.kernel.model.User;
 import com.liferay.portal.kernel.security.auth.PrincipalThreadLocal;
 import com.liferay.portal.kernel.security.permission.PermissionChecker;
-import com.liferay.portal.kernel.security.permission.PermissionCheckerFactoryUtil;
 import com.liferay.portal.kernel.security.permission.PermissionThreadLocal;
 import com.liferay.portal.kernel.service.CompanyLocalServiceUtil;
 import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
-import com.liferay.portal.kernel.service.RoleLocalServiceUtil;
-import com.liferay.portal.kernel.service.UserLocalServiceUtil;
 
 public final class LiferaySetup {
 
     private static final Log LOG = LogFactoryUtil.getLog(LiferaySetup.class);
+    private static final String DEFAULT_COMPANY = "default";
 
     private LiferaySetup() {}
 
@@ -61,47 +67,297 @@ public final class LiferaySetup {
      * @return true if all was set up fine
      */
     public static boolean setup(final Setup setup) {
+        return setup(setup, null);
+    }
+
+    /**
+     * Executes a plan computed by {@link #plan(Setup)}. Entities planned as {@link SetupPlan.Action#NO_OP} are skipped
+     * without comparing their content again, the rest of the setup runs as usual.
+     *
+     * @param setup configuration of db setup runner the plan was computed for
+     * @param plan plan to be executed, null to run the whole setup
+     * @return true if all was set up fine
+     */
+    public static boolean setup(final Setup setup, final SetupPlan plan) {
+        return run(new Run(setup, null, plan, SetupListener.NONE, false)).isSuccessful();
+    }
+
+    /**
+     * Runs the setup of a configuration streamed from a file, for configurations too big to be unmarshalled as a whole.
+     * Custom stages are not supported, their stage fails.
+     *
+     * @param stream configuration of db setup runner, see {@link SetupStream#open(java.io.File)}
+     * @return true if all was set up fine
+     */
+    public static boolean setup(final SetupStream stream) {
+        return run(new Run(stream.getHead(), stream, null, SetupListener.NONE, false)).isSuccessful();
+    }
+
+    /**
+     * Runs the setup on the given executor, e.g. to provision content after the portal started serving requests. The
+     * companies are set up as by {@link #setup(Setup)}, the progress is reported to the listener.
+     *
+     * @param setup configuration of db setup runner
+     * @param executor executor the setup runs on
+     * @param listener listener of the progress events, called on the executor and on the setup worker threads
+     * @return future completed with the results of the companies when the setup is done, completed exceptionally if
+     *         the setup fails unexpectedly
+     */
+    public static CompletableFuture<SetupReport> setupAsync(final Setup setup, final Executor executor,
+            final SetupListener listener) {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return CompletableFuture.supplyAsync(() -> {
+            Thread thread = Thread.currentThread();
+            ClassLoader previousClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(contextClassLoader);
+            try {
+                return run(new Run(setup, null, null, listener == null ? SetupListener.NONE : listener, true));
+            } finally {
+                thread.setContextClassLoader(previousClassLoader);
+            }
+        }, executor);
+    }
+
+    /**
+     * @param setup configuration of db setup runner
+     * @param executor executor the setup runs on
+     * @return future completed with the results of the companies when the setup is done
+     * @see #setupAsync(Setup, Executor, SetupListener)
+     */
+    public static CompletableFuture<SetupReport> setupAsync(final Setup setup, final Executor executor) {
+        return setupAsync(setup, executor, SetupListener.NONE);
+    }
+
+    private static SetupReport run(final Run run) {
+
+        final Setup setup = run.setup;
+        int parallelism = setup.getConfiguration().getCompanyParallelism();
+        if (parallelism > 1 && setup.getConfiguration().getCompany().size() > 1) {
+            return setupInParallel(run, parallelism);
+        }
 
+        SetupReport report = new SetupReport();
         String runAsUserEmail = setup.getConfiguration().getRunAsUserEmail();
         final String principalName = PrincipalThreadLocal.getName();
         final PermissionChecker permissionChecker = PermissionThreadLocal.getPermissionChecker();
+        ResolverCache.start();
+        configureRun(run);
 
+        String companyName = DEFAULT_COMPANY;
+        long companyId = -1;
+        long start = System.currentTimeMillis();
         try {
             // iterate over companies or choose default
             final List<Company> companies = setup.getConfiguration().getCompany();
             if (!companies.isEmpty()) {
                 for (Company company : companies) {
-                    Long companyId = company.getCompanyid() != null
+                    companyName = getCompanyName(company);
+                    start = System.currentTimeMillis();
+                    companyId = company.getCompanyid() != null
                             ? company.getCompanyid() : getCompanyIdFromCompanyWebId(company);
                     if (companyId == -1) {
                         continue; // company not found
                     }
-                    if (company.getRunAsUserEmail() != null) {
-                        setupDataForCompany(setup, company.getRunAsUserEmail(), company, companyId);
-                    } else {
-                        setupDataForCompany(setup, runAsUserEmail, company, companyId);
-                    }
+                    String companyRunAsUserEmail =
+                            company.getRunAsUserEmail() != null ? company.getRunAsUserEmail() : runAsUserEmail;
+                    List<SetupReport.StageResult> stageResults =
+                            setupDataForCompany(run, companyRunAsUserEmail, company, companyId);
+                    report.addCompanyResult(SetupReport.CompanyResult.succeeded(companyName, companyId,
+                            System.currentTimeMillis() - start, stageResults));
                 }
             } else {
-                configureThreadLocalContent(runAsUserEmail, SetupConfigurationThreadLocal.getRunInCompanyId());
-                setupGlobalData(setup);
-                setupGroupData(setup);
+                companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+                configureThreadLocalContent(runAsUserEmail, companyId);
+                List<SetupReport.StageResult> stageResults = setupGlobalData(run);
+                setupGroupData(run);
+                SetupCheckpoints.clear();
+                report.addCompanyResult(SetupReport.CompanyResult.succeeded(companyName, companyId,
+                        System.currentTimeMillis() - start, stageResults));
             }
+        } catch (SetupYieldedException e) {
+            // not a failure, the checkpoints are kept for the next run; the remaining companies are not set up
+            LOG.warn(e.getMessage());
+            report.addCompanyResult(SetupReport.CompanyResult.yielded(companyName, companyId,
+                    System.currentTimeMillis() - start, e.getMessage()));
         } catch (LiferaySetupException | PortalException e) {
             LOG.error("An error occured while executing the portal setup ", e);
-            return false;
+            run.listener.error(companyId, companyName, e);
+            report.addCompanyResult(
+                    SetupReport.CompanyResult.failed(companyName, companyId, System.currentTimeMillis() - start, e));
+        } catch (RuntimeException e) {
+            if (!run.reportsRuntimeFailures) {
+                throw e;
+            }
+            LOG.error("An error occured while executing the portal setup ", e);
+            run.listener.error(companyId, companyName, e);
+            report.addCompanyResult(
+                    SetupReport.CompanyResult.failed(companyName, companyId, System.currentTimeMillis() - start, e));
         } finally {
             PrincipalThreadLocal.setName(principalName);
             PermissionThreadLocal.setPermissionChecker(permissionChecker);
             SetupConfigurationThreadLocal.clear(); // in case it'll be run multiple times in the same thread
+            ResolverCache.clear();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("Placeholder resolution skipped for %1$s of %2$s values so far",
+                        ResolverUtil.getSkippedLookupCount(), ResolverUtil.getLookupCount()));
+            }
         }
-        return true;
+        return report;
     }
 
-    private static void setupDataForCompany(Setup setup, String runAsUserEmail, Company company, Long companyId)
-            throws PortalException, LiferaySetupException {
+    /**
+     * Runs the setup of the configured companies concurrently, each company on its own worker thread with its own run
+     * as user, company, group and permission checker. The companies must not depend on each other. A failure of one
+     * company doesn't stop the setup of the others. A company that is not found is skipped as by {@link #setup(Setup)}.
+     *
+     * @param setup configuration of db setup runner
+     * @param parallelism maximal number of companies set up at the same time
+     * @return results of all configured companies that were found
+     */
+    public static SetupReport setupInParallel(final Setup setup, final int parallelism) {
+        return setupInParallel(new Run(setup, null, null, SetupListener.NONE, true), parallelism);
+    }
+
+    private static SetupReport setupInParallel(final Run run, final int parallelism) {
+        final List<Company> companies = run.setup.getConfiguration().getCompany();
+        final SetupReport report = new SetupReport();
+        if (companies.isEmpty()) {
+            return report;
+        }
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        ExecutorService executor =
+                SetupExecutors.newExecutor("companies", Math.min(parallelism, companies.size()));
+        try {
+            List<Future<SetupReport.CompanyResult>> results = new ArrayList<>();
+            for (Company company : companies) {
+                results.add(executor.submit(
+                        () -> setupCompanyOnWorker(run, company, contextClassLoader)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    SetupReport.CompanyResult result = results.get(i).get();
+                    if (result != null) {
+                        report.addCompanyResult(result);
+                    }
+                } catch (ExecutionException e) {
+                    run.listener.error(-1, getCompanyName(companies.get(i)), e.getCause());
+                    report.addCompanyResult(SetupReport.CompanyResult.failed(getCompanyName(companies.get(i)), -1,
+                            0, e.getCause()));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error("Parallel setup of companies was interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (SetupReport.CompanyResult result : report.getCompanyResults()) {
+            LOG.info(result.toString());
+        }
+        LOG.info(report.toString());
+        return report;
+    }
+
+    /**
+     * @return result of the company, null if the company was not found
+     */
+    private static SetupReport.CompanyResult setupCompanyOnWorker(final Run run, final Company company,
+            final ClassLoader contextClassLoader) {
+        Thread.currentThread().setContextClassLoader(contextClassLoader);
+        String companyName = getCompanyName(company);
+        long start = System.currentTimeMillis();
+        long companyId = -1;
+        ResolverCache.start();
+        configureRun(run);
+        try {
+            companyId = company.getCompanyid() != null ? company.getCompanyid() : getCompanyIdFromCompanyWebId(company);
+            if (companyId == -1) {
+                return null; // company not found, skipped as by the sequential setup
+            }
+            String runAsUserEmail = company.getRunAsUserEmail() != null ? company.getRunAsUserEmail()
+                    : run.setup.getConfiguration().getRunAsUserEmail();
+            List<SetupReport.StageResult> stageResults = setupDataForCompany(run, runAsUserEmail, company, companyId);
+            return SetupReport.CompanyResult.succeeded(companyName, companyId, System.currentTimeMillis() - start,
+                    stageResults);
+        } catch (SetupYieldedException e) {
+            LOG.warn(String.format("Setup of company %1$s yielded: %2$s", companyName, e.getMessage()));
+            return SetupReport.CompanyResult.yielded(companyName, companyId, System.currentTimeMillis() - start,
+                    e.getMessage());
+        } catch (LiferaySetupException | PortalException | RuntimeException e) {
+            LOG.error(String.format("An error occured while executing the portal setup of company %1$s", companyName),
+                    e);
+            run.listener.error(companyId, companyName, e);
+            return SetupReport.CompanyResult.failed(companyName, companyId, System.currentTimeMillis() - start, e);
+        } finally {
+            PrincipalThreadLocal.setName(null);
+            PermissionThreadLocal.setPermissionChecker(null);
+            SetupConfigurationThreadLocal.clear();
+            ResolverCache.clear();
+        }
+    }
+
+    /**
+     * Computes the changes the setup would make in the configured companies without writing anything.
+     *
+     * @param setup configuration of db setup runner
+     * @return plan of the setup, to be reviewed or executed by {@link #setup(Setup, SetupPlan)}
+     * @throws LiferaySetupException if the run as user of a company can not be set up
+     */
+    public static SetupPlan plan(final Setup setup) throws LiferaySetupException {
+        SetupPlan plan = new SetupPlan();
+        String runAsUserEmail = setup.getConfiguration().getRunAsUserEmail();
+        final String principalName = PrincipalThreadLocal.getName();
+        final PermissionChecker permissionChecker = PermissionThreadLocal.getPermissionChecker();
+        ResolverCache.start();
+        configureRun(new Run(setup, null, null, SetupListener.NONE, false));
+        try {
+            final List<Company> companies = setup.getConfiguration().getCompany();
+            if (companies.isEmpty()) {
+                configureThreadLocalContent(runAsUserEmail, SetupConfigurationThreadLocal.getRunInCompanyId());
+                SetupPlanner.planCompany(setup, plan);
+            }
+            for (Company company : companies) {
+                long companyId = company.getCompanyid() != null
+                        ? company.getCompanyid() : getCompanyIdFromCompanyWebId(company);
+                if (companyId == -1) {
+                    continue; // company not found
+                }
+                configureThreadLocalContent(
+                        company.getRunAsUserEmail() != null ? company.getRunAsUserEmail() : runAsUserEmail, companyId);
+                SetupPlanner.planCompany(setup, plan);
+            }
+        } catch (PortalException e) {
+            throw new LiferaySetupException("An error occured while planning the portal setup", e);
+        } finally {
+            PrincipalThreadLocal.setName(principalName);
+            PermissionThreadLocal.setPermissionChecker(permissionChecker);
+            SetupConfigurationThreadLocal.clear();
+            ResolverCache.clear();
+        }
+        LOG.info(plan.toString());
+        return plan;
+    }
+
+    private static void configureRun(final Run run) {
+        Configuration configuration = run.setup.getConfiguration();
+        SetupConfigurationThreadLocal.setForceFullRun(configuration.isForceFullRun());
+        SetupConfigurationThreadLocal.setPlan(run.plan);
+        SetupConfigurationThreadLocal.setTransactionChunkSize(configuration.getTransactionChunkSize());
+        // checkpoints are per company, they remember the units of the company
+        SetupConfigurationThreadLocal
+                .setCheckpoints(run.configurationHash != null ? new SetupCheckpoints(run.configurationHash) : null);
+        SetupConfigurationThreadLocal.setListener(run.listener);
+        SetupConfigurationThreadLocal.setThrottle(run.throttle);
+    }
+
+    private static String getCompanyName(final Company company) {
+        return company.getCompanyid() != null ? String.valueOf(company.getCompanyid()) : company.getCompanywebid();
+    }
+
+    private static List<SetupReport.StageResult> setupDataForCompany(Run run, String runAsUserEmail,
+            Company company, Long companyId) throws PortalException, LiferaySetupException {
         configureThreadLocalContent(runAsUserEmail, companyId);
-        setupGlobalData(setup);
+        List<SetupReport.StageResult> stageResults = setupGlobalData(run);
 
         if (company.getGroupName().isEmpty()) {
             company.getGroupName().add(GroupConstants.GUEST);
@@ -109,8 +365,10 @@ public final class LiferaySetup {
         for (String groupName : company.getGroupName()) {
             long groupId = GroupLocalServiceUtil.getGroup(companyId, groupName).getGroupId();
             SetupConfigurationThreadLocal.setRunInGroupId(groupId);
-            setupGroupData(setup);
+            setupGroupData(run);
         }
+        SetupCheckpoints.clear();
+        return stageResults;
     }
 
     private static long getCompanyIdFromCompanyWebId(Company company) {
@@ -126,151 +384,70 @@ public final class LiferaySetup {
 
     private static void configureThreadLocalContent(String runAsUserEmail, long companyId)
             throws PortalException, LiferaySetupException {
+        RunAsUsers.Identity identity = RunAsUsers.get(companyId, runAsUserEmail);
+        SetupConfigurationThreadLocal.setRunAsUserId(identity.getUserId());
+        SetupConfigurationThreadLocal.setRunInCompanyId(companyId);
+        PrincipalThreadLocal.setName(identity.getUserId());
+        PermissionThreadLocal.setPermissionChecker(identity.getPermissionChecker());
         if (runAsUserEmail == null || runAsUserEmail.isEmpty()) {
-            SetupConfigurationThreadLocal.setRunAsUserId(UserLocalServiceUtil.getDefaultUserId(companyId));
-            SetupConfigurationThreadLocal.setRunInCompanyId(companyId);
-            setAdminPermissionCheckerForThread();
             LOG.info("Using default administrator.");
         } else {
-            User user = UserLocalServiceUtil.getUserByEmailAddress(companyId, runAsUserEmail);
-            SetupConfigurationThreadLocal.setRunAsUserId(user.getUserId());
-            SetupConfigurationThreadLocal.setRunInCompanyId(companyId);
-            PrincipalThreadLocal.setName(user.getUserId());
-            PermissionChecker permissionChecker;
-            try {
-                permissionChecker = PermissionCheckerFactoryUtil.create(user);
-            } catch (Exception e) {
-                throw new LiferaySetupException(String.format(
-                        "An error occured while trying to create permissionchecker for user: %1$s", runAsUserEmail), e);
-            }
-            PermissionThreadLocal.setPermissionChecker(permissionChecker);
-
             LOG.info(String.format("Execute setup module as user %1$s", runAsUserEmail));
         }
     }
 
-    private static void setupGlobalData(final Setup setup) throws LiferaySetupException {
-        if (setup.getDeleteLiferayObjects() != null) {
-            LOG.info(String.format("Deleting : %1$s objects",
-                    setup.getDeleteLiferayObjects().getObjectsToBeDeleted().size()));
-            deleteObjects(setup.getDeleteLiferayObjects().getObjectsToBeDeleted());
-        }
-
-        if (setup.getCustomFields() != null) {
-            LOG.info(String.format("Setting up %1$s custom fields", setup.getCustomFields().getField().size()));
-            SetupCustomFields.setupExpandoFields(setup.getCustomFields().getField());
-        }
-
-        if (setup.getRoles() != null) {
-            LOG.info(String.format("Setting up %1$s roles", setup.getRoles().getRole().size()));
-            SetupRoles.setupRoles(setup.getRoles().getRole());
-        }
-        if (setup.getUsers() != null) {
-            LOG.info(String.format("Setting up %1$s users", setup.getUsers().getUser().size()));
-            SetupUsers.setupUsers(setup.getUsers().getUser());
-        }
-
-        if (setup.getOrganizations() != null) {
-            LOG.info(String.format("Setting up %1$s organizations", setup.getOrganizations().getOrganization().size()));
-            SetupOrganizations.setupOrganizations(setup.getOrganizations().getOrganization(), null, null);
-        }
-
-        if (setup.getUserGroups() != null) {
-            LOG.info(String.format("Setting up %1$s User Groups", setup.getUserGroups().getUserGroup().size()));
-            SetupUserGroups.setupUserGroups(setup.getUserGroups().getUserGroup());
-        }
-
-        if (setup.getResourcePermissions() != null) {
-            LOG.info(String.format("Setting up %1$s resource permissions",
-                    setup.getResourcePermissions().getResource().size()));
-            SetupPermissions.setupPortletPermissions(setup.getResourcePermissions());
-        }
-
-        if (setup.getSites() != null) {
-            LOG.info(String.format("Setting up %1$s sites", setup.getSites().getSite().size()));
-            try {
-                SetupSites.setupSites(setup.getSites().getSite(), null);
-            } catch (PortalException e) {
-                throw new LiferaySetupException("", e);
-            }
-        }
-
+    private static List<SetupReport.StageResult> setupGlobalData(final Run run) throws LiferaySetupException {
+        List<SetupReport.StageResult> stageResults =
+                SetupPipeline.fromConfiguration(run.setup.getConfiguration()).run(run.source());
         LOG.info("Setup finished");
+        return stageResults;
     }
 
-    private static void setupGroupData(Setup setup) {
-        if (setup.getPageTemplates() != null) {
-            SetupPages.setupPageTemplates(setup.getPageTemplates());
+    private static void setupGroupData(Run run) throws LiferaySetupException {
+        PageTemplates pageTemplates = run.stream != null ? run.stream.getPageTemplates() : run.setup.getPageTemplates();
+        if (pageTemplates != null) {
+            SetupPages.setupPageTemplates(pageTemplates);
         }
 
         LOG.info("Setup of portal groups finished");
     }
 
     /**
-     * Initializes permission checker for Liferay Admin. Used to grant access to
-     * custom fields.
-     *
-     * @throws Exception if cannot set permission checker
+     * One call of the setup: the configuration, where the stages read it from and the state shared by the companies.
      */
-    private static void setAdminPermissionCheckerForThread() throws LiferaySetupException {
-        User adminUser = getAdminUser();
-        SetupConfigurationThreadLocal.setRunAsUserId(Objects.requireNonNull(adminUser).getUserId());
-        PrincipalThreadLocal.setName(adminUser.getUserId());
-        PermissionChecker permissionChecker;
-        try {
-            permissionChecker = PermissionCheckerFactoryUtil.create(adminUser);
-        } catch (Exception e) {
-            throw new LiferaySetupException(
-                    String.format("Failed to create permission checker for user: %1$s", adminUser), e);
-        }
-        PermissionThreadLocal.setPermissionChecker(permissionChecker);
-    }
-
-    private static void deleteObjects(final List<ObjectsToBeDeleted> objectsToBeDeleted) {
-
-        for (ObjectsToBeDeleted otbd : objectsToBeDeleted) {
-            if (otbd.getRoles() != null) {
-                List<com.ableneo.liferay.portal.setup.domain.Role> roles = otbd.getRoles().getRole();
-                SetupRoles.deleteRoles(roles, otbd.getDeleteMethod());
-            }
-            if (otbd.getUsers() != null) {
-                List<com.ableneo.liferay.portal.setup.domain.User> users = otbd.getUsers().getUser();
-                SetupUsers.deleteUsers(users, otbd.getDeleteMethod());
-            }
-            if (otbd.getOrganizations() != null) {
-                List<Organization> organizations = otbd.getOrganizations().getOrganization();
-                SetupOrganizations.deleteOrganization(organizations, otbd.getDeleteMethod());
-            }
-            if (otbd.getCustomFields() != null) {
-                List<CustomFields.Field> customFields = otbd.getCustomFields().getField();
-                SetupCustomFields.deleteCustomFields(customFields, otbd.getDeleteMethod());
+    private static final class Run {
+        private final Setup setup;
+        private final SetupStream stream;
+        private final SetupPlan plan;
+        private final SetupListener listener;
+        private final SetupThrottle throttle;
+        private final String configurationHash;
+        private final boolean reportsRuntimeFailures;
+
+        /**
+         * @param setup whole configuration, or its configuration section only if streamed
+         * @param stream stream the stages read the configuration from, null if the whole configuration is given
+         * @param reportsRuntimeFailures true to report an unexpected failure of a company in the report, false to let
+         *            it propagate to the caller of a blocking setup
+         */
+        private Run(final Setup setup, final SetupStream stream, final SetupPlan plan, final SetupListener listener,
+                final boolean reportsRuntimeFailures) {
+            this.setup = setup;
+            this.stream = stream;
+            this.plan = plan;
+            this.listener = listener;
+            this.reportsRuntimeFailures = reportsRuntimeFailures;
+            this.throttle = SetupThrottle.of(setup);
+            // only a resumable run or a run with a time budget keeps checkpoints under the hash
+            if (!SetupCheckpoints.isKept(setup)) {
+                this.configurationHash = null;
+            } else {
+                this.configurationHash = stream != null ? stream.getConfigurationHash() : SetupCheckpoints.hash(setup);
             }
         }
-    }
 
-    /**
-     * Returns Liferay user, that has Administrator role assigned.
-     *
-     * @return Liferay {@link com.ableneo.liferay.portal.setup.domain.User}
-     *         instance, if no user is found, returns null
-     * @throws Exception if cannot obtain permission checker
-     */
-    private static User getAdminUser() throws LiferaySetupException {
-
-        try {
-            Role adminRole = RoleLocalServiceUtil.getRole(SetupConfigurationThreadLocal.getRunInCompanyId(),
-                    RoleConstants.ADMINISTRATOR);
-            List<User> adminUsers = UserLocalServiceUtil.getRoleUsers(adminRole.getRoleId());
-
-            if (adminUsers == null || adminUsers.isEmpty()) {
-                return null;
-            }
-            return adminUsers.get(0);
-
-        } catch (PortalException | SystemException e) {
-            throw new LiferaySetupException(
-                    String.format("Cannot obtain Liferay role for role name: %1$s", RoleConstants.ADMINISTRATOR), e);
+        private SetupPipeline.Source source() {
+            return stream != null ? stream : SetupPipeline.source(setup);
         }
     }
-
 }
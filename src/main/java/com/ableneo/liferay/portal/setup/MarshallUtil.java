@@ -28,19 +28,38 @@ package com.ableneo.liferay.portal.setup;
  */
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventLocator;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.namespace.QName;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
+import org.xml.sax.ContentHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
@@ -55,15 +74,20 @@ public final class MarshallUtil {
     private static final Log LOG = LogFactoryUtil.getLog(MarshallUtil.class);
 
     private static final SAXParserFactory spf = SAXParserFactory.newInstance();
-    private static final Schema schema = getSchema();
-    private static XMLReader xr = null;
-    private static Unmarshaller unmarshaller = getUnmarshaller();
+    /**
+     * Neither readers nor unmarshallers are thread-safe, each parse borrows a pair of its own. The pairs are reused
+     * by later parses, the number of pairs is given by the number of parses run at the same time.
+     */
+    private static final Queue<Parser> parsers = new ConcurrentLinkedQueue<>();
+    /**
+     * Configurations loaded by {@link #validateAgainstXSD(File)} by the canonical path of their file.
+     */
+    private static final ConcurrentMap<String, ValidatedFile> validatedFiles = new ConcurrentHashMap<>();
 
     static {
         spf.setNamespaceAware(true);
         try {
             spf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            xr = spf.newSAXParser().getXMLReader();
         } catch (SAXException | ParserConfigurationException e) {
             LOG.error(e);
         }
@@ -74,38 +98,259 @@ public final class MarshallUtil {
     }
 
     /**
+     * Returns the configuration loaded by the last {@link #validateAgainstXSD(File)} of the same file if its content
+     * did not change since, so the file is not parsed again. The content is compared by its hash.
+     *
      * @param xmlConfigurationFile file with db setup configuration that validates against schema
      * @return valid Setup object or null, in case null is returned please inspect logs
      * @throws FileNotFoundException when provided file cannot be found
      */
     public static Setup unmarshall(final File xmlConfigurationFile) throws FileNotFoundException {
-        return unmarshall(new FileInputStream(xmlConfigurationFile));
+        ValidatedFile validated = null;
+        try {
+            validated = validatedFiles.remove(xmlConfigurationFile.getCanonicalPath());
+        } catch (IOException e) {
+            LOG.debug(String.format("Cannot resolve %1$s, loading it again", xmlConfigurationFile), e);
+        }
+        SetupLoadResult result = validated != null ? validated.getResult(xmlConfigurationFile) : null;
+        if (result == null) {
+            result = load(xmlConfigurationFile);
+        }
+        logDiagnostics(result);
+        return result.getSetup();
+    }
+
+    /**
+     * Loads the configuration from its snapshot when the snapshot is of the current content of the file, see
+     * {@link SetupSnapshot}. Otherwise the file is parsed and a snapshot is written for the next load.
+     *
+     * @param xmlConfigurationFile file with db setup configuration that validates against schema
+     * @param useSnapshot false to always parse the file, the same as {@link #unmarshall(File)}
+     * @return valid Setup object or null, in case null is returned please inspect logs
+     * @throws FileNotFoundException when provided file cannot be found
+     */
+    public static Setup unmarshall(final File xmlConfigurationFile, final boolean useSnapshot)
+            throws FileNotFoundException {
+        if (!useSnapshot) {
+            return unmarshall(xmlConfigurationFile);
+        }
+        byte[] key;
+        try {
+            key = SetupSnapshot.key(xmlConfigurationFile);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            LOG.warn(String.format("Cannot read %1$s, snapshot is not used", xmlConfigurationFile), e);
+            return unmarshall(xmlConfigurationFile);
+        }
+        Setup setup = SetupSnapshot.read(xmlConfigurationFile, key);
+        if (setup != null) {
+            return setup;
+        }
+        setup = unmarshall(xmlConfigurationFile);
+        if (setup != null) {
+            try {
+                SetupSnapshot.write(xmlConfigurationFile, key, setup);
+            } catch (IOException e) {
+                LOG.warn(String.format("Cannot write snapshot of %1$s", xmlConfigurationFile), e);
+            }
+        }
+        return setup;
     }
 
     public static Setup unmarshall(final InputStream stream) {
+        SetupLoadResult result = load(stream);
+        logDiagnostics(result);
+        return result.getSetup();
+    }
+
+    /**
+     * Reads and validates the configuration in one parse.
+     *
+     * @param xmlConfigurationFile file with db setup configuration
+     * @return the configuration if valid and the problems found in it
+     * @throws FileNotFoundException when provided file cannot be found
+     */
+    public static SetupLoadResult load(final File xmlConfigurationFile) throws FileNotFoundException {
+        InputStream stream = new FileInputStream(xmlConfigurationFile);
+        try {
+            return load(stream);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                LOG.warn(String.format("Cannot close %1$s", xmlConfigurationFile), e);
+            }
+        }
+    }
+
+    /**
+     * Reads and validates the configuration in one parse. All schema errors are reported, the parse stops at the
+     * first fatal error only.
+     *
+     * @param stream db setup configuration
+     * @return the configuration if valid and the problems found in it
+     */
+    public static SetupLoadResult load(final InputStream stream) {
+        final List<SetupLoadResult.Diagnostic> diagnostics = new ArrayList<>();
+        Setup setup = null;
         try {
-            SAXSource src = new SAXSource(xr, new InputSource(stream));
-            return (Setup) unmarshaller.unmarshal(src);
+            Parser parser = borrowParser();
+            parser.unmarshaller.setEventHandler(event -> {
+                diagnostics.add(toDiagnostic(event));
+                return event.getSeverity() != ValidationEvent.FATAL_ERROR;
+            });
+            SAXSource src = new SAXSource(parser.xmlReader, new InputSource(stream));
+            setup = (Setup) parser.unmarshaller.unmarshal(src);
+            parser.unmarshaller.setEventHandler(null);
+            // a parser that failed is dropped, its state is unknown
+            parsers.offer(parser);
         } catch (JAXBException e) {
-            LOG.error("Cannot unmarshall the provided stream", e);
+            if (diagnostics.stream().noneMatch(d -> d.getSeverity() == SetupLoadResult.Severity.FATAL_ERROR)) {
+                Throwable cause = e.getLinkedException() != null ? e.getLinkedException() : e;
+                diagnostics.add(new SetupLoadResult.Diagnostic(SetupLoadResult.Severity.FATAL_ERROR, -1, -1,
+                        String.valueOf(cause.getMessage())));
+            }
+        }
+        return new SetupLoadResult(setup, diagnostics);
+    }
+
+    private static SetupLoadResult.Diagnostic toDiagnostic(final ValidationEvent event) {
+        SetupLoadResult.Severity severity;
+        switch (event.getSeverity()) {
+            case ValidationEvent.WARNING:
+                severity = SetupLoadResult.Severity.WARNING;
+                break;
+            case ValidationEvent.ERROR:
+                severity = SetupLoadResult.Severity.ERROR;
+                break;
+            default:
+                severity = SetupLoadResult.Severity.FATAL_ERROR;
+        }
+        ValidationEventLocator locator = event.getLocator();
+        return new SetupLoadResult.Diagnostic(severity, locator != null ? locator.getLineNumber() : -1,
+                locator != null ? locator.getColumnNumber() : -1, event.getMessage());
+    }
+
+    private static void logDiagnostics(final SetupLoadResult result) {
+        for (SetupLoadResult.Diagnostic diagnostic : result.getDiagnostics()) {
+            if (diagnostic.getSeverity() == SetupLoadResult.Severity.WARNING) {
+                LOG.warn(diagnostic.toString());
+            } else {
+                LOG.error(diagnostic.toString());
+            }
+        }
+        if (!result.isValid()) {
+            LOG.error("Cannot unmarshall the provided stream");
+        }
+    }
+
+    /**
+     * Writes any element of the configuration, e.g. an article, as XML fragment.
+     *
+     * @param element part of the setup configuration
+     * @param outputStream receives the XML
+     * @throws JAXBException if the element can't be marshalled
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static void marshallFragment(final Object element, final OutputStream outputStream) throws JAXBException {
+        Marshaller marshaller = context().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        marshaller.marshal(new JAXBElement(new QName(element.getClass().getSimpleName()), element.getClass(), element),
+                outputStream);
+    }
+
+    /**
+     * Passes any element of the configuration as SAX events to the handler, e.g. to hash a part of it.
+     *
+     * @param element part of the setup configuration
+     * @param handler receives the element
+     * @throws JAXBException if the element can't be marshalled
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static void marshallFragment(final Object element, final ContentHandler handler) throws JAXBException {
+        Marshaller marshaller = context().createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        marshaller.marshal(new JAXBElement(new QName(element.getClass().getSimpleName()), element.getClass(), element),
+                handler);
+    }
+
+    /**
+     * @return unmarshaller of single elements of the configuration, e.g. a user read from a stream; the elements are
+     *         not validated, validate the whole configuration beforehand
+     * @throws JAXBException if the unmarshaller can't be created
+     */
+    static Unmarshaller createFragmentUnmarshaller() throws JAXBException {
+        JAXBContext context = context();
+        if (context == null) {
+            throw new JAXBException("db-setup-core library is broken in unexpected way. Please fix the library.");
+        }
+        return context.createUnmarshaller();
+    }
+
+    /**
+     * Creates the JAXB context, the schema and a parser ahead of the first use, which otherwise pays for them. The
+     * class itself loads cheaply, nodes that never run the setup don't create any of them.
+     */
+    public static void warmUp() {
+        try {
+            parsers.offer(borrowParser());
+        } catch (JAXBException e) {
+            LOG.error("Failed to warm up configuration parsing", e);
         }
-        return null;
     }
 
-    private static Unmarshaller getUnmarshaller() {
+    /**
+     * Runs {@link #warmUp()} in the background.
+     *
+     * @param executor runs the warm up
+     * @return completed when the warm up finished
+     */
+    public static CompletableFuture<Void> warmUp(final Executor executor) {
+        return CompletableFuture.runAsync(MarshallUtil::warmUp, executor);
+    }
+
+    private static JAXBContext context() {
+        return ContextHolder.CONTEXT;
+    }
+
+    private static Schema schema() {
+        return SchemaHolder.SCHEMA;
+    }
+
+    private static JAXBContext getContext() {
         ClassLoader cl = ObjectFactory.class.getClassLoader();
-        JAXBContext jc;
         try {
-            jc = JAXBContext.newInstance(ObjectFactory.class.getPackage().getName(), cl);
-            final Unmarshaller unmarshaller = jc.createUnmarshaller();
-            unmarshaller.setSchema(schema);
-            return unmarshaller;
+            return JAXBContext.newInstance(ObjectFactory.class.getPackage().getName(), cl);
         } catch (JAXBException e) {
             LOG.error("db-setup-core library is broken in unexpected way. Please fix the library.", e);
         }
         return null;
     }
 
+    private static Parser borrowParser() throws JAXBException {
+        Parser parser = parsers.poll();
+        if (parser != null) {
+            return parser;
+        }
+        JAXBContext context = context();
+        if (context == null) {
+            throw new JAXBException("db-setup-core library is broken in unexpected way. Please fix the library.");
+        }
+        final Unmarshaller unmarshaller = context.createUnmarshaller();
+        unmarshaller.setSchema(schema());
+        try {
+            XMLReader xmlReader;
+            // factories are not thread-safe
+            synchronized (spf) {
+                xmlReader = spf.newSAXParser().getXMLReader();
+            }
+            return new Parser(xmlReader, unmarshaller);
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new JAXBException("Cannot create XML reader", e);
+        }
+    }
+
     /**
      * @throws IllegalStateException
      *         Code of db-setup-core is broken. Please fix the library.
@@ -115,7 +360,7 @@ public final class MarshallUtil {
      *
      */
     public static boolean validateAgainstXSD(final InputStream inputStream) {
-        Validator validator = schema.newValidator();
+        Validator validator = schema().newValidator();
         try {
             validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, StringPool.BLANK);
             validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, StringPool.BLANK);
@@ -129,6 +374,44 @@ public final class MarshallUtil {
     }
 
     /**
+     * Validates the configuration and hands the validated content to the handler in the same pass, e.g. to hash it
+     * without reading the file again.
+     *
+     * @param handler handler of the content of the configuration
+     * @throws IOException if the configuration can not be read
+     * @throws IllegalStateException
+     *         Code of db-setup-core is broken. Please fix the library.
+     * @return if provided configuration is valid
+     */
+    public static boolean validateAgainstXSD(final InputStream inputStream, final ContentHandler handler)
+            throws IOException {
+        ValidatorHandler validatorHandler = schema().newValidatorHandler();
+        validatorHandler.setContentHandler(handler);
+        try {
+            validatorHandler.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, StringPool.BLANK);
+            validatorHandler.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, StringPool.BLANK);
+            XMLReader xmlReader;
+            // factories are not thread-safe
+            synchronized (spf) {
+                xmlReader = spf.newSAXParser().getXMLReader();
+            }
+            xmlReader.setContentHandler(validatorHandler);
+            xmlReader.parse(new InputSource(inputStream));
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("db-setup-core is broken in unexpected manner. Please fix the library.", e);
+        } catch (SAXException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads the configuration with {@link #load(File)}, a following {@link #unmarshall(File)} of the same file with
+     * the same content returns the loaded configuration without parsing the file again. The content is hashed while
+     * it is parsed, the file is read once. Until then the loaded object graph stays
+     * reachable through a soft reference, i.e. it is kept until the file is unmarshalled or the memory runs low; a
+     * caller that validates a large file without unmarshalling it should use {@link #load(File)} instead.
+     *
      * @throws IllegalStateException
      *         Code of db-setup-core is broken. Please fix the library.
      * @throws NullPointerException If <code>source</code> is
@@ -138,12 +421,47 @@ public final class MarshallUtil {
      */
     public static boolean validateAgainstXSD(final File xmlConfigurationFile) {
         try {
-            return validateAgainstXSD(new FileInputStream(xmlConfigurationFile));
+            String path = xmlConfigurationFile.getCanonicalPath();
+            MessageDigest digest = newDigest();
+            SetupLoadResult result;
+            try (InputStream in = new DigestInputStream(new FileInputStream(xmlConfigurationFile), digest)) {
+                result = load(in);
+                // the parser may stop before the end of the file, the hash is of the whole content
+                drain(in);
+            }
+            validatedFiles.put(path, new ValidatedFile(path, digest.digest(), result));
+            return result.isValid();
         } catch (IOException e) {
             throw new IllegalStateException("db-setup-core is broken in unexpected manner. Please fix the library.", e);
         }
     }
 
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void drain(final InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // read to be digested
+        }
+    }
+
+    /**
+     * @return hash of the content of the file
+     */
+    private static byte[] contentHash(final File file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+            drain(in);
+        }
+        return digest.digest();
+    }
+
     private static Schema getSchema() {
         ClassLoader cl = MarshallUtil.class.getClassLoader();
         InputStream schemaInputStream = cl.getResourceAsStream("setup_definition.xsd");
@@ -160,4 +478,66 @@ public final class MarshallUtil {
         }
         return schema;
     }
+
+    /**
+     * Created on first use, building the context takes long and holds a lot of metadata.
+     */
+    private static final class ContextHolder {
+        private static final JAXBContext CONTEXT = getContext();
+    }
+
+    /**
+     * Created on first use.
+     */
+    private static final class SchemaHolder {
+        private static final Schema SCHEMA = getSchema();
+    }
+
+    /**
+     * Reader and unmarshaller used by one parse at a time.
+     */
+    private static final class Parser {
+        private final XMLReader xmlReader;
+        private final Unmarshaller unmarshaller;
+
+        private Parser(final XMLReader xmlReader, final Unmarshaller unmarshaller) {
+            this.xmlReader = xmlReader;
+            this.unmarshaller = unmarshaller;
+        }
+    }
+
+    /**
+     * Configuration loaded by {@link #validateAgainstXSD(File)} with the hash of the content it was loaded from, kept
+     * until the file is unmarshalled or memory runs low.
+     */
+    private static final class ValidatedFile {
+        private final String path;
+        private final byte[] contentHash;
+        private final SoftReference<SetupLoadResult> result;
+
+        private ValidatedFile(final String path, final byte[] contentHash, final SetupLoadResult result) {
+            this.path = path;
+            this.contentHash = contentHash;
+            this.result = new SoftReference<>(result);
+        }
+
+        /**
+         * @return the loaded configuration if it was loaded from the content the file has now, null otherwise; the
+         *         file is read to be hashed, not parsed
+         */
+        private SetupLoadResult getResult(final File file) {
+            SetupLoadResult loaded = result.get();
+            if (loaded == null) {
+                return null;
+            }
+            try {
+                if (path.equals(file.getCanonicalPath()) && MessageDigest.isEqual(contentHash, contentHash(file))) {
+                    return loaded;
+                }
+            } catch (IOException e) {
+                LOG.debug(String.format("Cannot read %1$s, loading it again", file), e);
+            }
+            return null;
+        }
+    }
 }
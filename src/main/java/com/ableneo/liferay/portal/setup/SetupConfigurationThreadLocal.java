@@ -26,43 +26,63 @@ package com.ableneo.liferay.portal.setup;
  * #L%
  */
 
+import java.util.concurrent.Callable;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.SetupCheckpoints;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
 import com.liferay.petra.lang.CentralizedThreadLocal;
 import com.liferay.portal.kernel.exception.PortalException;
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
 import com.liferay.portal.kernel.model.GroupConstants;
+import com.liferay.portal.kernel.security.auth.PrincipalThreadLocal;
+import com.liferay.portal.kernel.security.permission.PermissionThreadLocal;
 import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
 import com.liferay.portal.kernel.service.UserLocalServiceUtil;
 import com.liferay.portal.kernel.util.PortalUtil;
 
+/**
+ * Setup state of the current thread. Kept for the setup modules that read the ids deep in their call stack, the ids,
+ * permission checker and resolver cache are available as {@link SetupContext}. The settings of the run, e.g. its plan,
+ * listener or throttle, are kept only here.
+ */
 public class SetupConfigurationThreadLocal {
     private static final Log LOG = LogFactoryUtil.getLog(SetupConfigurationThreadLocal.class);
+    // the ids default to the default company, its default user and guest group when read unset
     private static final ThreadLocal<Long> _runAsUserId =
-            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._runAsUserId", () -> {
-                try {
-                    return UserLocalServiceUtil.getDefaultUserId(PortalUtil.getDefaultCompanyId());
-                } catch (PortalException e) {
-                    LOG.error("Failed to get default user id", e);
-                }
-                return null;
-            });
-    private static final ThreadLocal<Long> _runInCompanyId = new CentralizedThreadLocal<>(
-            SetupConfigurationThreadLocal.class + "._runInCompanyId", PortalUtil::getDefaultCompanyId);
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._runAsUserId", () -> null);
+    private static final ThreadLocal<Long> _runInCompanyId =
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._runInCompanyId", () -> null);
     private static final ThreadLocal<Long> _runInGroupId =
-            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._runInGroupId", () -> {
-                try {
-                    return GroupLocalServiceUtil.getGroup(PortalUtil.getDefaultCompanyId(), GroupConstants.GUEST)
-                            .getGroupId();
-                } catch (PortalException e) {
-                    LOG.error("Failed to get Guest group id for default company", e);
-                }
-                return null;
-            });
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._runInGroupId", () -> null);
+
+    private static final ThreadLocal<Boolean> _forceFullRun = new CentralizedThreadLocal<>(
+            SetupConfigurationThreadLocal.class + "._forceFullRun", () -> Boolean.FALSE);
+    private static final ThreadLocal<SetupPlan> _plan =
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._plan", () -> null);
+    private static final ThreadLocal<Integer> _transactionChunkSize = new CentralizedThreadLocal<>(
+            SetupConfigurationThreadLocal.class + "._transactionChunkSize", () -> 0);
+    private static final ThreadLocal<SetupCheckpoints> _checkpoints =
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._checkpoints", () -> null);
+    private static final ThreadLocal<SetupListener> _listener = new CentralizedThreadLocal<>(
+            SetupConfigurationThreadLocal.class + "._listener", () -> SetupListener.NONE);
+    private static final ThreadLocal<SetupThrottle> _throttle =
+            new CentralizedThreadLocal<>(SetupConfigurationThreadLocal.class + "._throttle", () -> null);
 
     private SetupConfigurationThreadLocal() {}
 
     public static Long getRunAsUserId() {
-        return _runAsUserId.get();
+        Long runAsUserId = _runAsUserId.get();
+        if (runAsUserId == null) {
+            try {
+                runAsUserId = UserLocalServiceUtil.getDefaultUserId(PortalUtil.getDefaultCompanyId());
+                _runAsUserId.set(runAsUserId);
+            } catch (PortalException e) {
+                LOG.error("Failed to get default user id", e);
+            }
+        }
+        return runAsUserId;
     }
 
     public static void setRunAsUserId(Long runAsUserId) {
@@ -70,7 +90,12 @@ public class SetupConfigurationThreadLocal {
     }
 
     public static Long getRunInCompanyId() {
-        return _runInCompanyId.get();
+        Long runInCompanyId = _runInCompanyId.get();
+        if (runInCompanyId == null) {
+            runInCompanyId = PortalUtil.getDefaultCompanyId();
+            _runInCompanyId.set(runInCompanyId);
+        }
+        return runInCompanyId;
     }
 
     public static void setRunInCompanyId(Long runInCompanyId) {
@@ -78,16 +103,206 @@ public class SetupConfigurationThreadLocal {
     }
 
     public static Long getRunInGroupId() {
-        return _runInGroupId.get();
+        Long runInGroupId = _runInGroupId.get();
+        if (runInGroupId == null) {
+            try {
+                runInGroupId = GroupLocalServiceUtil.getGroup(PortalUtil.getDefaultCompanyId(), GroupConstants.GUEST)
+                        .getGroupId();
+                _runInGroupId.set(runInGroupId);
+            } catch (PortalException e) {
+                LOG.error("Failed to get Guest group id for default company", e);
+            }
+        }
+        return runInGroupId;
     }
 
     public static void setRunInGroupId(Long runInGroupId) {
         _runInGroupId.set(runInGroupId);
     }
 
+    /**
+     * @return true if entities the setup ledger knows as unchanged are written too
+     */
+    public static boolean isForceFullRun() {
+        return _forceFullRun.get();
+    }
+
+    public static void setForceFullRun(boolean forceFullRun) {
+        _forceFullRun.set(forceFullRun);
+    }
+
+    /**
+     * @return plan the current run executes, null if the run was not planned
+     */
+    public static SetupPlan getPlan() {
+        return _plan.get();
+    }
+
+    public static void setPlan(SetupPlan plan) {
+        _plan.set(plan);
+    }
+
+    /**
+     * @return number of entities written in one transaction, 0 or 1 if each write commits on its own
+     */
+    public static int getTransactionChunkSize() {
+        return _transactionChunkSize.get();
+    }
+
+    public static void setTransactionChunkSize(int transactionChunkSize) {
+        _transactionChunkSize.set(transactionChunkSize);
+    }
+
+    /**
+     * @return checkpoints of the current run, null if the run does not record them
+     */
+    public static SetupCheckpoints getCheckpoints() {
+        return _checkpoints.get();
+    }
+
+    public static void setCheckpoints(SetupCheckpoints checkpoints) {
+        _checkpoints.set(checkpoints);
+    }
+
+    /**
+     * @return listener of the progress events of the current run, never null
+     */
+    public static SetupListener getListener() {
+        return _listener.get();
+    }
+
+    public static void setListener(SetupListener listener) {
+        _listener.set(listener == null ? SetupListener.NONE : listener);
+    }
+
+    /**
+     * @return throttle of the current run, null if the run is not limited
+     */
+    public static SetupThrottle getThrottle() {
+        return _throttle.get();
+    }
+
+    public static void setThrottle(SetupThrottle throttle) {
+        _throttle.set(throttle);
+    }
+
+    /**
+     * @return snapshot of the setup state of the current thread
+     */
+    public static SetupContext getContext() {
+        return new SetupContext(toLong(getRunInCompanyId()), toLong(getRunInGroupId()), toLong(getRunAsUserId()),
+                PermissionThreadLocal.getPermissionChecker(), ResolverCache.getScope());
+    }
+
+    private static long toLong(Long id) {
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Sets the ids of the current thread, the principal, permission checker and resolver cache. The settings of the run
+     * are left as they are.
+     *
+     * @param context the state to be used by the current thread
+     */
+    public static void setContext(SetupContext context) {
+        setRunInCompanyId(context.getCompanyId());
+        setRunInGroupId(context.getGroupId());
+        setRunAsUserId(context.getRunAsUserId());
+        PrincipalThreadLocal.setName(context.getRunAsUserId());
+        PermissionThreadLocal.setPermissionChecker(context.getPermissionChecker());
+        ResolverCache.setScope(context.getResolverCache());
+    }
+
+    /**
+     * Wraps a task handed over to a worker thread, the task runs with the settings of the run the current thread has
+     * now. The settings of the worker thread are set back when the task is done.
+     *
+     * @param task work to be done with the settings of the current run
+     * @return task setting the run settings up around the given task
+     */
+    public static <T> Callable<T> inheritRunSettings(final Callable<T> task) {
+        final RunSettings settings = new RunSettings();
+        return () -> {
+            final RunSettings previous = new RunSettings();
+            settings.apply();
+            try {
+                return task.call();
+            } finally {
+                previous.apply();
+            }
+        };
+    }
+
+    /**
+     * @return setup state of the current thread as it is, unset ids are not defaulted
+     */
+    static Saved save() {
+        return new Saved();
+    }
+
+    /**
+     * Sets the setup state of the current thread back to the saved one.
+     */
+    static void restore(Saved saved) {
+        restore(_runInCompanyId, saved.runInCompanyId);
+        restore(_runAsUserId, saved.runAsUserId);
+        restore(_runInGroupId, saved.runInGroupId);
+        saved.runSettings.apply();
+    }
+
+    private static void restore(ThreadLocal<Long> threadLocal, Long value) {
+        if (value == null) {
+            threadLocal.remove();
+        } else {
+            threadLocal.set(value);
+        }
+    }
+
     public static void clear() {
         _runInCompanyId.remove();
         _runAsUserId.remove();
         _runInGroupId.remove();
+        _forceFullRun.remove();
+        _plan.remove();
+        _transactionChunkSize.remove();
+        _checkpoints.remove();
+        _listener.remove();
+        _throttle.remove();
+    }
+
+    /**
+     * Setup state of a thread saved to be restored later.
+     */
+    static final class Saved {
+        private final Long runInCompanyId = _runInCompanyId.get();
+        private final Long runAsUserId = _runAsUserId.get();
+        private final Long runInGroupId = _runInGroupId.get();
+        private final RunSettings runSettings = new RunSettings();
+
+        private Saved() {}
+    }
+
+    /**
+     * Settings of the run the current thread executes, they are the same for all companies, groups and threads of a
+     * run.
+     */
+    private static final class RunSettings {
+        private final Boolean forceFullRun = _forceFullRun.get();
+        private final SetupPlan plan = _plan.get();
+        private final Integer transactionChunkSize = _transactionChunkSize.get();
+        private final SetupCheckpoints checkpoints = _checkpoints.get();
+        private final SetupListener listener = _listener.get();
+        private final SetupThrottle throttle = _throttle.get();
+
+        private RunSettings() {}
+
+        private void apply() {
+            _forceFullRun.set(forceFullRun);
+            _plan.set(plan);
+            _transactionChunkSize.set(transactionChunkSize);
+            _checkpoints.set(checkpoints);
+            _listener.set(listener);
+            _throttle.set(throttle);
+        }
     }
 }
@@ -0,0 +1,134 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.Callable;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.RunAsUsers;
+import com.liferay.portal.kernel.security.auth.PrincipalThreadLocal;
+import com.liferay.portal.kernel.security.permission.PermissionChecker;
+import com.liferay.portal.kernel.security.permission.PermissionThreadLocal;
+
+/**
+ * Immutable state of a setup run: company, group and user the setup runs in and as, the permission checker of the
+ * user and the run scoped resolver cache. The setup modules taking a context read the state from it, the modules
+ * reading the state of the current thread get it from {@link SetupConfigurationThreadLocal}. A context can be handed
+ * over to another thread with {@link #call(Callable)}.
+ */
+public final class SetupContext {
+
+    private final long companyId;
+    private final long groupId;
+    private final long runAsUserId;
+    private final PermissionChecker permissionChecker;
+    private final ResolverCache.Scope resolverCache;
+
+    public SetupContext(final long companyId, final long groupId, final long runAsUserId,
+            final PermissionChecker permissionChecker, final ResolverCache.Scope resolverCache) {
+        this.companyId = companyId;
+        this.groupId = groupId;
+        this.runAsUserId = runAsUserId;
+        this.permissionChecker = permissionChecker;
+        this.resolverCache = resolverCache;
+    }
+
+    /**
+     * @return context of the current thread
+     */
+    public static SetupContext current() {
+        return SetupConfigurationThreadLocal.getContext();
+    }
+
+    public long getCompanyId() {
+        return companyId;
+    }
+
+    public long getGroupId() {
+        return groupId;
+    }
+
+    public long getRunAsUserId() {
+        return runAsUserId;
+    }
+
+    /**
+     * @return permission checker of the run as user, may be null if none was set for the run
+     */
+    public PermissionChecker getPermissionChecker() {
+        return permissionChecker;
+    }
+
+    /**
+     * @return resolver cache of the run, null if the run has no cache
+     */
+    public ResolverCache.Scope getResolverCache() {
+        return resolverCache;
+    }
+
+    /**
+     * @return this context in another group, e.g. of a site set up by a worker thread
+     */
+    public SetupContext withGroupId(final long groupId) {
+        return new SetupContext(companyId, groupId, runAsUserId, permissionChecker, resolverCache);
+    }
+
+    /**
+     * Runs the task in this context on the current thread, meant for worker threads the setup work is handed over to.
+     * The task gets a permission checker of its own for the run as user, see {@link RunAsUsers#forCurrentThread}. The
+     * thread locals of the setup, principal, permission checker and resolver cache are set back to the values the
+     * thread had before when the task is done. The settings of the run are not part of the context, see
+     * {@link SetupConfigurationThreadLocal#inheritRunSettings(Callable)}.
+     *
+     * @param task work to be done in the context
+     * @return result of the task
+     * @throws Exception thrown by the task
+     */
+    public <T> T call(final Callable<T> task) throws Exception {
+        final SetupConfigurationThreadLocal.Saved previous = SetupConfigurationThreadLocal.save();
+        final String principalName = PrincipalThreadLocal.getName();
+        final PermissionChecker previousPermissionChecker = PermissionThreadLocal.getPermissionChecker();
+        final ResolverCache.Scope previousResolverCache = ResolverCache.getScope();
+        SetupConfigurationThreadLocal.setContext(this);
+        try {
+            PermissionThreadLocal.setPermissionChecker(RunAsUsers.forCurrentThread(permissionChecker));
+            return task.call();
+        } finally {
+            SetupConfigurationThreadLocal.restore(previous);
+            PrincipalThreadLocal.setName(principalName);
+            PermissionThreadLocal.setPermissionChecker(previousPermissionChecker);
+            ResolverCache.setScope(previousResolverCache);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SetupContext[company: %1$s, group: %2$s, user: %3$s]", companyId, groupId,
+                runAsUserId);
+    }
+}
@@ -0,0 +1,71 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+/**
+ * Receives progress events of a setup run started by {@link LiferaySetup}. Events of companies and sites set up in
+ * parallel are delivered on the worker threads, therefore implementations must be thread-safe. Implementations should
+ * return quickly and must not throw, the setup waits for them.
+ */
+public interface SetupListener {
+
+    /**
+     * Listener ignoring all events.
+     */
+    SetupListener NONE = new SetupListener() {};
+
+    /**
+     * @param companyId company the stage runs in
+     * @param stage name of the stage, see {@link SetupStage#getName()}
+     */
+    default void stageStarted(long companyId, String stage) {}
+
+    /**
+     * @param companyId company the stage ran in
+     * @param result timing and counts of the finished stage
+     */
+    default void stageFinished(long companyId, SetupReport.StageResult result) {}
+
+    /**
+     * Called when an entity written in a transaction chunk is committed, or when an entity written outside of chunks
+     * is set up.
+     *
+     * @param companyId company the entity belongs to
+     * @param entity name of the entity, e.g. article title or user screen name
+     */
+    default void entityProcessed(long companyId, String entity) {}
+
+    /**
+     * Called for a failed entity the setup continues after, and for a failed company.
+     *
+     * @param companyId company the failure occurred in, -1 if the company was not found
+     * @param subject name of the failed entity or company
+     * @param failure cause of the failure
+     */
+    default void error(long companyId, String subject, Throwable failure) {}
+}
@@ -0,0 +1,123 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+/**
+ * Outcome of loading a setup configuration with {@link MarshallUtil#load(java.io.File)}: the configuration and the
+ * problems the validating parse found in it.
+ */
+public final class SetupLoadResult {
+
+    private final Setup setup;
+    private final List<Diagnostic> diagnostics;
+
+    SetupLoadResult(final Setup setup, final List<Diagnostic> diagnostics) {
+        this.diagnostics = Collections.unmodifiableList(new ArrayList<>(diagnostics));
+        this.setup = isValid() ? setup : null;
+    }
+
+    /**
+     * @return the configuration, null if it is not valid
+     */
+    public Setup getSetup() {
+        return setup;
+    }
+
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * @return true if the configuration was read and has no errors, warnings are allowed
+     */
+    public boolean isValid() {
+        return diagnostics.stream().allMatch(diagnostic -> diagnostic.getSeverity() == Severity.WARNING);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Configuration %1$s with %2$s diagnostics", isValid() ? "valid" : "invalid",
+                diagnostics.size());
+    }
+
+    public enum Severity {
+        WARNING,
+        ERROR,
+        FATAL_ERROR
+    }
+
+    /**
+     * Problem found in the configuration.
+     */
+    public static final class Diagnostic {
+        private final Severity severity;
+        private final int line;
+        private final int column;
+        private final String message;
+
+        public Diagnostic(final Severity severity, final int line, final int column, final String message) {
+            this.severity = severity;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        public Severity getSeverity() {
+            return severity;
+        }
+
+        /**
+         * @return line of the problem, -1 if not known
+         */
+        public int getLine() {
+            return line;
+        }
+
+        /**
+         * @return column of the problem, -1 if not known
+         */
+        public int getColumn() {
+            return column;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$s at %2$s:%3$s: %4$s", severity, line, column, message);
+        }
+    }
+}
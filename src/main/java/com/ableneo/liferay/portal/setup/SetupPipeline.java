@@ -0,0 +1,196 @@
+package com.ableneo.liferay.portal.setup;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.SetupCheckpoints;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Ordered stages of the company wide part of the setup. Each stage is timed and its entities and service calls are
+ * counted, see {@link SetupReport.StageResult}, and reported to the {@link SetupListener} of the run.
+ */
+public final class SetupPipeline {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SetupPipeline.class);
+    private static final String STAGE_SEPARATOR = ",";
+
+    private final List<SetupStage> stages;
+
+    public SetupPipeline(final List<SetupStage> stages) {
+        this.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+    }
+
+    /**
+     * Builds the pipeline given by the <code>stages</code> and <code>disabled-stages</code> attributes of the
+     * configuration. The built-in stages in their default order are used when no stages are configured.
+     *
+     * @param configuration configuration of db setup runner
+     * @return pipeline of the enabled stages
+     * @throws LiferaySetupException if a configured stage is neither built-in nor a loadable {@link SetupStage}
+     */
+    public static SetupPipeline fromConfiguration(final Configuration configuration) throws LiferaySetupException {
+        Set<String> names = new LinkedHashSet<>(split(configuration.getStages()));
+        if (names.isEmpty()) {
+            for (SetupStage stage : SetupStages.getDefaults()) {
+                names.add(stage.getName());
+            }
+        }
+        names.removeAll(split(configuration.getDisabledStages()));
+        List<SetupStage> stages = new ArrayList<>();
+        for (String name : names) {
+            SetupStage stage = SetupStages.getBuiltIn(name);
+            stages.add(stage != null ? stage : loadStage(name));
+        }
+        return new SetupPipeline(stages);
+    }
+
+    public List<SetupStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * Runs the stages one after another in the company of the current thread. Stages completed by a previous run of
+     * the same configuration are skipped when the run is resumed.
+     *
+     * @param setup configuration of db setup runner
+     * @return results of the stages in the order they were run
+     * @throws LiferaySetupException thrown by a stage, the following stages are not run
+     * @throws SetupYieldedException if the time budget of the run is over, the following stages are not run
+     */
+    public List<SetupReport.StageResult> run(final Setup setup) throws LiferaySetupException {
+        return run(source(setup));
+    }
+
+    /**
+     * Runs the stages one after another for the parts of the setup given by the source, see {@link #run(Setup)}.
+     *
+     * @param source parts of the setup the stages are executed for
+     * @return results of the stages in the order they were run
+     * @throws LiferaySetupException thrown by a stage or by the source, the following stages are not run
+     * @throws SetupYieldedException if the time budget of the run is over, the following stages are not run
+     */
+    public List<SetupReport.StageResult> run(final Source source) throws LiferaySetupException {
+        List<SetupReport.StageResult> results = new ArrayList<>();
+        SetupListener listener = SetupConfigurationThreadLocal.getListener();
+        // the company defaults to a portal lookup, resolved only if someone listens
+        long companyId = listener == SetupListener.NONE ? 0 : SetupConfigurationThreadLocal.getRunInCompanyId();
+        for (SetupStage stage : stages) {
+            if (SetupCheckpoints.isCompleted(SetupCheckpoints.stage(stage.getName()))) {
+                LOG.info(String.format("Stage %1$s was completed by the resumed run, skipping", stage.getName()));
+                continue;
+            }
+            if (SetupThrottle.isBudgetExhausted()) {
+                throw new SetupYieldedException(SetupThrottle.budgetExhaustedMessage("stage " + stage.getName()));
+            }
+            int[] entityCount = {0};
+            long lookups = ResolverCache.getLookupCount();
+            long start = System.currentTimeMillis();
+            listener.stageStarted(companyId, stage.getName());
+            source.forEachPart(stage, part -> {
+                entityCount[0] += stage.countEntities(part);
+                stage.execute(part);
+            });
+            SetupReport.StageResult result = new SetupReport.StageResult(stage.getName(), entityCount[0],
+                    ResolverCache.getLookupCount() - lookups, System.currentTimeMillis() - start);
+            LOG.info(result.toString());
+            results.add(result);
+            listener.stageFinished(companyId, result);
+            SetupCheckpoints.complete(SetupCheckpoints.stage(stage.getName()));
+        }
+        return results;
+    }
+
+    /**
+     * @param setup configuration of db setup runner
+     * @return source executing each stage once for the whole setup
+     */
+    public static Source source(final Setup setup) {
+        return (stage, action) -> action.execute(setup);
+    }
+
+    static List<String> split(final String stages) {
+        List<String> names = new ArrayList<>();
+        if (stages != null) {
+            for (String name : stages.split(STAGE_SEPARATOR)) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static SetupStage loadStage(final String className) throws LiferaySetupException {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = SetupPipeline.class.getClassLoader();
+        }
+        try {
+            Class<?> stageClass = Class.forName(className, true, classLoader);
+            return (SetupStage) stageClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new LiferaySetupException(String.format("Unknown setup stage: %1$s", className), e);
+        }
+    }
+
+    /**
+     * Parts of the setup the stages are executed for, e.g. the whole setup or sections streamed from a file.
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        /**
+         * Executes the action for each part of the setup the stage handles, one part after another.
+         *
+         * @param stage stage to be executed
+         * @param action executes the stage for one part
+         * @throws LiferaySetupException thrown by the action or if the parts can not be read
+         */
+        void forEachPart(SetupStage stage, PartAction action) throws LiferaySetupException;
+    }
+
+    /**
+     * Executes a stage for one part of the setup.
+     */
+    @FunctionalInterface
+    public interface PartAction {
+        void execute(Setup part) throws LiferaySetupException;
+    }
+}
@@ -0,0 +1,144 @@
+package com.ableneo.liferay.portal.setup;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes a setup run would make, computed by {@link LiferaySetup#plan(com.ableneo.liferay.portal.setup.domain.Setup)}
+ * without writing anything. The plan is serializable so it can be reviewed and handed to
+ * {@link LiferaySetup#setup(com.ableneo.liferay.portal.setup.domain.Setup, SetupPlan)}, which skips the entities
+ * planned as {@link Action#NO_OP}.
+ */
+public final class SetupPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Action> actionByEntity = new HashMap<>();
+
+    public enum Action {
+        CREATE,
+        UPDATE,
+        DELETE,
+        NO_OP
+    }
+
+    public synchronized void add(final long companyId, final String phase, final String entityKey,
+            final Action action) {
+        entries.add(new Entry(companyId, phase, entityKey, action));
+        actionByEntity.put(companyId + "@" + entityKey, action);
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * @return number of entities per action for each phase, phases in the order they are run
+     */
+    public synchronized Map<String, Map<Action, Integer>> getCounts() {
+        Map<String, Map<Action, Integer>> counts = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            counts.computeIfAbsent(entry.getPhase(), phase -> new EnumMap<>(Action.class)).merge(entry.getAction(), 1,
+                    Integer::sum);
+        }
+        return counts;
+    }
+
+    public synchronized int getCount(final Action action) {
+        return (int) entries.stream().filter(entry -> entry.getAction() == action).count();
+    }
+
+    /**
+     * @param companyId company the entity is set up in
+     * @param entityKey key of the entity as used by the setup ledger
+     * @return true if the entity was planned to be left as it is
+     */
+    public synchronized boolean isNoOp(final long companyId, final String entityKey) {
+        return actionByEntity.get(companyId + "@" + entityKey) == Action.NO_OP;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder plan = new StringBuilder("Setup plan");
+        for (Map.Entry<String, Map<Action, Integer>> phase : getCounts().entrySet()) {
+            plan.append(System.lineSeparator()).append(phase.getKey()).append(": ").append(phase.getValue());
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Planned change of one entity.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long companyId;
+        private final String phase;
+        private final String entityKey;
+        private final Action action;
+
+        private Entry(final long companyId, final String phase, final String entityKey, final Action action) {
+            this.companyId = companyId;
+            this.phase = phase;
+            this.entityKey = entityKey;
+            this.action = action;
+        }
+
+        public long getCompanyId() {
+            return companyId;
+        }
+
+        public String getPhase() {
+            return phase;
+        }
+
+        public String getEntityKey() {
+            return entityKey;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$s %2$s %3$s (company %4$s)", phase, action, entityKey, companyId);
+        }
+    }
+}
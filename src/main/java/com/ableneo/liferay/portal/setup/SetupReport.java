@@ -0,0 +1,241 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Outcome of a setup run, one result per company the setup was executed for. Results may be added by the threads
+ * setting the companies up at the same time.
+ */
+public final class SetupReport {
+
+    // few results, written once per company and read while other companies are still added
+    private final List<CompanyResult> companyResults = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds the result of a company, safe to be called by several threads.
+     */
+    public void addCompanyResult(final CompanyResult result) {
+        companyResults.add(result);
+    }
+
+    public List<CompanyResult> getCompanyResults() {
+        return Collections.unmodifiableList(companyResults);
+    }
+
+    public List<CompanyResult> getFailures() {
+        return companyResults.stream().filter(result -> !result.isSuccessful()).collect(Collectors.toList());
+    }
+
+    /**
+     * @return results of the companies whose setup stopped when the time budget was over
+     */
+    public List<CompanyResult> getYielded() {
+        return companyResults.stream().filter(CompanyResult::isYielded).collect(Collectors.toList());
+    }
+
+    /**
+     * @return true if the setup did not fail for any company, also when it has to be run again to complete
+     */
+    public boolean isSuccessful() {
+        return companyResults.stream().allMatch(CompanyResult::isSuccessful);
+    }
+
+    /**
+     * @return true if the setup succeeded for all companies and none of them has to be run again
+     */
+    public boolean isComplete() {
+        return isSuccessful() && companyResults.stream().noneMatch(CompanyResult::isYielded);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Setup of %1$s companies, %2$s failed, %3$s yielded", companyResults.size(),
+                getFailures().size(), getYielded().size());
+    }
+
+    /**
+     * Outcome of the setup of one company.
+     */
+    public static final class CompanyResult {
+        private final String company;
+        private final long companyId;
+        private final long durationMillis;
+        private final Throwable failure;
+        private final String yieldReason;
+        private final List<StageResult> stageResults;
+
+        private CompanyResult(final String company, final long companyId, final long durationMillis,
+                final Throwable failure, final String yieldReason, final List<StageResult> stageResults) {
+            this.company = company;
+            this.companyId = companyId;
+            this.durationMillis = durationMillis;
+            this.failure = failure;
+            this.yieldReason = yieldReason;
+            this.stageResults = Collections.unmodifiableList(new ArrayList<>(stageResults));
+        }
+
+        public static CompanyResult succeeded(final String company, final long companyId, final long durationMillis) {
+            return succeeded(company, companyId, durationMillis, Collections.emptyList());
+        }
+
+        public static CompanyResult succeeded(final String company, final long companyId, final long durationMillis,
+                final List<StageResult> stageResults) {
+            return new CompanyResult(company, companyId, durationMillis, null, null, stageResults);
+        }
+
+        public static CompanyResult failed(final String company, final long companyId, final long durationMillis,
+                final Throwable failure) {
+            return new CompanyResult(company, companyId, durationMillis, failure, null, Collections.emptyList());
+        }
+
+        /**
+         * @param reason why the setup of the company stopped before it was complete
+         */
+        public static CompanyResult yielded(final String company, final long companyId, final long durationMillis,
+                final String reason) {
+            return new CompanyResult(company, companyId, durationMillis, null, reason, Collections.emptyList());
+        }
+
+        /**
+         * @return company id or web id as given in the configuration
+         */
+        public String getCompany() {
+            return company;
+        }
+
+        /**
+         * @return id of the company, -1 if the company was not found
+         */
+        public long getCompanyId() {
+            return companyId;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * @return cause of the failure, null if the setup of the company succeeded
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isSuccessful() {
+            return failure == null;
+        }
+
+        /**
+         * @return true if the time budget was over before the setup of the company was complete; the setup has to be
+         *         run again to continue, completed parts are skipped then
+         */
+        public boolean isYielded() {
+            return yieldReason != null;
+        }
+
+        /**
+         * @return why the setup of the company stopped, null if it was not yielded
+         */
+        public String getYieldReason() {
+            return yieldReason;
+        }
+
+        /**
+         * @return results of the stages run for the company, empty if the setup of the company failed or yielded
+         */
+        public List<StageResult> getStageResults() {
+            return stageResults;
+        }
+
+        @Override
+        public String toString() {
+            String outcome;
+            if (!isSuccessful()) {
+                outcome = "failed: " + failure.getMessage();
+            } else if (isYielded()) {
+                outcome = "yielded: " + yieldReason;
+            } else {
+                outcome = "succeeded";
+            }
+            return String.format("Company %1$s (%2$s) %3$s in %4$s ms", company, companyId, outcome, durationMillis);
+        }
+    }
+
+    /**
+     * Outcome of one stage of the setup pipeline in a company.
+     */
+    public static final class StageResult {
+        private final String stage;
+        private final int entityCount;
+        private final long lookupCount;
+        private final long durationMillis;
+
+        public StageResult(final String stage, final int entityCount, final long lookupCount,
+                final long durationMillis) {
+            this.stage = stage;
+            this.entityCount = entityCount;
+            this.lookupCount = lookupCount;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return number of entities of the setup handled by the stage
+         */
+        public int getEntityCount() {
+            return entityCount;
+        }
+
+        /**
+         * @return number of lookups of the stage that missed the run cache, including reads of the setup ledger; the
+         *         writes of the stage are not counted
+         */
+        public long getLookupCount() {
+            return lookupCount;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Stage %1$s: %2$s entities, %3$s lookups in %4$s ms", stage, entityCount,
+                    lookupCount, durationMillis);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ableneo.liferay.portal.setup.domain.ObjectFactory;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Binary snapshot of a valid configuration, stored next to the XML file as <code>&lt;file&gt;.snapshot</code>.
+ * Loading the snapshot skips the XML parse and the schema validation. The snapshot is keyed by the content of the
+ * XML file and of the schema, a snapshot of any other content is ignored.
+ * <p/>
+ * Snapshots are written on the first load, see {@link MarshallUtil#unmarshall(File, boolean)}, or ahead of time by
+ * {@link #create(File)}, e.g. at build time when the configuration is deployed to a read-only location.
+ */
+public final class SetupSnapshot {
+    private static final Log LOG = LogFactoryUtil.getLog(SetupSnapshot.class);
+
+    private static final String SUFFIX = ".snapshot";
+    private static final int MAGIC = 0x44425353;
+    private static final int FORMAT_VERSION = 1;
+    private static final String DOMAIN_PACKAGE = ObjectFactory.class.getPackage().getName() + ".";
+    private static final Set<String> JDK_CLASSES = new HashSet<>(Arrays.asList(ArrayList.class.getName(),
+            Boolean.class.getName(), Integer.class.getName(), Long.class.getName(), Number.class.getName(),
+            String.class.getName(), Enum.class.getName()));
+
+    private SetupSnapshot() {}
+
+    /**
+     * @param xmlConfigurationFile file with db setup configuration
+     * @return file of the snapshot of the configuration, it may not exist
+     */
+    public static File fileOf(final File xmlConfigurationFile) {
+        return new File(xmlConfigurationFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Validates the configuration and writes its snapshot.
+     *
+     * @param xmlConfigurationFile file with db setup configuration
+     * @return the snapshot file
+     * @throws IOException if the configuration can't be read or the snapshot can't be written
+     * @throws LiferaySetupException if the configuration is not valid
+     */
+    public static File create(final File xmlConfigurationFile) throws IOException, LiferaySetupException {
+        byte[] key = key(xmlConfigurationFile);
+        SetupLoadResult result = MarshallUtil.load(xmlConfigurationFile);
+        if (!result.isValid()) {
+            throw new LiferaySetupException(String.format("Configuration %1$s is not valid: %2$s",
+                    xmlConfigurationFile, result.getDiagnostics()));
+        }
+        return write(xmlConfigurationFile, key, result.getSetup());
+    }
+
+    /**
+     * @return digest of the snapshot format, the schema and the content of the file
+     */
+    static byte[] key(final File xmlConfigurationFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        digest.update((byte) FORMAT_VERSION);
+        try (InputStream schema = SetupSnapshot.class.getClassLoader().getResourceAsStream("setup_definition.xsd")) {
+            if (schema == null) {
+                throw new IllegalStateException("XSD schema that is used for validation configuration not found");
+            }
+            update(digest, schema);
+        }
+        try (InputStream in = new FileInputStream(xmlConfigurationFile)) {
+            update(digest, in);
+        }
+        return digest.digest();
+    }
+
+    private static void update(final MessageDigest digest, final InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+    }
+
+    /**
+     * @param key see {@link #key(File)}
+     * @return configuration of the snapshot, null if there is no snapshot of the file with given key
+     */
+    static Setup read(final File xmlConfigurationFile, final byte[] key) {
+        File snapshot = fileOf(xmlConfigurationFile);
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC) {
+                LOG.warn(String.format("%1$s is not a setup snapshot, ignoring it", snapshot));
+                return null;
+            }
+            byte[] snapshotKey = new byte[in.readUnsignedShort()];
+            in.readFully(snapshotKey);
+            if (!MessageDigest.isEqual(key, snapshotKey)) {
+                LOG.info(String.format("Snapshot %1$s is outdated, the configuration is parsed", snapshot));
+                return null;
+            }
+            try (ObjectInputStream objects = new DomainObjectInputStream(new GZIPInputStream(in))) {
+                return (Setup) objects.readObject();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            LOG.warn(String.format("Cannot read snapshot %1$s, the configuration is parsed", snapshot), e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot of a configuration loaded from the file. The snapshot replaces the previous one at once,
+     * concurrent readers see either of them.
+     *
+     * @param key see {@link #key(File)}, taken before the configuration was loaded
+     * @param setup valid configuration loaded from the file
+     * @return the snapshot file
+     */
+    static File write(final File xmlConfigurationFile, final byte[] key, final Setup setup) throws IOException {
+        File snapshot = fileOf(xmlConfigurationFile).getAbsoluteFile();
+        File temporary = File.createTempFile(snapshot.getName(), ".tmp", snapshot.getParentFile());
+        try {
+            try (DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeShort(key.length);
+                out.write(key);
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                ObjectOutputStream objects = new ObjectOutputStream(gzip);
+                objects.writeObject(setup);
+                objects.flush();
+                gzip.finish();
+            }
+            try {
+                Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the configuration classes only, a snapshot can't be used to instantiate anything else.
+     */
+    private static final class DomainObjectInputStream extends ObjectInputStream {
+
+        private DomainObjectInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            if (!name.startsWith(DOMAIN_PACKAGE) && !JDK_CLASSES.contains(name)) {
+                throw new InvalidClassException(name, "Class is not part of the setup configuration");
+            }
+            return Class.forName(name, false, SetupSnapshot.class.getClassLoader());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.ableneo.liferay.portal.setup;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+/**
+ * Named step of the setup pipeline, e.g. the setup of roles. Stages are run in the order given by the configuration,
+ * see {@link SetupPipeline}. Custom stages need a public constructor without arguments.
+ */
+public interface SetupStage {
+
+    /**
+     * @return name the stage is referred by in the configuration
+     */
+    String getName();
+
+    /**
+     * @param setup configuration of db setup runner
+     * @return number of entities of the setup handled by the stage, 0 if the stage has nothing to do
+     */
+    int countEntities(Setup setup);
+
+    /**
+     * Sets up the entities of the stage in the company of the current thread.
+     *
+     * @param setup configuration of db setup runner
+     * @throws LiferaySetupException if the stage fails and the setup can not continue
+     */
+    void execute(Setup setup) throws LiferaySetupException;
+}
@@ -0,0 +1,206 @@
+package com.ableneo.liferay.portal.setup;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import com.ableneo.liferay.portal.setup.core.*;
+import com.ableneo.liferay.portal.setup.domain.*;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Built-in stages of the setup pipeline in their default order.
+ */
+public final class SetupStages {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SetupStages.class);
+
+    public static final SetupStage DELETE = new BuiltInStage("delete", Setup::getDeleteLiferayObjects,
+            SetupStages::countObjectsToBeDeleted, setup -> {
+                LOG.info(String.format("Deleting : %1$s objects",
+                        setup.getDeleteLiferayObjects().getObjectsToBeDeleted().size()));
+                deleteObjects(setup.getDeleteLiferayObjects().getObjectsToBeDeleted());
+            });
+
+    public static final SetupStage CUSTOM_FIELDS = new BuiltInStage("custom-fields", Setup::getCustomFields,
+            setup -> setup.getCustomFields().getField().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s custom fields", setup.getCustomFields().getField().size()));
+                SetupCustomFields.setupExpandoFields(setup.getCustomFields().getField());
+            });
+
+    public static final SetupStage ROLES = new BuiltInStage("roles", Setup::getRoles,
+            setup -> setup.getRoles().getRole().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s roles", setup.getRoles().getRole().size()));
+                SetupRoles.setupRoles(setup.getRoles().getRole());
+            });
+
+    public static final SetupStage USERS = new BuiltInStage("users", Setup::getUsers,
+            setup -> setup.getUsers().getUser().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s users", setup.getUsers().getUser().size()));
+                SetupUsers.setupUsers(setup.getUsers().getUser());
+            });
+
+    public static final SetupStage ORGANIZATIONS = new BuiltInStage("organizations", Setup::getOrganizations,
+            setup -> setup.getOrganizations().getOrganization().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s organizations",
+                        setup.getOrganizations().getOrganization().size()));
+                SetupOrganizations.setupOrganizations(setup.getOrganizations().getOrganization(), null, null);
+            });
+
+    public static final SetupStage USER_GROUPS = new BuiltInStage("user-groups", Setup::getUserGroups,
+            setup -> setup.getUserGroups().getUserGroup().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s User Groups", setup.getUserGroups().getUserGroup().size()));
+                SetupUserGroups.setupUserGroups(setup.getUserGroups().getUserGroup());
+            });
+
+    public static final SetupStage RESOURCE_PERMISSIONS = new BuiltInStage("resource-permissions",
+            Setup::getResourcePermissions, setup -> setup.getResourcePermissions().getResource().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s resource permissions",
+                        setup.getResourcePermissions().getResource().size()));
+                SetupPermissions.setupPortletPermissions(setup.getResourcePermissions());
+            });
+
+    public static final SetupStage SITES = new BuiltInStage("sites", Setup::getSites,
+            setup -> setup.getSites().getSite().size(), setup -> {
+                LOG.info(String.format("Setting up %1$s sites", setup.getSites().getSite().size()));
+                try {
+                    SetupSites.setupSites(setup.getSites().getSite(), setup.getConfiguration().getSiteParallelism());
+                } catch (PortalException e) {
+                    throw new LiferaySetupException("", e);
+                }
+            });
+
+    private static final List<SetupStage> DEFAULTS = Collections.unmodifiableList(Arrays.asList(DELETE, CUSTOM_FIELDS,
+            ROLES, USERS, ORGANIZATIONS, USER_GROUPS, RESOURCE_PERMISSIONS, SITES));
+
+    private SetupStages() {}
+
+    /**
+     * @return built-in stages in the order they are run by default
+     */
+    public static List<SetupStage> getDefaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return built-in stage of the name, null if there is none
+     */
+    public static SetupStage getBuiltIn(final String name) {
+        for (SetupStage stage : DEFAULTS) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private static int countObjectsToBeDeleted(final Setup setup) {
+        int count = 0;
+        for (ObjectsToBeDeleted otbd : setup.getDeleteLiferayObjects().getObjectsToBeDeleted()) {
+            count += otbd.getRoles() != null ? otbd.getRoles().getRole().size() : 0;
+            count += otbd.getUsers() != null ? otbd.getUsers().getUser().size() : 0;
+            count += otbd.getOrganizations() != null ? otbd.getOrganizations().getOrganization().size() : 0;
+            count += otbd.getCustomFields() != null ? otbd.getCustomFields().getField().size() : 0;
+        }
+        return count;
+    }
+
+    private static void deleteObjects(final List<ObjectsToBeDeleted> objectsToBeDeleted) {
+
+        for (ObjectsToBeDeleted otbd : objectsToBeDeleted) {
+            if (otbd.getRoles() != null) {
+                List<com.ableneo.liferay.portal.setup.domain.Role> roles = otbd.getRoles().getRole();
+                SetupRoles.deleteRoles(roles, otbd.getDeleteMethod());
+            }
+            if (otbd.getUsers() != null) {
+                List<com.ableneo.liferay.portal.setup.domain.User> users = otbd.getUsers().getUser();
+                SetupUsers.deleteUsers(users, otbd.getDeleteMethod());
+            }
+            if (otbd.getOrganizations() != null) {
+                List<Organization> organizations = otbd.getOrganizations().getOrganization();
+                SetupOrganizations.deleteOrganization(organizations, otbd.getDeleteMethod());
+            }
+            if (otbd.getCustomFields() != null) {
+                List<CustomFields.Field> customFields = otbd.getCustomFields().getField();
+                SetupCustomFields.deleteCustomFields(customFields, otbd.getDeleteMethod());
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageAction {
+        void execute(Setup setup) throws LiferaySetupException;
+    }
+
+    /**
+     * Stage the runner ships with, it has nothing to do unless its part of the setup is present.
+     */
+    private static final class BuiltInStage implements SetupStage {
+        private final String name;
+        private final Function<Setup, Object> part;
+        private final ToIntFunction<Setup> counter;
+        private final StageAction action;
+
+        private BuiltInStage(final String name, final Function<Setup, Object> part,
+                final ToIntFunction<Setup> counter, final StageAction action) {
+            this.name = name;
+            this.part = part;
+            this.counter = counter;
+            this.action = action;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int countEntities(final Setup setup) {
+            return part.apply(setup) == null ? 0 : counter.applyAsInt(setup);
+        }
+
+        @Override
+        public void execute(final Setup setup) throws LiferaySetupException {
+            if (part.apply(setup) != null) {
+                action.execute(setup);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
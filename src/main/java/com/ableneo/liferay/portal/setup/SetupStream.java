@@ -0,0 +1,410 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.ableneo.liferay.portal.setup.core.util.SetupCheckpoints;
+import com.ableneo.liferay.portal.setup.domain.*;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Setup configuration read from a file section by section instead of as a whole, for configurations too big to be
+ * held in memory. Users, organizations, user groups, roles and sites are unmarshalled in batches and dropped once the
+ * batch is set up, the other sections are small and are unmarshalled as a whole. Each stage reads its section from the
+ * file again, so the stages run in the order of the pipeline whatever the order of the sections in the file.
+ * <p/>
+ * The file is validated against the schema and hashed in one pass when opened. A site is one unit of the stream: its
+ * pages, documents and articles are held in memory together with the site. Sites are ordered by their dependencies
+ * only within a batch, 100 sites by default; a site referring to a site of a later batch is set up before it, so a
+ * site should be listed after the sites it refers to.
+ */
+public final class SetupStream implements SetupPipeline.Source {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SetupStream.class);
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final String CONFIGURATION = "configuration";
+    private static final String PAGE_TEMPLATES = "page-templates";
+    private static final byte START_TOKEN = 'S';
+    private static final byte ATTRIBUTE_TOKEN = 'A';
+    private static final byte TEXT_TOKEN = 'T';
+    private static final byte END_TOKEN = 'E';
+    private static final Map<String, Section<?>> SECTIONS = new HashMap<>();
+
+    static {
+        SECTIONS.put(SetupStages.DELETE.getName(), new Section<>("delete-liferay-objects", DeleteLiferayObjects.class,
+                false, (setup, parts) -> setup.setDeleteLiferayObjects(parts.get(0))));
+        SECTIONS.put(SetupStages.CUSTOM_FIELDS.getName(), new Section<>("custom-fields", CustomFields.class, false,
+                (setup, parts) -> setup.setCustomFields(parts.get(0))));
+        SECTIONS.put(SetupStages.ROLES.getName(), new Section<>("roles", Role.class, true, (setup, roles) -> {
+            setup.setRoles(new Roles());
+            setup.getRoles().getRole().addAll(roles);
+        }));
+        SECTIONS.put(SetupStages.USERS.getName(), new Section<>("users", User.class, true, (setup, users) -> {
+            setup.setUsers(new Users());
+            setup.getUsers().getUser().addAll(users);
+        }));
+        SECTIONS.put(SetupStages.ORGANIZATIONS.getName(), new Section<>("organizations", Organization.class, true,
+                (setup, organizations) -> {
+                    setup.setOrganizations(new Organizations());
+                    setup.getOrganizations().getOrganization().addAll(organizations);
+                }));
+        SECTIONS.put(SetupStages.USER_GROUPS.getName(), new Section<>("user-groups", UserGroup.class, true,
+                (setup, userGroups) -> {
+                    setup.setUserGroups(new UserGroups());
+                    setup.getUserGroups().getUserGroup().addAll(userGroups);
+                }));
+        SECTIONS.put(SetupStages.RESOURCE_PERMISSIONS.getName(), new Section<>("resource-permissions",
+                ResourcePermissions.class, false, (setup, parts) -> setup.setResourcePermissions(parts.get(0))));
+        SECTIONS.put(SetupStages.SITES.getName(), new Section<>("sites", Site.class, true, (setup, sites) -> {
+            setup.setSites(new Sites());
+            setup.getSites().getSite().addAll(sites);
+        }));
+    }
+
+    private final File file;
+    private final int batchSize;
+    private final XMLInputFactory inputFactory;
+    private final Configuration configuration;
+    private final String contentHash;
+
+    private SetupStream(final File file, final int batchSize) throws LiferaySetupException {
+        this.file = file;
+        this.batchSize = Math.max(1, batchSize);
+        this.inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        this.contentHash = validateAndHash();
+        this.configuration = readConfiguration();
+    }
+
+    /**
+     * @param xmlConfigurationFile file with db setup configuration that validates against schema
+     * @return stream of the configuration in the file
+     * @throws LiferaySetupException if the file is not valid or can not be read
+     */
+    public static SetupStream open(final File xmlConfigurationFile) throws LiferaySetupException {
+        return open(xmlConfigurationFile, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param xmlConfigurationFile file with db setup configuration that validates against schema
+     * @param batchSize number of users, organizations, sites... held in memory and set up together; sites are ordered
+     *        by their dependencies within a batch only
+     * @return stream of the configuration in the file
+     * @throws LiferaySetupException if the file is not valid or can not be read
+     */
+    public static SetupStream open(final File xmlConfigurationFile, final int batchSize)
+            throws LiferaySetupException {
+        return new SetupStream(xmlConfigurationFile, batchSize);
+    }
+
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return setup holding the configuration section only
+     */
+    public Setup getHead() {
+        Setup setup = new Setup();
+        setup.setConfiguration(configuration);
+        return setup;
+    }
+
+    /**
+     * @return hash of the configuration and the content of the file, see {@link SetupCheckpoints#hash(Setup, String)}
+     */
+    public String getConfigurationHash() {
+        return SetupCheckpoints.hash(getHead(), contentHash);
+    }
+
+    /**
+     * @return page templates of the configuration, null if there are none
+     * @throws LiferaySetupException if the file can not be read
+     */
+    public PageTemplates getPageTemplates() throws LiferaySetupException {
+        Section<PageTemplates> section =
+                new Section<>(PAGE_TEMPLATES, PageTemplates.class, false, (setup, parts) -> {});
+        List<PageTemplates> pageTemplates = new ArrayList<>();
+        readSection(section, pageTemplates::addAll);
+        return pageTemplates.isEmpty() ? null : pageTemplates.get(0);
+    }
+
+    @Override
+    public void forEachPart(final SetupStage stage, final SetupPipeline.PartAction action)
+            throws LiferaySetupException {
+        Section<?> section = SECTIONS.get(stage.getName());
+        if (section == null) {
+            throw new LiferaySetupException(String.format("Stage %1$s can not be run on a streamed configuration",
+                    stage.getName()));
+        }
+        forEachPart(section, action);
+    }
+
+    private <T> void forEachPart(final Section<T> section, final SetupPipeline.PartAction action)
+            throws LiferaySetupException {
+        readSection(section, parts -> {
+            Setup part = getHead();
+            section.fill.accept(part, parts);
+            action.execute(part);
+        });
+    }
+
+    /**
+     * Reads the section of the file, handing its elements to the handler in batches.
+     */
+    private <T> void readSection(final Section<T> section, final BatchHandler<T> handler)
+            throws LiferaySetupException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            Unmarshaller unmarshaller = MarshallUtil.createFragmentUnmarshaller();
+            try {
+                if (!skipToSection(reader, section.element)) {
+                    return;
+                }
+                if (!section.streamed) {
+                    List<T> whole = new ArrayList<>();
+                    whole.add(unmarshaller.unmarshal(reader, section.type).getValue());
+                    handler.handle(whole);
+                    return;
+                }
+                List<T> batch = new ArrayList<>(batchSize);
+                reader.next();
+                while (!reader.isEndElement()) {
+                    if (reader.isStartElement()) {
+                        // leaves the reader after the end of the element
+                        batch.add(unmarshaller.unmarshal(reader, section.type).getValue());
+                        if (batch.size() == batchSize) {
+                            handler.handle(batch);
+                            batch = new ArrayList<>(batchSize);
+                        }
+                    } else {
+                        reader.next();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    handler.handle(batch);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException | JAXBException e) {
+            throw new LiferaySetupException(
+                    String.format("Cannot read section %1$s of configuration %2$s", section.element, file), e);
+        }
+    }
+
+    /**
+     * Moves the reader to the start of the section, a child of the root element.
+     *
+     * @return false if the file has no such section
+     */
+    private static boolean skipToSection(final XMLStreamReader reader, final String element)
+            throws XMLStreamException {
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+                if (depth == 2 && element.equals(reader.getLocalName())) {
+                    return true;
+                }
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validates the file against the schema and hashes its content but the configuration section in the same pass.
+     * Every token of the digest is tagged with its kind and prefixed with its length, so different documents can't
+     * digest the same.
+     */
+    private String validateAndHash() throws LiferaySetupException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by the JVM", e);
+        }
+        // validated without building the configuration, the point of the stream is not to hold all of it
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (!MarshallUtil.validateAgainstXSD(in, new ContentDigest(digest))) {
+                throw new LiferaySetupException(
+                        String.format("Configuration %1$s is not valid against the schema", file));
+            }
+        } catch (IOException e) {
+            throw new LiferaySetupException(String.format("Cannot read %1$s", file), e);
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        LOG.debug(String.format("Content hash of %1$s is %2$s", file, hash));
+        return hash.toString();
+    }
+
+    /**
+     * @return the configuration section, read up to its end only
+     */
+    private Configuration readConfiguration() throws LiferaySetupException {
+        Section<Configuration> section = new Section<>(CONFIGURATION, Configuration.class, false, (setup, parts) -> {});
+        List<Configuration> configurations = new ArrayList<>();
+        readSection(section, configurations::addAll);
+        if (configurations.isEmpty()) {
+            throw new LiferaySetupException(String.format("Configuration %1$s has no configuration section", file));
+        }
+        return configurations.get(0);
+    }
+
+    private static void update(final MessageDigest digest, final byte kind, final String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update(kind);
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+        digest.update(bytes);
+    }
+
+    /**
+     * Digests the validated content of the file but the configuration section, which is hashed apart without the
+     * options of the run, see {@link #getConfigurationHash()}.
+     */
+    private static final class ContentDigest extends DefaultHandler {
+        private final MessageDigest digest;
+        // the parser may report a text in pieces
+        private final StringBuilder text = new StringBuilder();
+        private int depth;
+        private boolean inConfiguration;
+
+        private ContentDigest(final MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+                final Attributes attributes) {
+            depth++;
+            if (depth == 2 && CONFIGURATION.equals(localName)) {
+                inConfiguration = true;
+            }
+            if (inConfiguration) {
+                return;
+            }
+            flushText();
+            update(digest, START_TOKEN, localName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                update(digest, ATTRIBUTE_TOKEN, attributes.getLocalName(i));
+                update(digest, ATTRIBUTE_TOKEN, attributes.getValue(i));
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            depth--;
+            if (inConfiguration) {
+                inConfiguration = depth > 1;
+                return;
+            }
+            flushText();
+            update(digest, END_TOKEN, "");
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            if (!inConfiguration) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endDocument() {
+            flushText();
+        }
+
+        private void flushText() {
+            if (text.length() > 0) {
+                update(digest, TEXT_TOKEN, text.toString());
+                text.setLength(0);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchHandler<T> {
+        void handle(List<T> batch) throws LiferaySetupException;
+    }
+
+    /**
+     * Section of the configuration file, a child of the root element.
+     */
+    private static final class Section<T> {
+        private final String element;
+        private final Class<T> type;
+        private final boolean streamed;
+        private final BiConsumer<Setup, List<T>> fill;
+
+        /**
+         * @param element name of the section element
+         * @param type type of the section if not streamed, type of its elements if streamed
+         * @param streamed true if the elements of the section are read in batches
+         * @param fill puts the elements read into a setup
+         */
+        private Section(final String element, final Class<T> type, final boolean streamed,
+                final BiConsumer<Setup, List<T>> fill) {
+            this.element = element;
+            this.type = type;
+            this.streamed = streamed;
+            this.fill = fill;
+        }
+    }
+}
@@ -28,9 +28,12 @@ package com.ableneo.liferay.portal.setup.core;
  */
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.*;
 
-import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupContext;
 import com.ableneo.liferay.portal.setup.core.util.*;
 import com.ableneo.liferay.portal.setup.domain.*;
 import com.liferay.asset.kernel.model.AssetEntry;
@@ -60,6 +63,7 @@ import com.liferay.portal.kernel.security.permission.ActionKeys;
 import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
 import com.liferay.portal.kernel.service.ServiceContext;
 import com.liferay.portal.kernel.service.ServiceContextThreadLocal;
+import com.liferay.portal.kernel.transaction.TransactionCommitCallbackUtil;
 import com.liferay.portal.kernel.util.LocaleUtil;
 import com.liferay.portal.kernel.util.LocalizationUtil;
 import com.liferay.portal.kernel.util.PortalUtil;
@@ -76,6 +80,11 @@ public final class SetupArticles {
     private static final HashMap<String, List<String>> DEFAULT_DDM_PERMISSIONS;
     private static final int ARTICLE_PUBLISH_YEAR = 2008;
     private static final int MIN_DISPLAY_ROWS = 10;
+    /**
+     * Articles up to this number of characters read before their setup are kept for the run, larger ones are read
+     * again.
+     */
+    static final int MAX_SHARED_CONTENT_LENGTH = 64 * 1024;
 
     static {
         DEFAULT_PERMISSIONS = new HashMap<>();
@@ -117,12 +126,23 @@ public final class SetupArticles {
     }
 
     public static void setupSiteStructuresAndTemplates(final Site site, long groupId) throws PortalException {
+        setupSiteStructuresAndTemplates(SetupContext.current().withGroupId(groupId), site);
+    }
+
+    /**
+     * @param context company, user and group of the site the structures and templates are set up in and as
+     * @param site site the structures and templates are configured for
+     */
+    public static void setupSiteStructuresAndTemplates(final SetupContext context, final Site site)
+            throws PortalException {
         List<Structure> articleStructures = site.getArticleStructure();
 
         if (articleStructures != null) {
             long classNameId = ClassNameLocalServiceUtil.getClassNameId(JournalArticle.class);
             for (Structure structure : articleStructures) {
-                addDDMStructure(structure, groupId, classNameId);
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    addDDMStructure(context, structure, classNameId);
+                }
             }
         }
 
@@ -132,14 +152,17 @@ public final class SetupArticles {
             long classNameId = ClassNameLocalServiceUtil.getClassNameId(DDLRecordSet.class);
             for (Structure structure : ddlStructures) {
                 LOG.info(String.format("Adding DDL structure %1$s", structure.getName()));
-                addDDMStructure(structure, groupId, classNameId);
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    addDDMStructure(context, structure, classNameId);
+                }
             }
         }
 
         List<ArticleTemplate> articleTemplates = site.getArticleTemplate();
         if (articleTemplates != null) {
             for (ArticleTemplate template : articleTemplates) {
-                try {
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    // article templates are added to the group the setup runs in, not to the site
                     addDDMTemplate(template);
                 } catch (TemplateDuplicateTemplateKeyException e) {
                     LOG.error(e);
@@ -150,16 +173,22 @@ public final class SetupArticles {
 
     public static void setupSiteArticles(final List<Article> articles, final List<Adt> adts,
             final List<DdlRecordset> recordSets, final long groupId) throws PortalException {
+        setupSiteArticles(SetupContext.current().withGroupId(groupId), articles, adts, recordSets);
+    }
+
+    /**
+     * @param context company, user and group of the site the articles, ADTs and record sets are set up in and as
+     */
+    public static void setupSiteArticles(final SetupContext context, final List<Article> articles,
+            final List<Adt> adts, final List<DdlRecordset> recordSets) throws PortalException {
 
         if (articles != null) {
-            for (Article article : articles) {
-                addJournalArticle(article, groupId);
-            }
+            TransactionChunks.forEach(articles, Article::getTitle, article -> addJournalArticle(context, article));
         }
         if (adts != null) {
             for (Adt template : adts) {
-                try {
-                    addDDMTemplate(template, groupId);
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    addDDMTemplate(context, template);
                 } catch (TemplateDuplicateTemplateKeyException | IOException e) {
                     LOG.error(String.format("Error in adding ADT: %1$s", template.getName()), e);
                 }
@@ -167,8 +196,8 @@ public final class SetupArticles {
         }
         if (recordSets != null) {
             for (DdlRecordset recordSet : recordSets) {
-                try {
-                    addDDLRecordSet(recordSet, groupId);
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    addDDLRecordSet(context, recordSet);
                 } catch (TemplateDuplicateTemplateKeyException e) {
                     LOG.error(String.format("Error in adding DDLRecordSet: %1$s", recordSet.getName()), e);
                 }
@@ -178,7 +207,13 @@ public final class SetupArticles {
 
     public static void addDDMStructure(final Structure structure, final long groupId, final long classNameId)
             throws PortalException {
+        addDDMStructure(SetupContext.current().withGroupId(groupId), structure, classNameId);
+    }
+
+    public static void addDDMStructure(final SetupContext context, final Structure structure, final long classNameId)
+            throws PortalException {
 
+        long groupId = context.getGroupId();
         LOG.info(String.format("Adding Article structure %1$s", structure.getName()));
         Map<Locale, String> nameMap = new HashMap<>();
         Locale siteDefaultLocale = null;
@@ -222,9 +257,15 @@ public final class SetupArticles {
 
         DDMStructure ddmStructure =
                 DDMStructureLocalServiceUtil.fetchStructure(groupId, classNameId, structure.getKey());
+        String ledgerKey = templateLedgerKey("structure", groupId, classNameId, structure.getKey());
+        String ledgerHash = SetupLedger.hash(structure, content);
+        if (ddmStructure != null && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+            LOG.info(String.format("Structure %1$s is unchanged, skipping.", structure.getKey()));
+            return;
+        }
 
-        long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
-        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        long runAsUserId = context.getRunAsUserId();
+        long companyId = context.getCompanyId();
         if (ddmStructure != null) {
             LOG.info("Structure already exists and will be overwritten.");
             if (structure.getParent() != null && !structure.getParent().isEmpty()) {
@@ -242,11 +283,13 @@ public final class SetupArticles {
                     ddmStructure.getStructureId(), ddmStructure.getParentStructureId(), nameMap, descMap, ddmForm,
                     ddmFormLayout, new ServiceContext());
             LOG.info(String.format("Template successfully updated: %1$s", structure.getName()));
+            ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.STRUCTURE);
 
             SetupPermissions.updatePermission(String.format("Structure %1$s", structure.getKey()), companyId,
                     ddmStructureSaved.getStructureId(),
                     DDMStructure.class.getName() + "-" + JournalArticle.class.getName(), structure.getRolePermissions(),
                     DEFAULT_DDM_PERMISSIONS);
+            SetupLedger.record(ledgerKey, ledgerHash);
 
             return;
         }
@@ -254,10 +297,12 @@ public final class SetupArticles {
         DDMStructure newStructure =
                 DDMStructureLocalServiceUtil.addStructure(runAsUserId, groupId, structure.getParent(), classNameId,
                         structure.getKey(), nameMap, descMap, ddmForm, ddmFormLayout, "json", 0, new ServiceContext());
+        ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.STRUCTURE);
 
         SetupPermissions.updatePermission(String.format("Structure %1$s", structure.getKey()), companyId,
                 newStructure.getStructureId(), DDMStructure.class.getName() + "-" + JournalArticle.class.getName(),
                 structure.getRolePermissions(), DEFAULT_DDM_PERMISSIONS);
+        SetupLedger.record(ledgerKey, ledgerHash);
         LOG.info(String.format("Added Article structure: %1$s", newStructure.getName()));
     }
 
@@ -269,12 +314,17 @@ public final class SetupArticles {
     }
 
     public static void addDDMTemplate(final ArticleTemplate template) throws PortalException {
+        addDDMTemplate(SetupContext.current(), template);
+    }
+
+    public static void addDDMTemplate(final SetupContext context, final ArticleTemplate template)
+            throws PortalException {
 
         LOG.info(String.format("Adding Article template %1$s", template.getName()));
         long classNameId = ClassNameLocalServiceUtil.getClassNameId(DDMStructure.class);
         long resourceClassnameId = ClassNameLocalServiceUtil.getClassNameId(JournalArticle.class);
         Map<Locale, String> nameMap = new HashMap<>();
-        long groupId = SetupConfigurationThreadLocal.getRunInGroupId();
+        long groupId = context.getGroupId();
         Locale siteDefaultLocale = PortalUtil.getSiteDefaultLocale(groupId);
         String name = template.getName();
         if (name == null) {
@@ -310,6 +360,12 @@ public final class SetupArticles {
         } catch (SystemException e) {
             LOG.error(String.format("Error while trying to find template with key: %1$s", template.getKey()), e);
         }
+        String ledgerKey = templateLedgerKey("template", groupId, classNameId, template.getKey());
+        String ledgerHash = SetupLedger.hash(template, script + StringPool.POUND + classPK);
+        if (ddmTemplate != null && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+            LOG.info(String.format("Template %1$s is unchanged, skipping.", template.getKey()));
+            return;
+        }
 
         if (ddmTemplate != null) {
             LOG.info("Template already exists and will be overwritten.");
@@ -320,19 +376,29 @@ public final class SetupArticles {
             ddmTemplate.setCacheable(template.isCacheable());
 
             DDMTemplateLocalServiceUtil.updateDDMTemplate(ddmTemplate);
+            ResolverUtil.invalidateTemplates(groupId);
+            SetupLedger.record(ledgerKey, ledgerHash);
             LOG.info(String.format("Template successfully updated: %1$s", ddmTemplate.getName()));
             return;
         }
 
-        long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long runAsUserId = context.getRunAsUserId();
         DDMTemplate newTemplate = DDMTemplateLocalServiceUtil.addTemplate(runAsUserId, groupId, classNameId, classPK,
                 resourceClassnameId, template.getKey(), nameMap, descMap, DDMTemplateConstants.TEMPLATE_TYPE_DISPLAY,
                 null, template.getLanguage(), script, template.isCacheable(), false, null, null, new ServiceContext());
+        ResolverUtil.invalidateTemplates(groupId);
+        SetupLedger.record(ledgerKey, ledgerHash);
         LOG.info(String.format("Added Article template: %1$s", newTemplate.getName()));
     }
 
     public static void addDDMTemplate(final Adt template, final long groupId) throws PortalException, IOException {
+        addDDMTemplate(SetupContext.current().withGroupId(groupId), template);
+    }
+
+    public static void addDDMTemplate(final SetupContext context, final Adt template)
+            throws PortalException, IOException {
 
+        long groupId = context.getGroupId();
         LOG.info(String.format("Adding ADT %1$s", template.getName()));
         long classNameId = PortalUtil.getClassNameId(template.getClassName());
         long resourceClassnameId = Validator.isBlank(template.getResourceClassName())
@@ -359,6 +425,12 @@ public final class SetupArticles {
         }
 
         String script = ResourcesUtil.getFileContent(template.getPath());
+        String ledgerKey = templateLedgerKey("template", groupId, classNameId, template.getTemplateKey());
+        String ledgerHash = SetupLedger.hash(template, script);
+        if (ddmTemplate != null && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+            LOG.info(String.format("ADT %1$s is unchanged, skipping.", template.getTemplateKey()));
+            return;
+        }
 
         if (ddmTemplate != null) {
             LOG.info("Template already exists and will be overwritten.");
@@ -370,25 +442,34 @@ public final class SetupArticles {
             ddmTemplate.setScript(script);
 
             DDMTemplateLocalServiceUtil.updateDDMTemplate(ddmTemplate);
+            ResolverUtil.invalidateTemplates(groupId);
+            SetupLedger.record(ledgerKey, ledgerHash);
             LOG.info(String.format("ADT successfully updated: %1$s", ddmTemplate.getName()));
             return;
         }
 
-        long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long runAsUserId = context.getRunAsUserId();
         DDMTemplate newTemplate =
                 DDMTemplateLocalServiceUtil.addTemplate(runAsUserId, groupId, classNameId, 0, resourceClassnameId,
                         template.getTemplateKey(), nameMap, descriptionMap, DDMTemplateConstants.TEMPLATE_TYPE_DISPLAY,
                         null, template.getLanguage(), script, true, false, null, null, new ServiceContext());
+        ResolverUtil.invalidateTemplates(groupId);
+        SetupLedger.record(ledgerKey, ledgerHash);
         LOG.info(String.format("Added ADT: %1$s", newTemplate.getName()));
     }
 
     public static void addJournalArticle(final Article article, final long groupId) {
+        addJournalArticle(SetupContext.current().withGroupId(groupId), article);
+    }
+
+    public static void addJournalArticle(final SetupContext context, final Article article) {
         LOG.info(String.format("Adding Journal Article %1$s", article.getTitle()));
 
-        String content = null;
+        String content;
         long folderId = 0L;
-        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-        long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long groupId = context.getGroupId();
+        long companyId = context.getCompanyId();
+        long runAsUserId = context.getRunAsUserId();
         if (article.getArticleFolderPath() != null && !article.getArticleFolderPath().equals("")) {
             JournalFolder jf = WebFolderUtil.findWebFolder(companyId, groupId, runAsUserId,
                     article.getArticleFolderPath(), "", true);
@@ -399,12 +480,7 @@ public final class SetupArticles {
                 folderId = jf.getFolderId();
             }
         }
-        try {
-            content = ResourcesUtil.getFileContent(article.getPath());
-            content = ResolverUtil.lookupAll(groupId, companyId, content, article.getPath());
-        } catch (IOException e) {
-            LOG.error(String.format("Error Reading Article File content for article ID: %1$s", article.getArticleId()));
-        }
+        content = readArticleContent(article, groupId, companyId);
         Map<Locale, String> titleMap = TranslationMapUtil.getTranslationMap(article.getTitleTranslation(), groupId,
                 article.getTitle(), String.format(" Article with title %1$s", article.getArticleId()));
 
@@ -438,6 +514,12 @@ public final class SetupArticles {
                 LOG.error(String.format("Error while trying to find article with ID: %1$s", article.getArticleId()), e);
             }
         }
+        String ledgerKey = articleLedgerKey(article, groupId);
+        String ledgerHash = articleLedgerHash(article, content, folderId);
+        if (journalArticle != null && ledgerHash != null && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+            LOG.info(String.format("Article %1$s is unchanged, skipping.", article.getArticleId()));
+            return;
+        }
 
         try {
             if (journalArticle == null) {
@@ -449,10 +531,7 @@ public final class SetupArticles {
 
                 LOG.info(String.format("Added JournalArticle %1$s with ID: %2$s", journalArticle.getTitle(),
                         journalArticle.getArticleId()));
-                Indexer bi = IndexerRegistryUtil.getIndexer(JournalArticle.class);
-                if (bi != null) {
-                    bi.reindex(journalArticle);
-                }
+                reindexAfterCommit(journalArticle);
             } else {
                 LOG.info("Article " + article.getTitle() + " with article ID: " + article.getArticleId()
                         + " already exists. Will be overwritten.");
@@ -469,18 +548,78 @@ public final class SetupArticles {
                 }
                 LOG.info(String.format("Updated JournalArticle: %1$s", journalArticle.getTitle()));
             }
+            ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.ARTICLE, journalArticle.getArticleId());
             TaggingUtil.associateTagsAndCategories(groupId, article, journalArticle);
             processRelatedAssets(article, journalArticle, runAsUserId, groupId, companyId);
             SetupPermissions.updatePermission(String.format("Article %1$s", journalArticle.getArticleId()),
                     companyId, journalArticle.getResourcePrimKey(), JournalArticle.class, article.getRolePermissions(),
                     DEFAULT_PERMISSIONS);
+            if (!generatedId && ledgerHash != null) {
+                SetupLedger.record(ledgerKey, ledgerHash);
+            }
         } catch (PortalException e) {
             LOG.error(String.format("Error while trying to add/update Article with Title: %1$s", article.getTitle()),
                     e);
         }
     }
 
-    private static void addDDLRecordSet(final DdlRecordset recordSet, final long groupId) throws PortalException {
+    /**
+     * Reindexes the article once the setup transaction it was added in is committed, a rolled back article is not
+     * indexed. Outside of a transaction it is reindexed right away.
+     */
+    private static void reindexAfterCommit(final JournalArticle journalArticle) {
+        TransactionCommitCallbackUtil.registerCallback(() -> {
+            Indexer<JournalArticle> indexer = IndexerRegistryUtil.getIndexer(JournalArticle.class);
+            if (indexer != null) {
+                indexer.reindex(journalArticle);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return article content with placeholders resolved, null if the file can not be read
+     */
+    static String readArticleContent(final Article article, final long groupId, final long companyId) {
+        // content read by the site dependency graph already, if small enough to be kept
+        String shared = ResolverCache.getDerived(ResolverCache.Kind.ARTICLE_CONTENT, article.getPath());
+        try (Reader reader =
+                shared != null ? new StringReader(shared) : ResourcesUtil.getFileReader(article.getPath())) {
+            // resolved while reading, so the raw content is never held in memory as a whole
+            long size = shared != null ? shared.length() : ResourcesUtil.getFileSize(article.getPath());
+            // the resolved content is about as long as the raw one, sized up front it is not copied while growing
+            StringWriter writer = size > 0 ? new StringWriter((int) Math.min(size, Integer.MAX_VALUE))
+                    : new StringWriter();
+            ResolverUtil.lookupAll(groupId, companyId, reader, writer, article.getPath());
+            return writer.toString();
+        } catch (IOException e) {
+            LOG.error(String.format("Error Reading Article File content for article ID: %1$s", article.getArticleId()));
+        }
+        return null;
+    }
+
+    static String articleLedgerKey(final Article article, final long groupId) {
+        return SetupLedger.entityKey("article", groupId, article.getArticleId());
+    }
+
+    /**
+     * @return hash of the article, its content and folder as recorded in the setup ledger, null if the content could
+     *         not be read; such an article is neither compared with nor recorded in the ledger
+     */
+    static String articleLedgerHash(final Article article, final String content, final long folderId) {
+        if (content == null) {
+            return null;
+        }
+        return SetupLedger.hashParts(article, content, String.valueOf(folderId));
+    }
+
+    static String templateLedgerKey(final String type, final long groupId, final long classNameId, final String key) {
+        return SetupLedger.entityKey(type, groupId, classNameId, key);
+    }
+
+    private static void addDDLRecordSet(final SetupContext context, final DdlRecordset recordSet)
+            throws PortalException {
+        long groupId = context.getGroupId();
         LOG.info(String.format("Adding DDLRecordSet %1$s", recordSet.getName()));
         Map<Locale, String> nameMap = new HashMap<>();
         Locale siteDefaultLocale = PortalUtil.getSiteDefaultLocale(groupId);
@@ -501,14 +640,16 @@ public final class SetupArticles {
             ddlRecordSet.setDDMStructureId(
                     ResolverUtil.getStructureId(recordSet.getDdlStructureKey(), groupId, DDLRecordSet.class, false));
             DDLRecordSetLocalServiceUtil.updateDDLRecordSet(ddlRecordSet);
+            ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.DDL_RECORD_SET, recordSet.getKey());
             LOG.info(String.format("DDLRecordSet successfully updated: %1$s", recordSet.getName()));
             return;
         }
 
-        long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long runAsUserId = context.getRunAsUserId();
         DDLRecordSet newDDLRecordSet = DDLRecordSetLocalServiceUtil.addRecordSet(runAsUserId, groupId,
                 ResolverUtil.getStructureId(recordSet.getDdlStructureKey(), groupId, DDLRecordSet.class, false),
                 recordSet.getDdlStructureKey(), nameMap, descMap, MIN_DISPLAY_ROWS, 0, new ServiceContext());
+        ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.DDL_RECORD_SET, recordSet.getKey());
         LOG.info(String.format("Added DDLRecordSet: %1$s", newDDLRecordSet.getName()));
     }
 
@@ -29,7 +29,10 @@ package com.ableneo.liferay.portal.setup.core;
 import java.util.*;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.core.util.CategoryPathIndex;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
 import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
 import com.ableneo.liferay.portal.setup.core.util.TranslationMapUtil;
 import com.ableneo.liferay.portal.setup.domain.AssociatedAssetType;
 import com.ableneo.liferay.portal.setup.domain.Category;
@@ -70,8 +73,16 @@ public final class SetupCategorization {
 
         LOG.info("Setting up vocabularies");
 
-        for (Vocabulary vocabulary : vocabularies) {
-            setupVocabulary(vocabulary, groupId, siteDefaultLocale);
+        try {
+            for (Vocabulary vocabulary : vocabularies) {
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    setupVocabulary(vocabulary, groupId, siteDefaultLocale);
+                }
+            }
+        } finally {
+            // also when the time budget is over in the middle of the vocabularies
+            ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.CATEGORY);
+            CategoryPathIndex.invalidate(groupId);
         }
     }
 
@@ -198,7 +209,9 @@ public final class SetupCategorization {
 
         if (categories != null && !categories.isEmpty()) {
             for (Category category : categories) {
-                setupCategory(category, vocabularyId, groupId, defaultLocale, parentId);
+                try (SetupThrottle.Write write = SetupThrottle.write()) {
+                    setupCategory(category, vocabularyId, groupId, defaultLocale, parentId);
+                }
             }
         }
     }
@@ -32,6 +32,7 @@ import java.text.DateFormat;
 import java.util.*;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.CustomFields;
 import com.ableneo.liferay.portal.setup.domain.RolePermission;
 import com.liferay.expando.kernel.model.*;
@@ -56,15 +57,16 @@ public final class SetupCustomFields {
     }
 
     public static void setupExpandoFields(final List<CustomFields.Field> fields) {
+        TransactionChunks.forEach(fields, CustomFields.Field::getName, SetupCustomFields::setupExpandoField);
+    }
 
-        for (CustomFields.Field field : fields) {
-            String className = field.getClassName();
-            LOG.info("Add field " + field.getName() + "(" + className + ") to expando bridge");
+    private static void setupExpandoField(final CustomFields.Field field) {
+        String className = field.getClassName();
+        LOG.info("Add field " + field.getName() + "(" + className + ") to expando bridge");
 
-            long runInCompanyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-            ExpandoBridge bridge = ExpandoBridgeFactoryUtil.getExpandoBridge(runInCompanyId, className);
-            addAttributeToExpandoBridge(bridge, field);
-        }
+        long runInCompanyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        ExpandoBridge bridge = ExpandoBridgeFactoryUtil.getExpandoBridge(runInCompanyId, className);
+        addAttributeToExpandoBridge(bridge, field);
     }
 
     /**
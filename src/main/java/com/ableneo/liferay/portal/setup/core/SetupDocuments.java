@@ -35,7 +35,10 @@ import java.util.List;
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
 import com.ableneo.liferay.portal.setup.core.util.DocumentUtil;
 import com.ableneo.liferay.portal.setup.core.util.FolderUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
 import com.ableneo.liferay.portal.setup.core.util.ResourcesUtil;
+import com.ableneo.liferay.portal.setup.core.util.SetupLedger;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.Document;
 import com.ableneo.liferay.portal.setup.domain.Site;
 import com.liferay.document.library.kernel.model.DLFileEntry;
@@ -79,37 +82,52 @@ public final class SetupDocuments {
     }
 
     public static void setupSiteDocuments(final Site site, final long groupId) {
-        for (Document doc : site.getDocument()) {
-            String folderPath = doc.getDocumentFolderName();
-            String documentName = doc.getDocumentFilename();
-            String documentTitle = doc.getDocumentTitle();
-            String filenameInFilesystem = doc.getFileSystemName();
-            long repoId = groupId;
-            long userId = SetupConfigurationThreadLocal.getRunAsUserId();
-            long company = SetupConfigurationThreadLocal.getRunInCompanyId();
-            if (folderPath != null && !folderPath.equals("")) {
-                FolderUtil.findFolder(groupId, repoId, folderPath, true);
-            }
-            FileEntry fe = DocumentUtil.findDocument(documentName, folderPath, groupId, groupId);
-            byte[] fileBytes = null;
-            try {
-                fileBytes = ResourcesUtil.getFileBytes(filenameInFilesystem);
-            } catch (IOException e) {
-                LOG.error(String.format("Can not read file: %1$s. Skipping file", filenameInFilesystem));
-                continue;
+        TransactionChunks.forEach(site.getDocument(), Document::getDocumentFilename,
+                doc -> setupDocument(doc, groupId));
+        ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.FILE);
+    }
+
+    private static void setupDocument(final Document doc, final long groupId) {
+        String folderPath = doc.getDocumentFolderName();
+        String documentName = doc.getDocumentFilename();
+        String documentTitle = doc.getDocumentTitle();
+        String filenameInFilesystem = doc.getFileSystemName();
+        long repoId = groupId;
+        long userId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long company = SetupConfigurationThreadLocal.getRunInCompanyId();
+        if (folderPath != null && !folderPath.equals("")) {
+            FolderUtil.findFolder(groupId, repoId, folderPath, true);
+        }
+        FileEntry fe = DocumentUtil.findDocument(documentName, folderPath, groupId, groupId);
+        byte[] fileBytes = null;
+        try {
+            fileBytes = ResourcesUtil.getFileBytes(filenameInFilesystem);
+        } catch (IOException e) {
+            LOG.error(String.format("Can not read file: %1$s. Skipping file", filenameInFilesystem));
+            return;
+        }
+        if (fileBytes != null) {
+            String ledgerKey = documentLedgerKey(groupId, folderPath, documentName);
+            String ledgerHash = SetupLedger.hash(doc, fileBytes);
+            if (fe != null && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+                LOG.info(documentName + " is unchanged, skipping.");
+                return;
             }
-            if (fileBytes != null) {
-                if (fe == null) {
-                    fe = DocumentUtil.createDocument(company, groupId, documentName, documentTitle, userId, repoId,
-                            fileBytes);
-                    LOG.info(documentName + " is not found! It will be created! ");
-                } else {
-                    LOG.info(documentName + " is found! Content will be updated! ");
-                    DocumentUtil.updateFile(fe, fileBytes, userId, documentName);
-                }
-                SetupPermissions.updatePermission(String.format("Document %1$s/%2$s", folderPath, documentName),
-                        company, fe.getFileEntryId(), DLFileEntry.class, doc.getRolePermissions(), DEFAULT_PERMISSIONS);
+            if (fe == null) {
+                fe = DocumentUtil.createDocument(company, groupId, documentName, documentTitle, userId, repoId,
+                        fileBytes);
+                LOG.info(documentName + " is not found! It will be created! ");
+            } else {
+                LOG.info(documentName + " is found! Content will be updated! ");
+                DocumentUtil.updateFile(fe, fileBytes, userId, documentName);
             }
+            SetupPermissions.updatePermission(String.format("Document %1$s/%2$s", folderPath, documentName),
+                    company, fe.getFileEntryId(), DLFileEntry.class, doc.getRolePermissions(), DEFAULT_PERMISSIONS);
+            SetupLedger.record(ledgerKey, ledgerHash);
         }
     }
+
+    static String documentLedgerKey(final long groupId, final String folderPath, final String documentName) {
+        return SetupLedger.entityKey("document", groupId, folderPath + "/" + documentName);
+    }
 }
@@ -33,6 +33,8 @@ import java.util.Map;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
 import com.ableneo.liferay.portal.setup.core.util.CustomFieldSettingUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.CustomFieldSetting;
 import com.ableneo.liferay.portal.setup.domain.Site;
 import com.liferay.portal.kernel.exception.PortalException;
@@ -56,116 +58,124 @@ public final class SetupOrganizations {
     public static void setupOrganizations(
             final List<com.ableneo.liferay.portal.setup.domain.Organization> organizations,
             final Organization parentOrg, final Group parentGroup) {
+        TransactionChunks.forEach(organizations, com.ableneo.liferay.portal.setup.domain.Organization::getName,
+                organization -> setupOrganization(organization, parentOrg, parentGroup));
+    }
 
-        for (com.ableneo.liferay.portal.setup.domain.Organization organization : organizations) {
+    private static void setupOrganization(final com.ableneo.liferay.portal.setup.domain.Organization organization,
+            final Organization parentOrg, final Group parentGroup) {
+        try {
+            Organization liferayOrg = null;
+            Group liferayGroup = null;
+            long groupId = -1;
+            long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
             try {
-                Organization liferayOrg = null;
-                Group liferayGroup = null;
-                long groupId = -1;
-                long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-                try {
-                    Organization org = OrganizationLocalServiceUtil.getOrganization(companyId, organization.getName());
-                    liferayGroup = org.getGroup();
-                    groupId = org.getGroupId();
-                    liferayOrg = org;
-                    LOG.info(String.format("Setup: Organization %1$s already exist in system, not creating...",
-                            organization.getName()));
-
-                } catch (PortalException | SystemException e) {
-                    LOG.debug("Organization does not exist.", e);
-                }
-
-                if (groupId == -1) {
-                    LOG.info(String.format("Setup: Organization %1$s does not exist in system, creating...",
-                            organization.getName()));
-
-                    Organization newOrganization =
-                            OrganizationLocalServiceUtil.addOrganization(SetupConfigurationThreadLocal.getRunAsUserId(),
-                                    OrganizationConstants.DEFAULT_PARENT_ORGANIZATION_ID, organization.getName(),
-                                    "organization", 0, 0, ListTypeConstants.ORGANIZATION_STATUS_DEFAULT,
-                                    "Created by setup module.", false, new ServiceContext());
-                    addOrganizationUser(newOrganization,
-                            UserLocalServiceUtil.getUser(SetupConfigurationThreadLocal.getRunAsUserId()));
-                    liferayOrg = newOrganization;
-                    liferayGroup = liferayOrg.getGroup();
-                    groupId = newOrganization.getGroupId();
-
-                    LOG.info(String.format("New Organization created. Group ID: %1$s", groupId));
-                }
-
-                if (parentOrg != null && liferayOrg != null && organization.isMaintainOrganizationHierarchy()) {
-                    liferayOrg.setParentOrganizationId(parentOrg.getOrganizationId());
-                    OrganizationLocalServiceUtil.updateOrganization(liferayOrg);
-                } else if (liferayOrg != null && organization.isMaintainOrganizationHierarchy()) {
-                    liferayOrg.setParentOrganizationId(0);
-                    OrganizationLocalServiceUtil.updateOrganization(liferayOrg);
-                }
+                Organization org = OrganizationLocalServiceUtil.getOrganization(companyId, organization.getName());
+                liferayGroup = org.getGroup();
+                groupId = org.getGroupId();
+                liferayOrg = org;
+                LOG.info(String.format("Setup: Organization %1$s already exist in system, not creating...",
+                        organization.getName()));
+
+            } catch (PortalException | SystemException e) {
+                LOG.debug("Organization does not exist.", e);
+            }
 
-                setCustomFields(groupId, organization, liferayOrg);
-                LOG.info("Organization custom fields set up.");
+            if (groupId == -1) {
+                LOG.info(String.format("Setup: Organization %1$s does not exist in system, creating...",
+                        organization.getName()));
+
+                Organization newOrganization =
+                        OrganizationLocalServiceUtil.addOrganization(SetupConfigurationThreadLocal.getRunAsUserId(),
+                                OrganizationConstants.DEFAULT_PARENT_ORGANIZATION_ID, organization.getName(),
+                                "organization", 0, 0, ListTypeConstants.ORGANIZATION_STATUS_DEFAULT,
+                                "Created by setup module.", false, new ServiceContext());
+                ResolverCache.invalidateInCompany(companyId, ResolverCache.Kind.ORGANIZATION,
+                        organization.getName());
+                addOrganizationUser(newOrganization,
+                        UserLocalServiceUtil.getUser(SetupConfigurationThreadLocal.getRunAsUserId()));
+                liferayOrg = newOrganization;
+                liferayGroup = liferayOrg.getGroup();
+                groupId = newOrganization.getGroupId();
+
+                LOG.info(String.format("New Organization created. Group ID: %1$s", groupId));
+            }
 
-                Site orgSite = organization.getSite();
+            if (parentOrg != null && liferayOrg != null && organization.isMaintainOrganizationHierarchy()) {
+                liferayOrg.setParentOrganizationId(parentOrg.getOrganizationId());
+                OrganizationLocalServiceUtil.updateOrganization(liferayOrg);
+            } else if (liferayOrg != null && organization.isMaintainOrganizationHierarchy()) {
+                liferayOrg.setParentOrganizationId(0);
+                OrganizationLocalServiceUtil.updateOrganization(liferayOrg);
+            }
 
-                if (orgSite == null) {
-                    LOG.info("Organization has no site defined. All is set.");
-                } else if (orgSite.isDefault() || orgSite.getName() == null || orgSite.getName().isEmpty()) {
-                    LOG.error("It is not possible to set global or default within organization. Skipping site setup.");
-                } else {
-                    LOG.info("Setting up site for organization.");
-                    liferayGroup.setSite(true);
-                    liferayGroup.setName(orgSite.getName());
+            setCustomFields(groupId, organization, liferayOrg);
+            LOG.info("Organization custom fields set up.");
+
+            Site orgSite = organization.getSite();
+
+            if (orgSite == null) {
+                LOG.info("Organization has no site defined. All is set.");
+            } else if (orgSite.isDefault() || orgSite.getName() == null || orgSite.getName().isEmpty()) {
+                LOG.error("It is not possible to set global or default within organization. Skipping site setup.");
+            } else {
+                LOG.info("Setting up site for organization.");
+                String previousName = liferayGroup.getName();
+                liferayGroup.setSite(true);
+                liferayGroup.setName(orgSite.getName());
+                GroupLocalServiceUtil.updateGroup(liferayGroup);
+                // the site is looked up by name, the previous name is not found anymore and the new one is found now
+                ResolverCache.invalidateInCompany(companyId, ResolverCache.Kind.SITE, previousName);
+                ResolverCache.invalidateInCompany(companyId, ResolverCache.Kind.SITE, orgSite.getName());
+                liferayGroup = liferayOrg.getGroup();
+
+                if (liferayGroup != null && orgSite.getSiteFriendlyUrl() != null
+                        && !orgSite.getSiteFriendlyUrl().isEmpty()) {
+                    liferayGroup.setFriendlyURL(orgSite.getSiteFriendlyUrl());
                     GroupLocalServiceUtil.updateGroup(liferayGroup);
                     liferayGroup = liferayOrg.getGroup();
+                }
 
-                    if (liferayGroup != null && orgSite.getSiteFriendlyUrl() != null
-                            && !orgSite.getSiteFriendlyUrl().isEmpty()) {
-                        liferayGroup.setFriendlyURL(orgSite.getSiteFriendlyUrl());
-                        GroupLocalServiceUtil.updateGroup(liferayGroup);
-                        liferayGroup = liferayOrg.getGroup();
-                    }
-
-                    if (parentGroup != null && liferayGroup != null && orgSite.isMaintainSiteHierarchy()) {
-                        liferayGroup.setParentGroupId(parentGroup.getGroupId());
-                        GroupLocalServiceUtil.updateGroup(liferayGroup);
-                    } else if (liferayGroup != null && orgSite.isMaintainSiteHierarchy()) {
-                        liferayGroup.setParentGroupId(0);
-                        GroupLocalServiceUtil.updateGroup(liferayGroup);
-                    }
+                if (parentGroup != null && liferayGroup != null && orgSite.isMaintainSiteHierarchy()) {
+                    liferayGroup.setParentGroupId(parentGroup.getGroupId());
+                    GroupLocalServiceUtil.updateGroup(liferayGroup);
+                } else if (liferayGroup != null && orgSite.isMaintainSiteHierarchy()) {
+                    liferayGroup.setParentGroupId(0);
+                    GroupLocalServiceUtil.updateGroup(liferayGroup);
+                }
 
-                    LOG.info("Setting organization site content...");
+                LOG.info("Setting organization site content...");
 
-                    SetupDocumentFolders.setupDocumentFolders(orgSite, groupId);
-                    LOG.info("Document Folders setting finished.");
+                SetupDocumentFolders.setupDocumentFolders(orgSite, groupId);
+                LOG.info("Document Folders setting finished.");
 
-                    SetupDocuments.setupSiteDocuments(orgSite, groupId);
-                    LOG.info("Documents setting finished.");
+                SetupDocuments.setupSiteDocuments(orgSite, groupId);
+                LOG.info("Documents setting finished.");
 
-                    SetupPages.setupSitePages(orgSite, groupId);
-                    LOG.info("Organization Pages setting finished.");
+                SetupPages.setupSitePages(orgSite, groupId);
+                LOG.info("Organization Pages setting finished.");
 
-                    SetupWebFolders.setupWebFolders(orgSite, groupId);
-                    LOG.info("Web folders setting finished.");
+                SetupWebFolders.setupWebFolders(orgSite, groupId);
+                LOG.info("Web folders setting finished.");
 
-                    SetupCategorization.setupVocabularies(orgSite.getVocabulary(), groupId);
-                    LOG.info("Organization Categories setting finished.");
+                SetupCategorization.setupVocabularies(orgSite.getVocabulary(), groupId);
+                LOG.info("Organization Categories setting finished.");
 
-                    SetupArticles.setupSiteArticles(orgSite.getArticle(), orgSite.getAdt(), orgSite.getDdlRecordset(),
-                            groupId);
-                    LOG.info("Organization Articles setting finished.");
+                SetupArticles.setupSiteArticles(orgSite.getArticle(), orgSite.getAdt(), orgSite.getDdlRecordset(),
+                        groupId);
+                LOG.info("Organization Articles setting finished.");
 
-                    SetupSites.setCustomFields(groupId, orgSite.getCustomFieldSetting());
-                    LOG.info("Organization site custom fields set up.");
+                SetupSites.setCustomFields(groupId, orgSite.getCustomFieldSetting());
+                LOG.info("Organization site custom fields set up.");
 
-                }
+            }
 
-                List<com.ableneo.liferay.portal.setup.domain.Organization> orgs = organization.getOrganization();
-                setupOrganizations(orgs, liferayOrg, liferayGroup);
+            List<com.ableneo.liferay.portal.setup.domain.Organization> orgs = organization.getOrganization();
+            setupOrganizations(orgs, liferayOrg, liferayGroup);
 
-            } catch (Exception e) {
-                LOG.error(String.format("Error by setting up organization %1$s", organization.getName()), e);
-            }
+        } catch (Exception e) {
+            LOG.error(String.format("Error by setting up organization %1$s", organization.getName()), e);
         }
-
     }
 
     private static void setCustomFields(final long groupId,
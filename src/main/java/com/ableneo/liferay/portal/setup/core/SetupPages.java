@@ -32,8 +32,12 @@ import java.util.*;
 import javax.portlet.ReadOnlyException;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupContext;
 import com.ableneo.liferay.portal.setup.core.util.CustomFieldSettingUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
 import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.SetupLedger;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
 import com.ableneo.liferay.portal.setup.core.util.TranslationMapUtil;
 import com.ableneo.liferay.portal.setup.domain.*;
 import com.ableneo.liferay.portal.setup.domain.Theme;
@@ -60,6 +64,7 @@ public final class SetupPages {
     private static final HashMap<String, List<String>> DEFAULT_PERMISSIONS_PUBLIC;
     private static final HashMap<String, List<String>> DEFAULT_PERMISSIONS_PRIVATE;
     private static final String LAYOUT_WAS_LOOKED_UP_IN_THEME = "Layout was looked up in theme %1$s";
+    private static final Set<String> CHILD_PAGE_ELEMENTS = Collections.singleton("page");
 
     static {
         DEFAULT_PERMISSIONS_PUBLIC = new HashMap<>();
@@ -104,10 +109,22 @@ public final class SetupPages {
      * @throws PortalException
      */
     public static void setupSitePages(final Site site, final long groupId) throws PortalException {
+        setupSitePages(SetupContext.current().withGroupId(groupId), site);
+    }
+
+    /**
+     * @param context company, user and group of the site the pages are set up in and as
+     * @param site site the pages are configured for
+     *
+     * @throws PortalException
+     */
+    public static void setupSitePages(final SetupContext context, final Site site) throws PortalException {
 
         Pages publicPages = site.getPublicPages();
-        long company = SetupConfigurationThreadLocal.getRunInCompanyId();
-        long userid = SetupConfigurationThreadLocal.getRunAsUserId();
+        long groupId = context.getGroupId();
+        long company = context.getCompanyId();
+        long userid = context.getRunAsUserId();
+        prefetchPreferenceReferences(site, groupId, company);
         if (publicPages != null) {
             if (publicPages.getTheme() != null) {
                 setupTheme(groupId, publicPages.getTheme(), false);
@@ -140,12 +157,42 @@ public final class SetupPages {
         }
     }
 
+    private static void prefetchPreferenceReferences(final Site site, final long groupId, final long company) {
+        List<String> values = new ArrayList<>();
+        if (site.getPublicPages() != null) {
+            collectPreferenceValues(site.getPublicPages().getPage(), values);
+        }
+        if (site.getPrivatePages() != null) {
+            collectPreferenceValues(site.getPrivatePages().getPage(), values);
+        }
+        ResolverUtil.prefetch(groupId, company, values, String.format("pages of site %1$s", site.getName()));
+    }
+
+    private static void collectPreferenceValues(final List<Page> pages, final List<String> values) {
+        for (Page page : pages) {
+            for (PagePortlet portlet : page.getPagePortlet()) {
+                for (PortletPreference preference : portlet.getPortletPreference()) {
+                    values.add(preference.getValue());
+                }
+            }
+            collectPreferenceValues(page.getPage(), values);
+        }
+    }
+
     /**
      * Set the page templates up. As this is heavily based on page (layout).
      *
      * @param pageTemplates The page template definitions that are imported.
      */
     public static void setupPageTemplates(final PageTemplates pageTemplates) {
+        setupPageTemplates(SetupContext.current(), pageTemplates);
+    }
+
+    /**
+     * @param context company, user and group the page templates are set up in and as
+     * @param pageTemplates The page template definitions that are imported.
+     */
+    public static void setupPageTemplates(final SetupContext context, final PageTemplates pageTemplates) {
         try {
             for (PageTemplate pageTemplate : pageTemplates.getPageTemplate()) {
                 String name = pageTemplate.getName();
@@ -155,9 +202,9 @@ public final class SetupPages {
                     DynamicQuery dq = LayoutPrototypeLocalServiceUtil.dynamicQuery()
                             .add(PropertyFactoryUtil.forName("name").like("%" + name + "%"));
                     List<LayoutPrototype> listLayoutPrototype = LayoutPrototypeLocalServiceUtil.dynamicQuery(dq);
-                    long groupId = SetupConfigurationThreadLocal.getRunInGroupId();
-                    long userid = SetupConfigurationThreadLocal.getRunAsUserId();
-                    long company = SetupConfigurationThreadLocal.getRunInCompanyId();
+                    long groupId = context.getGroupId();
+                    long userid = context.getRunAsUserId();
+                    long company = context.getCompanyId();
                     if (listLayoutPrototype != null && !listLayoutPrototype.isEmpty()) {
                         lp = listLayoutPrototype.get(0);
                     } else {
@@ -179,7 +226,8 @@ public final class SetupPages {
                                         "The page of page template %1$s may not have a friendly URL! Will ignore it!",
                                         name));
                             }
-                            setupLiferayPage(layout, page, null, null, groupId, false, company, userid, name);
+                            setupLiferayPage(layout, page, page.getLayout(), page.getLayoutThemeId(), groupId, false,
+                                    company, userid, name);
                         }
                     } else {
                         LOG.error(String.format("Could not create or find the page template %1$s", name));
@@ -229,53 +277,116 @@ public final class SetupPages {
             final long parentLayoutId, final long company, final long userId) throws PortalException {
 
         for (Page page : pages) {
-
-            Layout layout = null;
-            try {
-                layout = LayoutLocalServiceUtil.getFriendlyURLLayout(groupId, isPrivate, page.getFriendlyUrl());
-                LOG.info(String.format("Setup: Page %1$s already exist, not creating...", page.getName()));
-                if (layout != null && page.isDeleteExistingPages()) {
-                    LayoutLocalServiceUtil.deleteLayout(layout);
+            // A page without a layout gets the default one. Otherwise its layout becomes the default for the
+            // following pages and the subtree. The configuration itself is not changed, it may be shared by runs.
+            if (page.getLayout() != null) {
+                defaultLayout = page.getLayout();
+                defaultLayoutContainedInThemeWithId = page.getLayoutThemeId();
+            }
+            // preferences resolve ids of other entities, the resolved values are part of the hash; a forced run
+            // neither compares nor records the page
+            String ledgerKey = pageLedgerKey(groupId, isPrivate, page.getFriendlyUrl());
+            String ledgerHash = SetupConfigurationThreadLocal.isForceFullRun() ? null
+                    : pageLedgerHash(page, defaultLayout, defaultLayoutContainedInThemeWithId, company, groupId);
+
+            try (SetupThrottle.Write write = SetupThrottle.write()) {
+                Layout layout = null;
+                boolean unchanged = false;
+                try {
+                    layout = LayoutLocalServiceUtil.getFriendlyURLLayout(groupId, isPrivate, page.getFriendlyUrl());
+                    LOG.info(String.format("Setup: Page %1$s already exist, not creating...", page.getName()));
+                    if (layout != null && page.isDeleteExistingPages()) {
+                        LayoutLocalServiceUtil.deleteLayout(layout);
+                        if (page.getLinkToUrl() == null || page.getLinkToUrl().equals("")) {
+                            layout = createPage(groupId, page, parentLayoutId, isPrivate, userId);
+                        } else {
+                            layout = createLinkPage(page, groupId, parentLayoutId, userId);
+                        }
+                    } else if (layout != null && ledgerHash != null
+                            && SetupLedger.isUnchanged(ledgerKey, ledgerHash)) {
+                        LOG.info(String.format("Setup: Page %1$s is unchanged, skipping.", page.getName()));
+                        unchanged = true;
+                    } else if (layout != null && (page.getLinkToUrl() != null && !page.getLinkToUrl().equals(""))) {
+                        updateLinkPage(page, groupId);
+                    }
+                } catch (NoSuchLayoutException e) {
                     if (page.getLinkToUrl() == null || page.getLinkToUrl().equals("")) {
-                        layout = createPage(groupId, page, parentLayoutId, isPrivate);
+                        layout = createPage(groupId, page, parentLayoutId, isPrivate, userId);
                     } else {
                         layout = createLinkPage(page, groupId, parentLayoutId, userId);
                     }
-                } else if (layout != null && (page.getLinkToUrl() != null && !page.getLinkToUrl().equals(""))) {
-                    updateLinkPage(page, groupId);
+                    LOG.info(String.format("Setup: Page %1$s created...", page.getName()));
+                } catch (Exception ex) {
+                    LOG.error(ex);
                 }
-            } catch (NoSuchLayoutException e) {
-                if (page.getLinkToUrl() == null || page.getLinkToUrl().equals("")) {
-                    layout = createPage(groupId, page, parentLayoutId, isPrivate);
-                } else {
-                    layout = createLinkPage(page, groupId, parentLayoutId, userId);
+                ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.PAGE,
+                        ResolverCache.pageKey(isPrivate, page.getFriendlyUrl()));
+                if (unchanged) {
+                    // sub-pages are checked on their own
+                    addSubPages(layout, page, defaultLayout, defaultLayoutContainedInThemeWithId, groupId, isPrivate,
+                            company, userId, null);
+                    continue;
+                }
+                setupLiferayPage(layout, page, defaultLayout, defaultLayoutContainedInThemeWithId, groupId, isPrivate,
+                        company, userId, null);
+                if (ledgerHash != null) {
+                    SetupLedger.record(ledgerKey, ledgerHash);
                 }
-                LOG.info(String.format("Setup: Page %1$s created...", page.getName()));
-            } catch (Exception ex) {
-                LOG.error(ex);
             }
-            // If the page has not a layout set, set the default one. Otherwise set that layout as the default for the
-            // subtree
-            if (page.getLayout() == null) {
-                page.setLayout(defaultLayout);
-                page.setLayoutThemeId(defaultLayoutContainedInThemeWithId);
-            } else {
-                defaultLayout = page.getLayout();
-                defaultLayoutContainedInThemeWithId = page.getLayoutThemeId();
+        }
+    }
+
+    static String pageLedgerKey(final long groupId, final boolean isPrivate, final String friendlyUrl) {
+        return SetupLedger.entityKey("page", groupId, isPrivate ? "private" : "public", friendlyUrl);
+    }
+
+    /**
+     * @param layoutTemplate layout the page is set up with, its own or the default one
+     * @param layoutThemeId theme the layout is looked up in
+     * @return hash of the page without its child pages, of its layout and of its resolved preferences, as recorded in
+     *         the setup ledger; the child pages are recorded on their own
+     */
+    static String pageLedgerHash(final Page page, final String layoutTemplate, final String layoutThemeId,
+            final long company, final long groupId) {
+        StringBuilder content = new StringBuilder();
+        appendLengthPrefixed(content, layoutTemplate);
+        appendLengthPrefixed(content, layoutThemeId);
+        content.append(resolvePreferences(page, company, groupId));
+        return SetupLedger.hash(page, content.toString(), Collections.emptySet(), CHILD_PAGE_ELEMENTS);
+    }
+
+    /**
+     * @return resolved preferences of the portlets of the page, each value prefixed by its length
+     */
+    private static String resolvePreferences(final Page page, final long company, final long groupId) {
+        StringBuilder resolved = new StringBuilder();
+        for (PagePortlet portlet : page.getPagePortlet()) {
+            for (PortletPreference preference : portlet.getPortletPreference()) {
+                String value = resolvePortletPrefValue(preference.getKey(), preference.getValue(), portlet, company,
+                        groupId);
+                appendLengthPrefixed(resolved, value);
             }
-            setupLiferayPage(layout, page, defaultLayout, defaultLayoutContainedInThemeWithId, groupId, isPrivate,
-                    company, userId, null);
         }
+        return resolved.toString();
+    }
+
+    private static void appendLengthPrefixed(final StringBuilder builder, final String value) {
+        String text = String.valueOf(value);
+        builder.append(text.length()).append(StringPool.COLON).append(text);
     }
 
+    /**
+     * @param defaultLayout layout the page is set up with, its own or the default one; the default of its sub-pages
+     * @param defaultLayoutContainedInThemeWithId theme the layout is looked up in
+     */
     private static void setupLiferayPage(final Layout layout, final Page page, final String defaultLayout,
             final String defaultLayoutContainedInThemeWithId, final long groupId, final boolean isPrivate,
             final long company, final long userId, final String pageTemplateName) throws PortalException {
         if (page.getTheme() != null) {
             setPageTheme(layout, page);
         }
-        if (page.getLayout() != null) {
-            setLayoutTemplate(layout, page, userId);
+        if (defaultLayout != null) {
+            setLayoutTemplate(layout, page, defaultLayout, defaultLayoutContainedInThemeWithId, userId);
         }
 
         setPageTarget(page, layout);
@@ -283,10 +394,24 @@ public final class SetupPages {
         List<PagePortlet> portlets = page.getPagePortlet();
         if (portlets != null && !portlets.isEmpty()) {
             for (PagePortlet portlet : portlets) {
-                addPortletIntoPage(page, layout, portlet, company, groupId);
+                addPortletIntoPage(page, layout, portlet, company, groupId, userId);
             }
         }
 
+        addSubPages(layout, page, defaultLayout, defaultLayoutContainedInThemeWithId, groupId, isPrivate, company,
+                userId, pageTemplateName);
+
+        if (page.getCustomFieldSetting() != null && !page.getCustomFieldSetting().isEmpty()) {
+            setCustomFields(groupId, company, page, layout);
+        }
+
+        SetupPermissions.updatePermission(String.format("Page %1$s", page.getFriendlyUrl()), company, layout.getPlid(),
+                Layout.class, page.getRolePermissions(), getDefaultPermissions(isPrivate));
+    }
+
+    private static void addSubPages(final Layout layout, final Page page, final String defaultLayout,
+            final String defaultLayoutContainedInThemeWithId, final long groupId, final boolean isPrivate,
+            final long company, final long userId, final String pageTemplateName) throws PortalException {
         List<Page> subPages = page.getPage();
         if (subPages != null && !subPages.isEmpty()) {
             if (pageTemplateName != null && !pageTemplateName.equals("")) {
@@ -297,13 +422,6 @@ public final class SetupPages {
                         layout.getLayoutId(), company, userId);
             }
         }
-
-        if (page.getCustomFieldSetting() != null && !page.getCustomFieldSetting().isEmpty()) {
-            setCustomFields(groupId, company, page, layout);
-        }
-
-        SetupPermissions.updatePermission(String.format("Page %1$s", page.getFriendlyUrl()), company, layout.getPlid(),
-                Layout.class, page.getRolePermissions(), getDefaultPermissions(isPrivate));
     }
 
     private static HashMap<String, List<String>> getDefaultPermissions(final boolean isPrivate) {
@@ -365,7 +483,7 @@ public final class SetupPages {
     }
 
     private static Layout createPage(final long groupId, final Page currentPage, final long parentLayoutId,
-            final boolean isPrivate) throws PortalException {
+            final boolean isPrivate, final long userId) throws PortalException {
 
         Map<Locale, String> titleMap = TranslationMapUtil.getTranslationMap(currentPage.getTitleTranslation(), groupId,
                 currentPage.getName(), String.format(" Page with title %1$s", currentPage.getFriendlyUrl()));
@@ -378,9 +496,9 @@ public final class SetupPages {
         Map<Locale, String> friendlyURLMap = new HashMap<>();
         friendlyURLMap.put(locale, currentPage.getFriendlyUrl());
 
-        return LayoutLocalServiceUtil.addLayout(SetupConfigurationThreadLocal.getRunAsUserId(), groupId, isPrivate,
-                parentLayoutId, titleMap, titleMap, null, null, null, currentPage.getType(), StringPool.BLANK,
-                currentPage.isHidden(), friendlyURLMap, new ServiceContext());
+        return LayoutLocalServiceUtil.addLayout(userId, groupId, isPrivate, parentLayoutId, titleMap, titleMap, null,
+                null, null, currentPage.getType(), StringPool.BLANK, currentPage.isHidden(), friendlyURLMap,
+                new ServiceContext());
     }
 
     private static void setCustomFields(final long groupId, final long company, final Page page, final Layout layout) {
@@ -424,7 +542,7 @@ public final class SetupPages {
     }
 
     private static void addPortletIntoPage(final Page page, final Layout layout, final PagePortlet portlet,
-            final long companyId, final long groupId) throws PortalException {
+            final long companyId, final long groupId, final long runAsUserId) throws PortalException {
         if (page.getLinkToUrl() != null && !page.getLinkToUrl().equals("")) {
             LOG.error(
                     "This is a link page! It cannot be cleared. If you intend to use this page for portlets, please delete this page, or remove the link from the page!");
@@ -432,7 +550,6 @@ public final class SetupPages {
             long plid = layout.getPlid();
             long ownerId = PortletKeys.PREFS_OWNER_ID_DEFAULT;
             int ownerType = PortletKeys.PREFS_OWNER_TYPE_LAYOUT;
-            long runAsUserId = SetupConfigurationThreadLocal.getRunAsUserId();
 
             LayoutTypePortlet layoutTypePortlet = (LayoutTypePortlet) layout.getLayoutType();
 
@@ -507,6 +624,16 @@ public final class SetupPages {
     }
 
     public static void setLayoutTemplate(final Layout layout, final Page page, final long userid) {
+        setLayoutTemplate(layout, page, page.getLayout(), page.getLayoutThemeId(), userid);
+    }
+
+    /**
+     * @param layoutTemplate id of the layout template the page is set up with, e.g. the default one of a page without
+     *        a layout
+     * @param layoutThemeId theme the layout template is looked up in, blank to look it up in the portal
+     */
+    public static void setLayoutTemplate(final Layout layout, final Page page, final String layoutTemplate,
+            final String layoutThemeId, final long userid) {
         if (layout.getLayoutType() instanceof LayoutTypePortlet) {
             LayoutTypePortlet portletLayout = (LayoutTypePortlet) layout.getLayoutType();
 
@@ -522,29 +649,29 @@ public final class SetupPages {
             String themeId = null;
             try {
 
-                if (!Validator.isBlank(page.getLayoutThemeId())) {
-                    themeId = page.getLayoutThemeId();
+                if (!Validator.isBlank(layoutThemeId)) {
+                    themeId = layoutThemeId;
                 }
-                LayoutTemplate layoutTemplate =
-                        LayoutTemplateLocalServiceUtil.getLayoutTemplate(page.getLayout(), false, themeId);
+                LayoutTemplate liferayLayoutTemplate =
+                        LayoutTemplateLocalServiceUtil.getLayoutTemplate(layoutTemplate, false, themeId);
 
-                if (layoutTemplate != null) {
-                    LOG.info(String.format("Setting layout to %1$s for page %2$s", page.getLayout(), page.getName()));
+                if (liferayLayoutTemplate != null) {
+                    LOG.info(String.format("Setting layout to %1$s for page %2$s", layoutTemplate, page.getName()));
                     if (themeId != null) {
                         LOG.info(String.format(LAYOUT_WAS_LOOKED_UP_IN_THEME, themeId));
                     }
                     portletLayout.setLayoutTemplateId(UserLocalServiceUtil.getDefaultUserId(layout.getCompanyId()),
-                            layoutTemplate.getLayoutTemplateId());
+                            liferayLayoutTemplate.getLayoutTemplateId());
                     LayoutLocalServiceUtil.updateLayout(layout.getGroupId(), layout.isPrivateLayout(),
                             layout.getLayoutId(), layout.getTypeSettings());
                 } else {
-                    LOG.error(String.format("Layout template %1$s not found !", page.getLayout()));
+                    LOG.error(String.format("Layout template %1$s not found !", layoutTemplate));
                     if (themeId != null) {
                         LOG.error(String.format(LAYOUT_WAS_LOOKED_UP_IN_THEME, themeId));
                     }
                 }
             } catch (Exception e) {
-                LOG.error(String.format("Error by setting layout template : %1$s", page.getLayout()), e);
+                LOG.error(String.format("Error by setting layout template : %1$s", layoutTemplate), e);
                 if (themeId != null) {
                     LOG.error(String.format(LAYOUT_WAS_LOOKED_UP_IN_THEME, themeId));
                 }
@@ -595,6 +722,7 @@ public final class SetupPages {
         ServiceContext serviceContext = new ServiceContext();
         try {
             LayoutLocalServiceUtil.deleteLayouts(groupId, privatePages, serviceContext);
+            ResolverCache.invalidateInGroup(groupId, ResolverCache.Kind.PAGE);
             LOG.info("Setup: Pages removed.");
         } catch (PortalException | SystemException e) {
             LOG.error(String.format("cannot remove pages: %1$s", e));
@@ -30,6 +30,7 @@ package com.ableneo.liferay.portal.setup.core;
 import java.util.*;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.*;
 import com.liferay.portal.kernel.exception.NestableException;
 import com.liferay.portal.kernel.exception.PortalException;
@@ -54,26 +55,28 @@ public final class SetupPermissions {
     }
 
     public static void setupPortletPermissions(final ResourcePermissions resourcePermissions) {
+        TransactionChunks.forEach(resourcePermissions.getResource(), ResourcePermissions.Resource::getResourceId,
+                SetupPermissions::setupPortletPermission);
+    }
 
-        for (ResourcePermissions.Resource resource : resourcePermissions.getResource()) {
+    private static void setupPortletPermission(final ResourcePermissions.Resource resource) {
 
-            deleteAllPortletPermissions(resource);
+        deleteAllPortletPermissions(resource);
 
-            Map<String, Set<String>> actionsPerRole = getActionsPerRole(resource);
-            for (Map.Entry<String, Set<String>> actionsPerRoleEntry : actionsPerRole.entrySet()) {
-                String roleName = actionsPerRoleEntry.getKey();
-                try {
-                    long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-                    long roleId = RoleLocalServiceUtil.getRole(companyId, roleName).getRoleId();
-                    final Set<String> actionStrings = actionsPerRoleEntry.getValue();
-                    final String[] actionIds = actionStrings.toArray(new String[actionStrings.size()]);
-
-                    ResourcePermissionLocalServiceUtil.setResourcePermissions(companyId, resource.getResourceId(),
-                        ResourceConstants.SCOPE_COMPANY, String.valueOf(companyId), roleId, actionIds);
-                    LOG.info(String.format("Set permission for role: %1$s for action ids: %2$s", roleName, actionIds));
-                } catch (NestableException e) {
-                    LOG.error(String.format("Could not set permission to resource :%1$s", resource.getResourceId()), e);
-                }
+        Map<String, Set<String>> actionsPerRole = getActionsPerRole(resource);
+        for (Map.Entry<String, Set<String>> actionsPerRoleEntry : actionsPerRole.entrySet()) {
+            String roleName = actionsPerRoleEntry.getKey();
+            try {
+                long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+                long roleId = RoleLocalServiceUtil.getRole(companyId, roleName).getRoleId();
+                final Set<String> actionStrings = actionsPerRoleEntry.getValue();
+                final String[] actionIds = actionStrings.toArray(new String[actionStrings.size()]);
+
+                ResourcePermissionLocalServiceUtil.setResourcePermissions(companyId, resource.getResourceId(),
+                    ResourceConstants.SCOPE_COMPANY, String.valueOf(companyId), roleId, actionIds);
+                LOG.info(String.format("Set permission for role: %1$s for action ids: %2$s", roleName, actionIds));
+            } catch (NestableException e) {
+                LOG.error(String.format("Could not set permission to resource :%1$s", resource.getResourceId()), e);
             }
         }
     }
@@ -0,0 +1,420 @@
+package com.ableneo.liferay.portal.setup.core;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupPlan;
+import com.ableneo.liferay.portal.setup.SetupPlan.Action;
+import com.ableneo.liferay.portal.setup.core.util.DocumentUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResourcesUtil;
+import com.ableneo.liferay.portal.setup.core.util.SetupLedger;
+import com.ableneo.liferay.portal.setup.core.util.WebFolderUtil;
+import com.ableneo.liferay.portal.setup.domain.*;
+import com.liferay.dynamic.data.lists.model.DDLRecordSet;
+import com.liferay.dynamic.data.mapping.model.DDMStructure;
+import com.liferay.dynamic.data.mapping.service.DDMStructureLocalServiceUtil;
+import com.liferay.dynamic.data.mapping.service.DDMTemplateLocalServiceUtil;
+import com.liferay.expando.kernel.model.ExpandoTableConstants;
+import com.liferay.expando.kernel.service.ExpandoColumnLocalServiceUtil;
+import com.liferay.journal.model.JournalArticle;
+import com.liferay.journal.model.JournalFolder;
+import com.liferay.journal.service.JournalArticleLocalServiceUtil;
+import com.liferay.petra.string.StringPool;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Group;
+import com.liferay.portal.kernel.model.GroupConstants;
+import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
+import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
+import com.liferay.portal.kernel.service.LayoutLocalServiceUtil;
+import com.liferay.portal.kernel.service.OrganizationLocalServiceUtil;
+import com.liferay.portal.kernel.service.RoleLocalServiceUtil;
+import com.liferay.portal.kernel.service.UserGroupLocalServiceUtil;
+import com.liferay.portal.kernel.service.UserLocalServiceUtil;
+import com.liferay.portal.kernel.util.PortalUtil;
+import com.liferay.portal.kernel.util.Validator;
+import com.liferay.portal.kernel.workflow.WorkflowConstants;
+
+/**
+ * Computes the {@link SetupPlan} of a company by walking the setup and issuing only the read calls the setup modules
+ * make before they write. Entities covered by the {@link SetupLedger} are planned as no-op when their content did not
+ * change, other existing entities are always planned as update since their modules write them unconditionally.
+ */
+public final class SetupPlanner {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SetupPlanner.class);
+    private static final String EXCLUDE_LISTED = "excludeListed";
+
+    private SetupPlanner() {}
+
+    /**
+     * Adds the changes of the setup in the company of the current thread to the plan.
+     *
+     * @param setup parsed setup configuration
+     * @param plan plan the changes are added to
+     */
+    public static void planCompany(final Setup setup, final SetupPlan plan) {
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        if (setup.getDeleteLiferayObjects() != null) {
+            for (ObjectsToBeDeleted otbd : setup.getDeleteLiferayObjects().getObjectsToBeDeleted()) {
+                planDeletes(otbd, companyId, plan);
+            }
+        }
+        if (setup.getCustomFields() != null) {
+            for (CustomFields.Field field : setup.getCustomFields().getField()) {
+                plan.add(companyId, "custom-fields", SetupLedger.entityKey("field", field.getClassName(),
+                        field.getName()), existence(customFieldExists(companyId, field)));
+            }
+        }
+        if (setup.getRoles() != null) {
+            for (Role role : setup.getRoles().getRole()) {
+                plan.add(companyId, "roles", SetupLedger.entityKey("role", role.getName()),
+                        existence(RoleLocalServiceUtil.fetchRole(companyId, role.getName()) != null));
+            }
+        }
+        if (setup.getUsers() != null) {
+            for (User user : setup.getUsers().getUser()) {
+                plan.add(companyId, "users", SetupLedger.entityKey("user", user.getEmailAddress()), existence(
+                        UserLocalServiceUtil.fetchUserByEmailAddress(companyId, user.getEmailAddress()) != null));
+            }
+        }
+        if (setup.getOrganizations() != null) {
+            planOrganizations(setup.getOrganizations().getOrganization(), companyId, plan);
+        }
+        if (setup.getUserGroups() != null) {
+            for (UserGroup userGroup : setup.getUserGroups().getUserGroup()) {
+                plan.add(companyId, "user-groups", SetupLedger.entityKey("user-group", userGroup.getName()),
+                        existence(UserGroupLocalServiceUtil.fetchUserGroup(companyId, userGroup.getName()) != null));
+            }
+        }
+        if (setup.getSites() != null) {
+            planSites(setup.getSites().getSite(), companyId, plan);
+        }
+    }
+
+    private static void planDeletes(final ObjectsToBeDeleted otbd, final long companyId, final SetupPlan plan) {
+        boolean excludeListed = EXCLUDE_LISTED.equals(otbd.getDeleteMethod());
+        if (otbd.getRoles() != null) {
+            if (excludeListed) {
+                plan.add(companyId, "delete", SetupLedger.entityKey("role", "*"), Action.DELETE);
+            } else {
+                for (Role role : otbd.getRoles().getRole()) {
+                    plan.add(companyId, "delete", SetupLedger.entityKey("role", role.getName()),
+                            deletion(RoleLocalServiceUtil.fetchRole(companyId, role.getName()) != null));
+                }
+            }
+        }
+        if (otbd.getUsers() != null) {
+            if (excludeListed) {
+                plan.add(companyId, "delete", SetupLedger.entityKey("user", "*"), Action.DELETE);
+            } else {
+                for (User user : otbd.getUsers().getUser()) {
+                    plan.add(companyId, "delete", SetupLedger.entityKey("user", user.getEmailAddress()), deletion(
+                            UserLocalServiceUtil.fetchUserByEmailAddress(companyId, user.getEmailAddress()) != null));
+                }
+            }
+        }
+        if (otbd.getOrganizations() != null) {
+            if (excludeListed) {
+                plan.add(companyId, "delete", SetupLedger.entityKey("organization", "*"), Action.DELETE);
+            } else {
+                for (Organization organization : otbd.getOrganizations().getOrganization()) {
+                    plan.add(companyId, "delete", SetupLedger.entityKey("organization", organization.getName()),
+                            deletion(OrganizationLocalServiceUtil.fetchOrganization(companyId,
+                                    organization.getName()) != null));
+                }
+            }
+        }
+        if (otbd.getCustomFields() != null) {
+            if (excludeListed) {
+                plan.add(companyId, "delete", SetupLedger.entityKey("field", "*"), Action.DELETE);
+            } else {
+                for (CustomFields.Field field : otbd.getCustomFields().getField()) {
+                    plan.add(companyId, "delete", SetupLedger.entityKey("field", field.getClassName(),
+                            field.getName()), deletion(customFieldExists(companyId, field)));
+                }
+            }
+        }
+    }
+
+    private static void planOrganizations(final List<Organization> organizations, final long companyId,
+            final SetupPlan plan) {
+        for (Organization organization : organizations) {
+            plan.add(companyId, "organizations", SetupLedger.entityKey("organization", organization.getName()),
+                    existence(OrganizationLocalServiceUtil.fetchOrganization(companyId,
+                            organization.getName()) != null));
+            planOrganizations(organization.getOrganization(), companyId, plan);
+        }
+    }
+
+    private static void planSites(final List<Site> sites, final long companyId, final SetupPlan plan) {
+        for (Site site : sites) {
+            Group group = findSiteGroup(site, companyId);
+            plan.add(companyId, "sites", SetupLedger.entityKey("site", site.getName()), existence(group != null));
+            if (group != null) {
+                Group stagingGroup = group.getStagingGroup();
+                long groupId = stagingGroup != null ? stagingGroup.getGroupId() : group.getGroupId();
+                planSiteContent(site, companyId, groupId, plan);
+            } else {
+                planNewSiteContent(site, companyId, plan);
+            }
+            planSites(site.getSite(), companyId, plan);
+        }
+    }
+
+    private static Group findSiteGroup(final Site site, final long companyId) {
+        try {
+            if (site.isDefault()) {
+                return GroupLocalServiceUtil.getGroup(companyId, GroupConstants.GUEST);
+            } else if (site.getName() == null) {
+                return GroupLocalServiceUtil.getCompanyGroup(companyId);
+            }
+        } catch (PortalException e) {
+            LOG.error(String.format("Could not find site group of company %1$s", companyId), e);
+            return null;
+        }
+        return GroupLocalServiceUtil.fetchGroup(companyId, site.getName());
+    }
+
+    private static void planSiteContent(final Site site, final long companyId, final long groupId,
+            final SetupPlan plan) {
+        long articleClassNameId = ClassNameLocalServiceUtil.getClassNameId(JournalArticle.class);
+        long ddlClassNameId = ClassNameLocalServiceUtil.getClassNameId(DDLRecordSet.class);
+        long structureClassNameId = ClassNameLocalServiceUtil.getClassNameId(DDMStructure.class);
+        for (Structure structure : site.getArticleStructure()) {
+            planStructure(structure, companyId, groupId, articleClassNameId, plan);
+        }
+        for (Structure structure : site.getDdlStructure()) {
+            planStructure(structure, companyId, groupId, ddlClassNameId, plan);
+        }
+        for (ArticleTemplate template : site.getArticleTemplate()) {
+            planTemplate(template, companyId, groupId, structureClassNameId, articleClassNameId, plan);
+        }
+        for (Document document : site.getDocument()) {
+            planDocument(document, companyId, groupId, plan);
+        }
+        planPages(site.getPublicPages(), false, companyId, groupId, plan);
+        planPages(site.getPrivatePages(), true, companyId, groupId, plan);
+        for (Article article : site.getArticle()) {
+            planArticle(article, companyId, groupId, plan);
+        }
+        for (Adt adt : site.getAdt()) {
+            planAdt(adt, companyId, groupId, plan);
+        }
+    }
+
+    private static void planNewSiteContent(final Site site, final long companyId, final SetupPlan plan) {
+        String siteKey = site.getName();
+        for (Structure structure : site.getArticleStructure()) {
+            plan.add(companyId, "structures", SetupLedger.entityKey("structure", siteKey, structure.getKey()),
+                    Action.CREATE);
+        }
+        for (Structure structure : site.getDdlStructure()) {
+            plan.add(companyId, "structures", SetupLedger.entityKey("structure", siteKey, structure.getKey()),
+                    Action.CREATE);
+        }
+        for (ArticleTemplate template : site.getArticleTemplate()) {
+            plan.add(companyId, "templates", SetupLedger.entityKey("template", siteKey, template.getKey()),
+                    Action.CREATE);
+        }
+        for (Document document : site.getDocument()) {
+            plan.add(companyId, "documents", SetupLedger.entityKey("document", siteKey,
+                    document.getDocumentFolderName() + "/" + document.getDocumentFilename()), Action.CREATE);
+        }
+        planNewPages(site.getPublicPages(), siteKey, companyId, plan);
+        planNewPages(site.getPrivatePages(), siteKey, companyId, plan);
+        for (Article article : site.getArticle()) {
+            plan.add(companyId, "articles", SetupLedger.entityKey("article", siteKey, article.getArticleId()),
+                    Action.CREATE);
+        }
+        for (Adt adt : site.getAdt()) {
+            plan.add(companyId, "adts", SetupLedger.entityKey("template", siteKey, adt.getTemplateKey()),
+                    Action.CREATE);
+        }
+    }
+
+    private static void planStructure(final Structure structure, final long companyId, final long groupId,
+            final long classNameId, final SetupPlan plan) {
+        String key = SetupArticles.templateLedgerKey("structure", groupId, classNameId, structure.getKey());
+        boolean exists = DDMStructureLocalServiceUtil.fetchStructure(groupId, classNameId, structure.getKey()) != null;
+        String hash = null;
+        if (exists) {
+            try {
+                hash = SetupLedger.hash(structure, ResourcesUtil.getFileContent(structure.getPath()));
+            } catch (IOException e) {
+                LOG.error(String.format("Error Reading Structure File content for: %1$s", structure.getName()));
+            }
+        }
+        plan.add(companyId, "structures", key, change(exists, key, hash));
+    }
+
+    private static void planTemplate(final ArticleTemplate template, final long companyId, final long groupId,
+            final long classNameId, final long resourceClassNameId, final SetupPlan plan) {
+        String key = SetupArticles.templateLedgerKey("template", groupId, classNameId, template.getKey());
+        boolean exists = DDMTemplateLocalServiceUtil.fetchTemplate(groupId, classNameId, template.getKey()) != null;
+        String hash = null;
+        if (exists) {
+            try {
+                long classPK = 0;
+                if (template.getArticleStructureKey() != null) {
+                    classPK = ResolverUtil.getStructureId(template.getArticleStructureKey(), groupId,
+                            JournalArticle.class, false);
+                }
+                String script = ResourcesUtil.getFileContent(template.getPath());
+                hash = SetupLedger.hash(template, script + StringPool.POUND + classPK);
+            } catch (IOException | PortalException e) {
+                LOG.error(String.format("Could not plan template %1$s", template.getKey()), e);
+            }
+        }
+        plan.add(companyId, "templates", key, change(exists, key, hash));
+    }
+
+    private static void planAdt(final Adt adt, final long companyId, final long groupId, final SetupPlan plan) {
+        long classNameId = PortalUtil.getClassNameId(adt.getClassName());
+        String key = SetupArticles.templateLedgerKey("template", groupId, classNameId, adt.getTemplateKey());
+        boolean exists = DDMTemplateLocalServiceUtil.fetchTemplate(groupId, classNameId, adt.getTemplateKey()) != null;
+        String hash = null;
+        if (exists) {
+            try {
+                hash = SetupLedger.hash(adt, ResourcesUtil.getFileContent(adt.getPath()));
+            } catch (IOException e) {
+                LOG.error(String.format("Error Reading ADT File content for: %1$s", adt.getName()));
+            }
+        }
+        plan.add(companyId, "adts", key, change(exists, key, hash));
+    }
+
+    private static void planDocument(final Document document, final long companyId, final long groupId,
+            final SetupPlan plan) {
+        String folderPath = document.getDocumentFolderName();
+        String key = SetupDocuments.documentLedgerKey(groupId, folderPath, document.getDocumentFilename());
+        boolean exists = DocumentUtil.findDocument(document.getDocumentFilename(), folderPath, groupId,
+                groupId) != null;
+        String hash = null;
+        if (exists) {
+            try {
+                hash = SetupLedger.hash(document, ResourcesUtil.getFileBytes(document.getFileSystemName()));
+            } catch (IOException e) {
+                LOG.error(String.format("Can not read file: %1$s", document.getFileSystemName()));
+            }
+        }
+        plan.add(companyId, "documents", key, change(exists, key, hash));
+    }
+
+    private static void planArticle(final Article article, final long companyId, final long groupId,
+            final SetupPlan plan) {
+        if (article.getArticleId().isEmpty()) {
+            // articles with generated id are added on every run
+            plan.add(companyId, "articles", SetupLedger.entityKey("article", groupId, article.getTitle()),
+                    Action.CREATE);
+            return;
+        }
+        String key = SetupArticles.articleLedgerKey(article, groupId);
+        boolean exists = JournalArticleLocalServiceUtil.fetchLatestArticle(groupId, article.getArticleId(),
+                WorkflowConstants.STATUS_APPROVED) != null;
+        String hash = null;
+        if (exists) {
+            long folderId = 0L;
+            if (!Validator.isBlank(article.getArticleFolderPath())) {
+                JournalFolder folder = WebFolderUtil.findWebFolder(companyId, groupId,
+                        SetupConfigurationThreadLocal.getRunAsUserId(), article.getArticleFolderPath(), "", false);
+                folderId = folder != null ? folder.getFolderId() : 0L;
+            }
+            hash = SetupArticles.articleLedgerHash(article,
+                    SetupArticles.readArticleContent(article, groupId, companyId), folderId);
+        }
+        plan.add(companyId, "articles", key, change(exists, key, hash));
+    }
+
+    private static void planPages(final Pages pages, final boolean privatePages, final long companyId,
+            final long groupId, final SetupPlan plan) {
+        if (pages != null) {
+            planPages(pages.getPage(), pages.getDefaultLayout(), pages.getDefaultLayoutsThemeId(), privatePages,
+                    companyId, groupId, plan);
+        }
+    }
+
+    private static void planPages(final List<Page> pages, String defaultLayout, String defaultLayoutThemeId,
+            final boolean privatePages, final long companyId, final long groupId, final SetupPlan plan) {
+        for (Page page : pages) {
+            // the default layout is passed on as by SetupPages, it is part of the hash of the page
+            if (page.getLayout() != null) {
+                defaultLayout = page.getLayout();
+                defaultLayoutThemeId = page.getLayoutThemeId();
+            }
+            String key = SetupPages.pageLedgerKey(groupId, privatePages, page.getFriendlyUrl());
+            boolean exists = LayoutLocalServiceUtil.fetchLayoutByFriendlyURL(groupId, privatePages,
+                    page.getFriendlyUrl()) != null;
+            String hash = exists
+                    ? SetupPages.pageLedgerHash(page, defaultLayout, defaultLayoutThemeId, companyId, groupId) : null;
+            plan.add(companyId, "pages", key, change(exists, key, hash));
+            planPages(page.getPage(), defaultLayout, defaultLayoutThemeId, privatePages, companyId, groupId, plan);
+        }
+    }
+
+    private static void planNewPages(final Pages pages, final String siteKey, final long companyId,
+            final SetupPlan plan) {
+        if (pages != null) {
+            planNewPages(pages.getPage(), siteKey, companyId, plan);
+        }
+    }
+
+    private static void planNewPages(final List<Page> pages, final String siteKey, final long companyId,
+            final SetupPlan plan) {
+        for (Page page : pages) {
+            plan.add(companyId, "pages", SetupLedger.entityKey("page", siteKey, page.getFriendlyUrl()), Action.CREATE);
+            planNewPages(page.getPage(), siteKey, companyId, plan);
+        }
+    }
+
+    private static boolean customFieldExists(final long companyId, final CustomFields.Field field) {
+        return ExpandoColumnLocalServiceUtil.getColumn(companyId, field.getClassName(),
+                ExpandoTableConstants.DEFAULT_TABLE_NAME, field.getName()) != null;
+    }
+
+    private static Action existence(final boolean exists) {
+        return exists ? Action.UPDATE : Action.CREATE;
+    }
+
+    private static Action deletion(final boolean exists) {
+        return exists ? Action.DELETE : Action.NO_OP;
+    }
+
+    private static Action change(final boolean exists, final String key, final String hash) {
+        if (!exists) {
+            return Action.CREATE;
+        }
+        return hash != null && SetupLedger.isUnchanged(key, hash) ? Action.NO_OP : Action.UPDATE;
+    }
+}
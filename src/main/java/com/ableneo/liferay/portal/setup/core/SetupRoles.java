@@ -31,6 +31,7 @@ import java.util.*;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
 import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.DefinePermission;
 import com.ableneo.liferay.portal.setup.domain.DefinePermissions;
 import com.ableneo.liferay.portal.setup.domain.PermissionAction;
@@ -60,20 +61,21 @@ public final class SetupRoles {
     }
 
     public static void setupRoles(final List<com.ableneo.liferay.portal.setup.domain.Role> roles) {
+        TransactionChunks.forEach(roles, com.ableneo.liferay.portal.setup.domain.Role::getName, SetupRoles::setupRole);
+    }
 
-        for (com.ableneo.liferay.portal.setup.domain.Role role : roles) {
-            try {
-                long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-                RoleLocalServiceUtil.getRole(companyId, role.getName());
-                LOG.info(String.format("Setup: Role %1$s already exist, not creating...", role.getName()));
-            } catch (NoSuchRoleException | ObjectNotFoundException e) {
-                addRole(role);
+    private static void setupRole(final com.ableneo.liferay.portal.setup.domain.Role role) {
+        try {
+            long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+            RoleLocalServiceUtil.getRole(companyId, role.getName());
+            LOG.info(String.format("Setup: Role %1$s already exist, not creating...", role.getName()));
+        } catch (NoSuchRoleException | ObjectNotFoundException e) {
+            addRole(role);
 
-            } catch (SystemException | PortalException e) {
-                LOG.error("error while setting up roles", e);
-            }
-            addRolePermissions(role);
+        } catch (SystemException | PortalException e) {
+            LOG.error("error while setting up roles", e);
         }
+        addRolePermissions(role);
     }
 
     private static void addRole(final com.ableneo.liferay.portal.setup.domain.Role role) {
@@ -27,14 +27,30 @@ package com.ableneo.liferay.portal.setup.core;
  * #L%
  */
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupContext;
+import com.ableneo.liferay.portal.setup.SetupYieldedException;
 import com.ableneo.liferay.portal.setup.core.util.CustomFieldSettingUtil;
 import com.ableneo.liferay.portal.setup.core.util.PortletConstants;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.SetupCheckpoints;
+import com.ableneo.liferay.portal.setup.core.util.SetupExecutors;
+import com.ableneo.liferay.portal.setup.core.util.SetupThrottle;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.core.util.TranslationMapUtil;
 import com.ableneo.liferay.portal.setup.domain.*;
 import com.liferay.exportimport.kernel.service.StagingLocalServiceUtil;
@@ -55,23 +71,156 @@ import com.liferay.portal.kernel.service.*;
 public class SetupSites {
 
     private static final Log LOG = LogFactoryUtil.getLog(SetupSites.class);
-
     private SetupSites() {
 
     }
 
     public static void setupSites(final List<com.ableneo.liferay.portal.setup.domain.Site> siteList,
             final Group parentGroup) throws PortalException {
+        setupSites(SetupContext.current(), siteList, parentGroup);
+    }
 
-        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+    /**
+     * @param context company and user the sites are set up in and as
+     * @param siteList configured sites
+     * @param parentGroup group the sites are children of, null for top level sites
+     */
+    public static void setupSites(final SetupContext context,
+            final List<com.ableneo.liferay.portal.setup.domain.Site> siteList, final Group parentGroup)
+            throws PortalException {
         for (com.ableneo.liferay.portal.setup.domain.Site site : siteList) {
-            Group liferayGroup = setupSite(parentGroup, companyId, site);
+            Group liferayGroup = throttledSetupSite(context, parentGroup, site);
             List<com.ableneo.liferay.portal.setup.domain.Site> sites = site.getSite();
-            setupSites(sites, liferayGroup);
+            setupSites(context, sites, liferayGroup);
+        }
+    }
+
+    /**
+     * Sets the sites up on up to <code>parallelism</code> threads. A site is set up once its parent and all sites its
+     * content refers to are done, each site in its own transaction. Sites with circular references are set up one
+     * after another at the end.
+     *
+     * @param siteList configured top level sites
+     * @param parallelism maximal number of sites set up at the same time, 1 sets the sites up one after another
+     * @throws PortalException the first failure of a site setup, sites not started yet are skipped then
+     */
+    public static void setupSites(final List<com.ableneo.liferay.portal.setup.domain.Site> siteList,
+            final int parallelism) throws PortalException {
+        setupSites(SetupContext.current(), siteList, parallelism);
+    }
+
+    /**
+     * @param context company and user the sites are set up in and as, handed over to the worker threads
+     * @param siteList configured top level sites
+     * @param parallelism maximal number of sites set up at the same time, 1 sets the sites up one after another
+     * @throws PortalException the first failure of a site setup, sites not started yet are skipped then
+     * @see #setupSites(List, int)
+     */
+    public static void setupSites(final SetupContext context,
+            final List<com.ableneo.liferay.portal.setup.domain.Site> siteList, final int parallelism)
+            throws PortalException {
+        if (parallelism <= 1) {
+            setupSites(context, siteList, null);
+            return;
+        }
+        SiteDependencyGraph graph = SiteDependencyGraph.build(siteList);
+
+        Map<SiteDependencyGraph.Node, Integer> pendingDependencies = new HashMap<>();
+        Deque<SiteDependencyGraph.Node> ready = new ArrayDeque<>();
+        for (SiteDependencyGraph.Node node : graph.getNodes()) {
+            pendingDependencies.put(node, node.getDependencies().size());
+            if (node.getDependencies().isEmpty()) {
+                ready.add(node);
+            }
+        }
+
+        Set<SiteDependencyGraph.Node> finished = new HashSet<>();
+        Throwable failure = null;
+        ExecutorService executor = SetupExecutors.newExecutor("sites", parallelism);
+        CompletionService<SiteDependencyGraph.Node> completion = new ExecutorCompletionService<>(executor);
+        try {
+            int running = 0;
+            while (true) {
+                while (failure == null && !ready.isEmpty()) {
+                    SiteDependencyGraph.Node node = ready.poll();
+                    completion.submit(SetupConfigurationThreadLocal
+                            .inheritRunSettings(() -> context.call(() -> setupSiteInTransaction(context, node))));
+                    running++;
+                }
+                if (running == 0) {
+                    break;
+                }
+                Future<SiteDependencyGraph.Node> done = completion.take();
+                running--;
+                try {
+                    SiteDependencyGraph.Node node = done.get();
+                    finished.add(node);
+                    for (SiteDependencyGraph.Node dependent : node.getDependents()) {
+                        if (pendingDependencies.merge(dependent, -1, Integer::sum) == 0) {
+                            ready.add(dependent);
+                        }
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PortalException("Parallel setup of sites was interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+
+        for (SiteDependencyGraph.Node node : graph.getNodes()) {
+            if (!finished.contains(node)) {
+                LOG.warn(String.format("Site %1$s has circular references, setting it up after the other sites",
+                        node.getSite().getName()));
+                setupSiteInTransaction(context, node);
+            }
+        }
+    }
+
+    private static SiteDependencyGraph.Node setupSiteInTransaction(final SetupContext context,
+            final SiteDependencyGraph.Node node) throws PortalException {
+        try {
+            node.setGroup(TransactionChunks.inTransaction(
+                    () -> throttledSetupSite(context, node.getParentGroup(), node.getSite())));
+        } catch (Throwable t) {
+            throw rethrow(t);
         }
+        return node;
     }
 
-    private static Group setupSite(Group parentGroup, long companyId, Site site) throws PortalException {
+    /**
+     * @return the failure as a portal exception to be thrown, runtime exceptions and errors are thrown as they are
+     */
+    private static PortalException rethrow(final Throwable t) {
+        if (t instanceof PortalException) {
+            return (PortalException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new PortalException(t);
+    }
+
+    private static Group throttledSetupSite(final SetupContext context, final Group parentGroup, final Site site)
+            throws PortalException {
+        try (SetupThrottle.Write write = SetupThrottle.write()) {
+            return setupSite(context, parentGroup, site);
+        }
+    }
+
+    private static Group setupSite(SetupContext context, Group parentGroup, Site site) throws PortalException {
+        long companyId = context.getCompanyId();
         Group liferayGroup = null;
         long groupId = -1;
         if (site.isDefault()) {
@@ -89,16 +238,24 @@ public class SetupSites {
                 LOG.debug("Site does not exist.", e);
             }
         }
+        if (liferayGroup != null && SetupCheckpoints.isCompleted(SetupCheckpoints.site(site))) {
+            LOG.info(String.format("Site %1$s was completed by the resumed run, skipping", site.getName()));
+            return liferayGroup;
+        }
+        if (SetupThrottle.isBudgetExhausted()) {
+            throw new SetupYieldedException(SetupThrottle.budgetExhaustedMessage("site " + site.getName()));
+        }
         ServiceContext serviceContext = new ServiceContext();
 
         if (liferayGroup == null) {
             LOG.info(String.format("Setup: Group (Site) %1$s does not exist in system, creating...", site.getName()));
 
-            liferayGroup = GroupLocalServiceUtil.addGroup(SetupConfigurationThreadLocal.getRunAsUserId(),
+            liferayGroup = GroupLocalServiceUtil.addGroup(context.getRunAsUserId(),
                     GroupConstants.DEFAULT_PARENT_GROUP_ID, Group.class.getName(), 0, 0,
                     TranslationMapUtil.getLocalizationMap(site.getName()), null, GroupConstants.TYPE_SITE_RESTRICTED,
                     true, GroupConstants.DEFAULT_MEMBERSHIP_RESTRICTION, site.getSiteFriendlyUrl(), true, true,
                     serviceContext);
+            ResolverCache.invalidateInCompany(companyId, ResolverCache.Kind.SITE, site.getName());
             LOG.info(String.format("New site created. Group ID: %1$s", groupId));
         } else {
             LOG.info(String.format("Updating site: %1$s", site.getName()));
@@ -119,16 +276,18 @@ public class SetupSites {
         }
         LOG.info("Setting site content...");
 
-        long userId = SetupConfigurationThreadLocal.getRunAsUserId();
+        long userId = context.getRunAsUserId();
         setStaging(userId, liferayGroup, site.getStaging());
 
+        groupId = liferayGroup.getGroupId();
         // If staging group exists for present Group, add all content to staging group
         Group stagingGroup = liferayGroup.getStagingGroup();
         if (Objects.nonNull(stagingGroup)) {
             groupId = stagingGroup.getGroupId();
         }
 
-        SetupArticles.setupSiteStructuresAndTemplates(site, groupId);
+        SetupContext siteContext = context.withGroupId(groupId);
+        SetupArticles.setupSiteStructuresAndTemplates(siteContext, site);
         LOG.info("Site DDM structures and templates setting finished.");
 
         SetupDocumentFolders.setupDocumentFolders(site, groupId);
@@ -137,7 +296,7 @@ public class SetupSites {
         SetupDocuments.setupSiteDocuments(site, groupId);
         LOG.info("Documents setting finished.");
 
-        SetupPages.setupSitePages(site, groupId);
+        SetupPages.setupSitePages(siteContext, site);
         LOG.info("Site Pages setting finished.");
 
         SetupWebFolders.setupWebFolders(site, groupId);
@@ -146,7 +305,7 @@ public class SetupSites {
         SetupCategorization.setupVocabularies(site.getVocabulary(), groupId);
         LOG.info("Site Categories setting finished.");
 
-        SetupArticles.setupSiteArticles(site.getArticle(), site.getAdt(), site.getDdlRecordset(), groupId);
+        SetupArticles.setupSiteArticles(siteContext, site.getArticle(), site.getAdt(), site.getDdlRecordset());
         LOG.info("Site Articles setting finished.");
 
         setCustomFields(groupId, site.getCustomFieldSetting());
@@ -154,6 +313,7 @@ public class SetupSites {
 
         // Users and Groups should be referenced to live Group
         setMembership(site.getMembership(), companyId, liferayGroup.getGroupId());
+        SetupCheckpoints.complete(SetupCheckpoints.site(site));
         return liferayGroup;
     }
 
@@ -367,6 +527,7 @@ public class SetupSites {
                         com.liferay.portal.kernel.model.Group o =
                                 GroupLocalServiceUtil.getGroup(SetupConfigurationThreadLocal.getRunInGroupId(), name);
                         GroupLocalServiceUtil.deleteGroup(o);
+                        ResolverCache.invalidateInCompany(o.getCompanyId(), ResolverCache.Kind.SITE, name);
                     } catch (Exception e) {
                         LOG.error("Error by deleting Site !", e);
                     }
@@ -384,6 +545,7 @@ public class SetupSites {
     private static void deleteLiferayGroup(Group siteGroup) {
         try {
             GroupLocalServiceUtil.deleteGroup(siteGroup.getGroupId());
+            ResolverCache.invalidateInCompany(siteGroup.getCompanyId(), ResolverCache.Kind.SITE, siteGroup.getName());
             LOG.info(String.format("Deleting Site %1$s", siteGroup.getName()));
         } catch (Exception e) {
             LOG.error("Error by deleting Site !", e);
@@ -32,6 +32,8 @@ import java.util.Objects;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
 import com.ableneo.liferay.portal.setup.core.util.CustomFieldSettingUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.CustomFieldSetting;
 import com.ableneo.liferay.portal.setup.domain.Role;
 import com.ableneo.liferay.portal.setup.domain.UserAsMember;
@@ -52,42 +54,43 @@ public class SetupUserGroups {
     }
 
     public static void setupUserGroups(final List<UserGroup> userGroups) {
-        final long userId = SetupConfigurationThreadLocal.getRunAsUserId();
+        TransactionChunks.forEach(userGroups, UserGroup::getName, SetupUserGroups::setupUserGroup);
+    }
 
-        for (UserGroup userGroup : userGroups) {
-            com.liferay.portal.kernel.model.UserGroup liferayUserGroup = null;
-            long liferayUserGroupId = -1;
-            long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+    private static void setupUserGroup(final UserGroup userGroup) {
+        final long userId = SetupConfigurationThreadLocal.getRunAsUserId();
+        com.liferay.portal.kernel.model.UserGroup liferayUserGroup = null;
+        long liferayUserGroupId = -1;
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        try {
+            liferayUserGroup = UserGroupLocalServiceUtil.getUserGroup(companyId, userGroup.getName());
+            liferayUserGroupId = liferayUserGroup.getUserGroupId();
+        } catch (PortalException e) {
+            LOG.info(String.format("UserGroup does not exists, creating new one for name: %1$s", userGroup.getName()));
+        }
+        if (liferayUserGroupId == -1) {
             try {
-                liferayUserGroup = UserGroupLocalServiceUtil.getUserGroup(companyId, userGroup.getName());
-                liferayUserGroupId = liferayUserGroup.getUserGroupId();
+                liferayUserGroup = UserGroupLocalServiceUtil.addUserGroup(userId, companyId, userGroup.getName(),
+                        userGroup.getDescription(), new ServiceContext());
+                ResolverCache.invalidateInCompany(companyId, ResolverCache.Kind.USER_GROUP, userGroup.getName());
             } catch (PortalException e) {
-                LOG.info(String.format("UserGroup does not exists, creating new one for name: %1$s", userGroup.getName()));
-            }
-            if (liferayUserGroupId == -1) {
-                try {
-                    liferayUserGroup = UserGroupLocalServiceUtil.addUserGroup(userId, companyId, userGroup.getName(),
-                            userGroup.getDescription(), new ServiceContext());
-                } catch (PortalException e) {
-                    LOG.error(String.format("Can not create UserGroup with name: %1$s", userGroup.getName()), e);
-                    continue;
-                }
-            }
-
-            if (userGroup.getCustomFieldSetting() != null && !userGroup.getCustomFieldSetting().isEmpty()) {
-                setCustomFields(liferayUserGroup, userGroup.getCustomFieldSetting(), userGroup);
+                LOG.error(String.format("Can not create UserGroup with name: %1$s", userGroup.getName()), e);
+                return;
             }
+        }
 
-            if (!userGroup.getRole().isEmpty() && liferayUserGroup != null) {
-                LOG.info("Setting Roles for UserGroup.");
-                addRolesToUserGroup(userGroup, liferayUserGroup);
-            }
+        if (userGroup.getCustomFieldSetting() != null && !userGroup.getCustomFieldSetting().isEmpty()) {
+            setCustomFields(liferayUserGroup, userGroup.getCustomFieldSetting(), userGroup);
+        }
 
-            if (!userGroup.getUserAsMember().isEmpty() && liferayUserGroup != null) {
-                LOG.info("Setting User Members.");
-                addUsersToUserGroup(userGroup.getUserAsMember(), liferayUserGroup);
-            }
+        if (!userGroup.getRole().isEmpty() && liferayUserGroup != null) {
+            LOG.info("Setting Roles for UserGroup.");
+            addRolesToUserGroup(userGroup, liferayUserGroup);
+        }
 
+        if (!userGroup.getUserAsMember().isEmpty() && liferayUserGroup != null) {
+            LOG.info("Setting User Members.");
+            addUsersToUserGroup(userGroup.getUserAsMember(), liferayUserGroup);
         }
     }
 
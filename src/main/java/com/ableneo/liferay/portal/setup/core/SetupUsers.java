@@ -30,7 +30,9 @@ package com.ableneo.liferay.portal.setup.core;
 import java.util.*;
 
 import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupContext;
 import com.ableneo.liferay.portal.setup.core.util.CustomFieldSettingUtil;
+import com.ableneo.liferay.portal.setup.core.util.TransactionChunks;
 import com.ableneo.liferay.portal.setup.domain.CustomFieldSetting;
 import com.liferay.petra.string.StringPool;
 import com.liferay.portal.kernel.exception.NoSuchUserException;
@@ -53,30 +55,41 @@ public final class SetupUsers {
     private SetupUsers() {}
 
     public static void setupUsers(final List<com.ableneo.liferay.portal.setup.domain.User> users) {
+        setupUsers(SetupContext.current(), users);
+    }
+
+    /**
+     * @param context company and group the users are set up in
+     * @param users configured users
+     */
+    public static void setupUsers(final SetupContext context,
+            final List<com.ableneo.liferay.portal.setup.domain.User> users) {
+        TransactionChunks.forEach(users, com.ableneo.liferay.portal.setup.domain.User::getEmailAddress,
+                user -> setupUser(context, user));
+    }
 
-        for (com.ableneo.liferay.portal.setup.domain.User user : users) {
-            User liferayUser = null;
-            long runInCompanyId = SetupConfigurationThreadLocal.getRunInCompanyId();
-            try {
-                liferayUser = UserLocalServiceUtil.getUserByEmailAddress(runInCompanyId, user.getEmailAddress());
-                LOG.info(String.format("User %1$s already exist, not creating...", liferayUser.getEmailAddress()));
+    private static void setupUser(final SetupContext context, final com.ableneo.liferay.portal.setup.domain.User user) {
+        User liferayUser = null;
+        long runInCompanyId = context.getCompanyId();
+        try {
+            liferayUser = UserLocalServiceUtil.getUserByEmailAddress(runInCompanyId, user.getEmailAddress());
+            LOG.info(String.format("User %1$s already exist, not creating...", liferayUser.getEmailAddress()));
 
-            } catch (NoSuchUserException e) {
-                liferayUser = addUser(user);
+        } catch (NoSuchUserException e) {
+            liferayUser = addUser(user, runInCompanyId);
 
-            } catch (Exception e) {
-                LOG.error(String.format("Error by retrieving user %1$s", user.getEmailAddress()));
-            }
+        } catch (Exception e) {
+            LOG.error(String.format("Error by retrieving user %1$s", user.getEmailAddress()));
+        }
 
-            if (null != liferayUser) {
-                addUserToOrganizations(user, liferayUser);
-                addRolesToUser(user, liferayUser);
-                if (user.getCustomFieldSetting() != null && !user.getCustomFieldSetting().isEmpty()) {
-                    setCustomFields(SetupConfigurationThreadLocal.getRunInGroupId(), runInCompanyId, liferayUser, user);
-                }
-            } else {
-                LOG.warn(String.format("Could not create user with screenName '%1$s'", user.getScreenName()));
+        if (null != liferayUser) {
+            addUserToOrganizations(user, liferayUser, runInCompanyId);
+            addRolesToUser(user, liferayUser, runInCompanyId);
+            if (user.getCustomFieldSetting() != null && !user.getCustomFieldSetting().isEmpty()) {
+                setCustomFields(context.getGroupId(), runInCompanyId, liferayUser, user);
             }
+        } else {
+            LOG.warn(String.format("Could not create user with screenName '%1$s'", user.getScreenName()));
         }
     }
 
@@ -91,7 +104,7 @@ public final class SetupUsers {
         }
     }
 
-    private static User addUser(final com.ableneo.liferay.portal.setup.domain.User setupUser) {
+    private static User addUser(final com.ableneo.liferay.portal.setup.domain.User setupUser, final long companyId) {
 
         LOG.info(String.format("User %1$s not exists, creating...", setupUser.getEmailAddress()));
 
@@ -121,7 +134,7 @@ public final class SetupUsers {
         ServiceContext serviceContext = new ServiceContext();
 
         try {
-            liferayUser = UserLocalServiceUtil.addUser(creatorUserId, SetupConfigurationThreadLocal.getRunInCompanyId(),
+            liferayUser = UserLocalServiceUtil.addUser(creatorUserId, companyId,
                     autoPassword, password1, password2, autoScreenName, setupUser.getScreenName(), emailAddress,
                     facebookId, openId, locale, setupUser.getFirstName(), middleName, setupUser.getLastName(), prefixId,
                     suffixId, male, birthdayMonth, birthdayDay, birthdayYear, jobTitle, groupIds, organizationIds,
@@ -136,12 +149,12 @@ public final class SetupUsers {
     }
 
     private static void addUserToOrganizations(final com.ableneo.liferay.portal.setup.domain.User setupUser,
-            final User liferayUser) {
+            final User liferayUser, final long companyId) {
 
         try {
             for (com.ableneo.liferay.portal.setup.domain.Organization organization : setupUser.getOrganization()) {
-                Organization liferayOrganization = OrganizationLocalServiceUtil
-                        .getOrganization(SetupConfigurationThreadLocal.getRunInCompanyId(), organization.getName());
+                Organization liferayOrganization =
+                        OrganizationLocalServiceUtil.getOrganization(companyId, organization.getName());
                 UserLocalServiceUtil.addOrganizationUsers(liferayOrganization.getOrganizationId(),
                         new long[] {liferayUser.getUserId()});
                 LOG.info(String.format("Adding user %1$s to Organization %2$s", setupUser.getEmailAddress(),
@@ -154,12 +167,11 @@ public final class SetupUsers {
     }
 
     private static void addRolesToUser(final com.ableneo.liferay.portal.setup.domain.User setupUser,
-            final User liferayUser) {
+            final User liferayUser, final long runInCompanyId) {
 
         try {
             for (com.ableneo.liferay.portal.setup.domain.Role userRole : setupUser.getRole()) {
 
-                long runInCompanyId = SetupConfigurationThreadLocal.getRunInCompanyId();
                 Role role = RoleLocalServiceUtil.getRole(runInCompanyId, userRole.getName());
                 long[] roleIds = {role.getRoleId()};
                 String roleType = userRole.getType();
@@ -0,0 +1,274 @@
+package com.ableneo.liferay.portal.setup.core;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ableneo.liferay.portal.setup.core.util.PlaceholderTemplate;
+import com.ableneo.liferay.portal.setup.core.util.PlaceholderType;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.core.util.ResolverUtil;
+import com.ableneo.liferay.portal.setup.core.util.ResourcesUtil;
+import com.ableneo.liferay.portal.setup.domain.Article;
+import com.ableneo.liferay.portal.setup.domain.CustomFieldSetting;
+import com.ableneo.liferay.portal.setup.domain.Page;
+import com.ableneo.liferay.portal.setup.domain.PagePortlet;
+import com.ableneo.liferay.portal.setup.domain.Pages;
+import com.ableneo.liferay.portal.setup.domain.PortletPreference;
+import com.ableneo.liferay.portal.setup.domain.RelatedAsset;
+import com.ableneo.liferay.portal.setup.domain.Site;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Group;
+
+/**
+ * Dependencies between configured sites. A site depends on its parent site and on every site its content refers to
+ * by a placeholder, e.g. <code>{{$ARTICLE-ID-BY-ARTICLE-ID=::Other site::article$}}</code>. Sites without a path
+ * of dependencies between them can be set up at the same time. The graph covers the sites it is built of only, e.g.
+ * one batch of a streamed configuration, see {@link com.ableneo.liferay.portal.setup.SetupStream}.
+ */
+final class SiteDependencyGraph {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SiteDependencyGraph.class);
+    private static final String GLOBAL_SITE = "global";
+    private static final String DEFAULT_SITE = "default";
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    private SiteDependencyGraph() {}
+
+    /**
+     * @param sites configured top level sites, their sub sites are included
+     * @return graph of all the sites
+     */
+    static SiteDependencyGraph build(final List<Site> sites) {
+        SiteDependencyGraph graph = new SiteDependencyGraph();
+        graph.addNodes(sites, null);
+        Map<String, Node> byName = new HashMap<>();
+        for (Node node : graph.nodes) {
+            byName.putIfAbsent(siteKey(node.site), node);
+        }
+        for (Node node : graph.nodes) {
+            if (node.parent != null) {
+                node.addDependency(node.parent);
+            }
+            for (String siteName : referredSiteNames(node.site)) {
+                Node referred = byName.get(normalizeSiteName(siteName));
+                if (referred != null && referred != node) {
+                    node.addDependency(referred);
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * @return all sites, parents before their sub sites in the order of configuration
+     */
+    List<Node> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    private void addNodes(final List<Site> sites, final Node parent) {
+        for (Site site : sites) {
+            Node node = new Node(site, parent);
+            nodes.add(node);
+            addNodes(site.getSite(), node);
+        }
+    }
+
+    private static String siteKey(final Site site) {
+        if (site.isDefault()) {
+            return DEFAULT_SITE;
+        }
+        return site.getName() == null ? GLOBAL_SITE : normalizeSiteName(site.getName());
+    }
+
+    /**
+     * Same aliases as {@link ResolverUtil#getSiteGroupIdByName(String, long, String)} understands.
+     */
+    private static String normalizeSiteName(final String siteName) {
+        if (siteName.equalsIgnoreCase(GLOBAL_SITE)) {
+            return GLOBAL_SITE;
+        }
+        if (siteName.equalsIgnoreCase(DEFAULT_SITE) || siteName.isEmpty()) {
+            return DEFAULT_SITE;
+        }
+        return siteName;
+    }
+
+    private static Set<String> referredSiteNames(final Site site) {
+        List<String> values = new ArrayList<>();
+        for (CustomFieldSetting setting : site.getCustomFieldSetting()) {
+            values.add(setting.getValue());
+        }
+        collectPreferenceValues(site.getPublicPages(), values);
+        collectPreferenceValues(site.getPrivatePages(), values);
+        for (Article article : site.getArticle()) {
+            collectArticlePlaceholders(article, values);
+            article.getCategory().forEach(category -> values.add(category.getId()));
+            if (article.getRelatedAssets() != null) {
+                for (RelatedAsset relatedAsset : article.getRelatedAssets().getRelatedAsset()) {
+                    values.add(relatedAsset.getAssetClassPrimaryKey());
+                }
+            }
+        }
+
+        Set<String> siteNames = new LinkedHashSet<>();
+        for (String value : values) {
+            if (value == null || value.indexOf(ResolverUtil.OPENING_TAG) < 0) {
+                continue;
+            }
+            PlaceholderTemplate.of(value, site.getName()).forEachPlaceholder((type, argument) -> {
+                if (type == PlaceholderType.SITE_ID) {
+                    siteNames.add(argument);
+                } else if (argument.startsWith(ResolverUtil.VALUE_SPLIT)) {
+                    int end = argument.indexOf(ResolverUtil.VALUE_SPLIT, ResolverUtil.VALUE_SPLIT.length());
+                    if (end > -1) {
+                        siteNames.add(argument.substring(ResolverUtil.VALUE_SPLIT.length(), end));
+                    }
+                }
+            });
+        }
+        return siteNames;
+    }
+
+    /**
+     * Streams the article content and collects its placeholders. Content of a small article is kept for the run, so
+     * the setup of the article does not read the file again, see {@link SetupArticles#readArticleContent}.
+     */
+    private static void collectArticlePlaceholders(final Article article, final List<String> values) {
+        try (ContentReader reader = new ContentReader(ResourcesUtil.getFileReader(article.getPath()))) {
+            ResolverUtil.forEachPlaceholder(reader, values::add);
+            if (reader.content != null) {
+                ResolverCache.putDerived(ResolverCache.Kind.ARTICLE_CONTENT, article.getPath(),
+                        reader.content.toString());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug(String.format("Could not read article %1$s to find referred sites", article.getPath()), e);
+        }
+    }
+
+    private static void collectPreferenceValues(final Pages pages, final List<String> values) {
+        if (pages != null) {
+            collectPreferenceValues(pages.getPage(), values);
+        }
+    }
+
+    private static void collectPreferenceValues(final List<Page> pages, final List<String> values) {
+        for (Page page : pages) {
+            for (PagePortlet portlet : page.getPagePortlet()) {
+                for (PortletPreference preference : portlet.getPortletPreference()) {
+                    values.add(preference.getValue());
+                }
+            }
+            collectPreferenceValues(page.getPage(), values);
+        }
+    }
+
+    /**
+     * Keeps the content read so far unless it grows above {@link SetupArticles#MAX_SHARED_CONTENT_LENGTH}.
+     */
+    private static final class ContentReader extends FilterReader {
+        private StringBuilder content = new StringBuilder();
+
+        private ContentReader(final Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(final char[] buffer, final int offset, final int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0 && content != null) {
+                if (content.length() + read > SetupArticles.MAX_SHARED_CONTENT_LENGTH) {
+                    content = null;
+                } else {
+                    content.append(buffer, offset, read);
+                }
+            }
+            return read;
+        }
+    }
+
+    /**
+     * Site of the graph, holds the group of the site once it is set up.
+     */
+    static final class Node {
+        private final Site site;
+        private final Node parent;
+        private final Set<Node> dependencies = new LinkedHashSet<>();
+        private final Set<Node> dependents = new LinkedHashSet<>();
+        private volatile Group group;
+
+        private Node(final Site site, final Node parent) {
+            this.site = site;
+            this.parent = parent;
+        }
+
+        private void addDependency(final Node node) {
+            dependencies.add(node);
+            node.dependents.add(this);
+        }
+
+        Site getSite() {
+            return site;
+        }
+
+        /**
+         * @return group of the parent site, null for a top level site or if the parent couldn't be set up
+         */
+        Group getParentGroup() {
+            return parent == null ? null : parent.group;
+        }
+
+        Set<Node> getDependencies() {
+            return Collections.unmodifiableSet(dependencies);
+        }
+
+        Set<Node> getDependents() {
+            return Collections.unmodifiableSet(dependents);
+        }
+
+        Group getGroup() {
+            return group;
+        }
+
+        void setGroup(final Group group) {
+            this.group = group;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache.Kind;
+import com.liferay.asset.kernel.model.AssetCategory;
+import com.liferay.asset.kernel.service.AssetCategoryLocalServiceUtil;
+import com.liferay.portal.kernel.dao.orm.QueryUtil;
+
+/**
+ * Index of category paths of a vocabulary, e.g. <code>A/B/C</code>, to category ids. The index is built from all
+ * categories of the vocabulary fetched with a single query and lives in the {@link ResolverCache} of the run.
+ * <p/>
+ * A path is resolved the way the category placeholder always resolved it: the first segment is the first category of
+ * the vocabulary with the name, nested or not, every next segment is the child category with the name. When the
+ * cache is not active, the path is looked up with a query per segment instead.
+ */
+public final class CategoryPathIndex {
+
+    public static final String PATH_SEPARATOR = "/";
+
+    private CategoryPathIndex() {}
+
+    /**
+     * @param groupId group of the vocabulary
+     * @param vocabularyId the vocabulary
+     * @param path names of the categories separated by {@link #PATH_SEPARATOR}
+     * @return id of the category or null if there is no category with the path
+     */
+    public static Long getCategoryId(final long groupId, final long vocabularyId, final String path) {
+        if (!ResolverCache.isActive()) {
+            // without the cache of the run the index would be built for every lookup
+            return lookup(vocabularyId, path);
+        }
+        return getIndex(groupId, vocabularyId).getCategoryId(path);
+    }
+
+    /**
+     * Drops the indexes of the vocabularies of the group, they are loaded again on the next lookup. Called once the
+     * categories of the group are set up.
+     *
+     * @param groupId group of the vocabularies
+     */
+    public static void invalidate(final long groupId) {
+        ResolverCache.invalidateInGroup(groupId, Kind.CATEGORY_PATH_INDEX);
+    }
+
+    private static Long lookup(final long vocabularyId, final String path) {
+        String[] names = path.split(PATH_SEPARATOR);
+        Long categoryId = first(AssetCategoryLocalServiceUtil.getVocabularyCategories(vocabularyId, QueryUtil.ALL_POS,
+                QueryUtil.ALL_POS, null), names[0]);
+        for (int i = 1; i < names.length && categoryId != null; i++) {
+            categoryId = first(AssetCategoryLocalServiceUtil.getChildCategories(categoryId), names[i]);
+        }
+        return categoryId;
+    }
+
+    private static Long first(final List<AssetCategory> categories, final String name) {
+        return categories.stream().filter(category -> category.getName().equals(name)).findFirst()
+                .map(AssetCategory::getCategoryId).orElse(null);
+    }
+
+    private static Index getIndex(final long groupId, final long vocabularyId) {
+        return ResolverCache.getInGroup(groupId, Kind.CATEGORY_PATH_INDEX, String.valueOf(vocabularyId),
+                () -> load(vocabularyId));
+    }
+
+    private static Index load(final long vocabularyId) {
+        // the same query and order as AssetVocabulary.getCategories()
+        List<AssetCategory> categories = AssetCategoryLocalServiceUtil.getVocabularyCategories(vocabularyId,
+                QueryUtil.ALL_POS, QueryUtil.ALL_POS, null);
+        Index index = new Index();
+        for (AssetCategory category : categories) {
+            index.firstByName.putIfAbsent(category.getName(), category.getCategoryId());
+            // names of sibling categories are unique
+            index.childByName.put(Index.childKey(category.getParentCategoryId(), category.getName()),
+                    category.getCategoryId());
+        }
+        return index;
+    }
+
+    /**
+     * Categories of a vocabulary by name and by parent and name, not modified once loaded.
+     */
+    private static final class Index {
+        private final Map<String, Long> firstByName = new HashMap<>();
+        private final Map<String, Long> childByName = new HashMap<>();
+
+        private Long getCategoryId(final String path) {
+            String[] names = path.split(PATH_SEPARATOR);
+            Long categoryId = firstByName.get(names[0]);
+            for (int i = 1; i < names.length && categoryId != null; i++) {
+                categoryId = childByName.get(childKey(categoryId, names[i]));
+            }
+            return categoryId;
+        }
+
+        private static String childKey(final long parentCategoryId, final String name) {
+            return parentCategoryId + PATH_SEPARATOR + name;
+        }
+    }
+}
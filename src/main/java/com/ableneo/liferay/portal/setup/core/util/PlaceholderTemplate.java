@@ -0,0 +1,192 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Value with placeholders parsed once into literal parts and typed placeholder nodes. A template is immutable and
+ * can be resolved any number of times against different sites and companies without scanning the text again.
+ * <p/>
+ * Compiled templates are cached for the run in the {@link ResolverCache}, so the same preference applied to many sites
+ * is parsed only once. The cache is keyed by the hash of the value, values longer than
+ * {@value #MAX_CACHED_LENGTH} characters, e.g. whole articles, are not cached.
+ */
+public final class PlaceholderTemplate {
+
+    private static final Log LOG = LogFactoryUtil.getLog(PlaceholderTemplate.class);
+    private static final int MAX_CACHED_LENGTH = 16 * 1024;
+
+    private final String source;
+    private final List<Part> parts;
+    private final boolean placeholders;
+
+    private PlaceholderTemplate(final String source, final List<Part> parts) {
+        this.source = source;
+        this.parts = parts;
+        this.placeholders = parts.stream().anyMatch(part -> part.type != null);
+    }
+
+    /**
+     * Returns the compiled template for the value, compiling it on first use in the run.
+     *
+     * @param value the value with placeholders
+     * @param locationHint where the value is from, used for logging syntax problems
+     * @return compiled template
+     */
+    public static PlaceholderTemplate of(final String value, final String locationHint) {
+        if (value.length() > MAX_CACHED_LENGTH || !ResolverCache.isActive()) {
+            return compile(value, locationHint);
+        }
+        String key = Integer.toString(value.hashCode());
+        PlaceholderTemplate template = ResolverCache.getDerived(ResolverCache.Kind.PLACEHOLDER_TEMPLATE, key);
+        if (template == null || !template.source.equals(value)) {
+            // on a hash collision the later value takes the entry over
+            template = compile(value, locationHint);
+            ResolverCache.putDerived(ResolverCache.Kind.PLACEHOLDER_TEMPLATE, key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Parses the value without caching the result. Unknown placeholders are kept as literal text.
+     *
+     * @param value the value with placeholders
+     * @param locationHint where the value is from, used for logging syntax problems
+     * @return compiled template
+     */
+    public static PlaceholderTemplate compile(final String value, final String locationHint) {
+        List<Part> parts = new ArrayList<>();
+        int literalStart = 0;
+        int pos = value.indexOf(ResolverUtil.OPENING_TAG);
+        while (pos > -1) {
+            int argumentStart = pos + ResolverUtil.OPENING_TAG.length();
+            int closingPos = value.indexOf(ResolverUtil.CLOSING_TAG, argumentStart);
+            if (closingPos < 0) {
+                LOG.warn(String.format(ResolverUtil.COULD_NOT_RESOLVE_PLACEHOLDER, locationHint,
+                        ResolverUtil.CLOSING_TAG));
+                break;
+            }
+            int separatorPos = value.indexOf(ResolverUtil.ARGUMENT_SEPARATOR, argumentStart);
+            PlaceholderType type = null;
+            if (separatorPos > -1 && separatorPos < closingPos) {
+                type = PlaceholderType.forName(value.substring(argumentStart, separatorPos));
+            }
+            if (type == null) {
+                // unknown placeholder stays as it is, a nested one may still follow
+                pos = value.indexOf(ResolverUtil.OPENING_TAG, argumentStart);
+                continue;
+            }
+            if (literalStart < pos) {
+                parts.add(new Part(value.substring(literalStart, pos), null, null));
+            }
+            int end = closingPos + ResolverUtil.CLOSING_TAG.length();
+            parts.add(new Part(value.substring(pos, end), type,
+                    value.substring(separatorPos + ResolverUtil.ARGUMENT_SEPARATOR.length(), closingPos)));
+            literalStart = end;
+            pos = value.indexOf(ResolverUtil.OPENING_TAG, literalStart);
+        }
+        if (literalStart < value.length()) {
+            parts.add(new Part(value.substring(literalStart), null, null));
+        }
+        return new PlaceholderTemplate(value, Collections.unmodifiableList(parts));
+    }
+
+    /**
+     * @return true if the template contains at least one known placeholder
+     */
+    public boolean hasPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * Resolves the placeholders in the scope of the given site and company.
+     *
+     * @param groupId the group id which is used by default for the look up
+     * @param company the company id that is used for the default look up
+     * @param locationHint where the value is from, used for logging
+     * @return value with all resolvable placeholders substituted, unresolvable ones are kept as they are
+     */
+    public String resolve(final long groupId, final long company, final String locationHint) {
+        return resolve((type, argument) -> ResolverUtil.resolvePlaceholder(type, argument, locationHint, groupId,
+                company));
+    }
+
+    String resolve(final BiFunction<PlaceholderType, String, String> resolver) {
+        if (!placeholders) {
+            return source;
+        }
+        StringBuilder result = new StringBuilder(source.length());
+        for (Part part : parts) {
+            if (part.type == null) {
+                result.append(part.text);
+            } else {
+                String replacement = resolver.apply(part.type, part.argument);
+                result.append(replacement == null ? part.text : replacement);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Passes type and argument of every known placeholder to the consumer, in order of occurrence.
+     */
+    public void forEachPlaceholder(final BiConsumer<PlaceholderType, String> consumer) {
+        for (Part part : parts) {
+            if (part.type != null) {
+                consumer.accept(part.type, part.argument);
+            }
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Literal text or a placeholder, the text of a placeholder is its original form used when it can't be resolved.
+     */
+    private static final class Part {
+        private final String text;
+        private final PlaceholderType type;
+        private final String argument;
+
+        private Part(final String text, final PlaceholderType type, final String argument) {
+            this.text = text;
+            this.type = type;
+            this.argument = argument;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Families of placeholders understood by {@link ResolverUtil}. A placeholder has the form
+ * <code>{{$NAME=argument$}}</code>, the enum constant is looked up by <code>NAME</code>. The category placeholder
+ * is not one of them, it is resolved only as a whole value, see
+ * {@link ResolverUtil#lookupAll(long, long, String, String)}.
+ */
+public enum PlaceholderType {
+    SITE_ID("ID_OF_SITE_WITH_NAME"),
+    ART_TEMPLATE_ID("ART-TEMPLATE-ID-BY-KEY"),
+    ART_TEMPLATE_UUID("ART-TEMPLATE-UUID-BY-KEY"),
+    ART_STRUCTURE_ID("ART-STRUCTURE-ID-BY-KEY"),
+    ART_STRUCTURE_UUID("ART-STRUCTURE-UUID-BY-KEY"),
+    ADT_TEMPLATE_ID("ADT-TEMPLATE-ID-BY-KEY"),
+    ADT_TEMPLATE_UUID("ADT-TEMPLATE-UUID-BY-KEY"),
+    ARTICLE_ID("ARTICLE-ID-BY-ARTICLE-ID"),
+    ARTICLE_UUID("ARTICLE-UUID-BY-ARTICLE-ID"),
+    ARTICLE_RESID("ARTICLE-RESID-BY-ARTICLE-ID"),
+    FILE_URL("FILE-URL"),
+    FILE_ID("FILE-ID"),
+    FILE_UUID("FILE-UUID"),
+    CLASS_ID("CLASS-ID-BY-NAME"),
+    PRIV_PAGE_ID("PRIV-PAGE-ID-BY-FRIENDLY_URL"),
+    PUB_PAGE_ID("PUB-PAGE-ID-BY-FRIENDLY_URL"),
+    PRIV_PAGE_PLID("PRIV-PAGE-PLID-BY-FRIENDLY_URL"),
+    PUB_PAGE_PLID("PUB-PAGE-PLID-BY-FRIENDLY_URL"),
+    PRIV_PAGE_UUID("PRIV-PAGE-UUID-BY-FRIENDLY_URL"),
+    PUB_PAGE_UUID("PUB-PAGE-UUID-BY-FRIENDLY_URL"),
+    DDL_REC_SET_ID("DDL-REC-SET-ID-BY-KEY"),
+    ORG_ID("ID_OF_ORG_WITH_NAME"),
+    ORG_UUID("UUID_OF_ORG_WITH_NAME"),
+    USER_GROUP_ID("ID_OF_USER_GROUP_WITH_NAME"),
+    USER_GROUP_UUID("UUID_OF_USER_GROUP_WITH_NAME");
+
+    private static final Map<String, PlaceholderType> BY_NAME = new HashMap<>();
+
+    static {
+        for (PlaceholderType type : values()) {
+            BY_NAME.put(type.name, type);
+        }
+    }
+
+    private final String name;
+
+    private PlaceholderType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param name placeholder name as written between <code>{{$</code> and <code>=</code>
+     * @return matching type or null if the name is not a known placeholder
+     */
+    public static PlaceholderType forName(String name) {
+        return BY_NAME.get(name);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,341 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.liferay.petra.lang.CentralizedThreadLocal;
+
+/**
+ * Cache of lookups done by {@link ResolverUtil} that lives for one setup run. Entries are keyed by company, group,
+ * kind of the looked up entity and its key. Missing entities are cached as well. Classes that create or change
+ * entities are responsible for invalidating the affected entries.
+ * <p/>
+ * The cache is active only between {@link #start()} and {@link #clear()}, outside of a run every lookup goes to the
+ * services directly.
+ */
+public final class ResolverCache {
+
+    /**
+     * Kind of the cached entity.
+     */
+    public enum Kind {
+        SITE,
+        CLASS_NAME,
+        STRUCTURE,
+        TEMPLATE,
+        ARTICLE,
+        FILE,
+        PAGE,
+        DDL_RECORD_SET,
+        ORGANIZATION,
+        USER_GROUP,
+        CATEGORY,
+        CATEGORY_PATH_INDEX,
+        LEDGER,
+        PLACEHOLDER_TEMPLATE,
+        ARTICLE_CONTENT
+    }
+
+    private static final ThreadLocal<Scope> _scope =
+            new CentralizedThreadLocal<>(ResolverCache.class + "._scope", () -> null);
+    // company, group and kind of the entries cached in the setup transaction of the thread, null outside of one
+    private static final ThreadLocal<Set<Key>> _transactionCached =
+            new CentralizedThreadLocal<>(ResolverCache.class + "._transactionCached", () -> null);
+
+    private ResolverCache() {}
+
+    /**
+     * Activates an empty cache for the current thread.
+     */
+    public static void start() {
+        _scope.set(new Scope());
+    }
+
+    /**
+     * Drops all entries and deactivates the cache for the current thread.
+     */
+    public static void clear() {
+        _scope.remove();
+    }
+
+    public static boolean isActive() {
+        return _scope.get() != null;
+    }
+
+    /**
+     * Starts remembering the groups and kinds of the entries the current thread caches in its setup transaction.
+     */
+    public static void beginTransaction() {
+        _transactionCached.set(new HashSet<>());
+    }
+
+    /**
+     * Ends the setup transaction of the current thread started by {@link #beginTransaction()}.
+     *
+     * @param rolledBack true to drop the entries of the groups and kinds cached in the transaction, they may refer to
+     *            entities that don't exist anymore; entries of other groups and kinds are kept
+     */
+    public static void endTransaction(boolean rolledBack) {
+        Set<Key> cached = _transactionCached.get();
+        _transactionCached.remove();
+        Map<Key, Optional<Object>> entries = entries();
+        if (rolledBack && cached != null && entries != null) {
+            entries.keySet().removeIf(entryKey -> cached.contains(entryKey.scope()));
+        }
+    }
+
+    /**
+     * @return cache of the current thread, null if not active
+     */
+    public static Scope getScope() {
+        return _scope.get();
+    }
+
+    /**
+     * Makes the current thread use the given cache, e.g. the cache of the thread that handed the work over. Null
+     * deactivates the cache.
+     */
+    public static void setScope(Scope scope) {
+        if (scope == null) {
+            _scope.remove();
+        } else {
+            _scope.set(scope);
+        }
+    }
+
+    /**
+     * Returns cached value of a company scoped entity (site, organization, user group...), performs the lookup on
+     * cache miss. Null returned by the lookup is cached too.
+     */
+    public static <T> T getInCompany(long companyId, Kind kind, String key, Supplier<T> lookup) {
+        return get(new Key(companyId, 0, kind, key), lookup);
+    }
+
+    /**
+     * Returns cached value of a group scoped entity (article, page, structure...), performs the lookup on cache miss.
+     * Group ids are unique across companies, therefore company is not part of the key. Null returned by the lookup is
+     * cached too.
+     */
+    public static <T> T getInGroup(long groupId, Kind kind, String key, Supplier<T> lookup) {
+        return get(new Key(0, groupId, kind, key), lookup);
+    }
+
+    /**
+     * Stores a value of a group scoped entity fetched in advance, e.g. by a bulk query. Does nothing when the cache is
+     * not active.
+     */
+    public static void putInGroup(long groupId, Kind kind, String key, Object value) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            Key entryKey = new Key(0, groupId, kind, key);
+            entries.put(entryKey, Optional.ofNullable(value));
+            cachedInTransaction(entryKey);
+        }
+    }
+
+    public static boolean containsInGroup(long groupId, Kind kind, String key) {
+        Map<Key, Optional<Object>> entries = entries();
+        return entries != null && entries.containsKey(new Key(0, groupId, kind, key));
+    }
+
+    public static void invalidateInCompany(long companyId, Kind kind, String key) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            entries.remove(new Key(companyId, 0, kind, key));
+        }
+    }
+
+    public static void invalidateInGroup(long groupId, Kind kind, String key) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            entries.remove(new Key(0, groupId, kind, key));
+        }
+    }
+
+    /**
+     * Drops all entries of given kind cached for the group.
+     */
+    public static void invalidateInGroup(long groupId, Kind kind) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            Iterator<Key> keys = entries.keySet().iterator();
+            while (keys.hasNext()) {
+                Key entryKey = keys.next();
+                if (entryKey.groupId == groupId && entryKey.kind == kind) {
+                    keys.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of given kind whose key starts with the prefix, in all groups and companies.
+     */
+    public static void invalidateByPrefix(Kind kind, String keyPrefix) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            entries.keySet().removeIf(entryKey -> entryKey.kind == kind && entryKey.key.startsWith(keyPrefix));
+        }
+    }
+
+    /**
+     * Returns a value derived from the configuration for the current run, e.g. a compiled placeholder template. Such
+     * values are not service calls and are not counted.
+     *
+     * @return cached value, null if not cached or the cache is not active
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getDerived(Kind kind, String key) {
+        Map<Key, Optional<Object>> entries = entries();
+        Optional<Object> cached = entries == null ? null : entries.get(new Key(0, 0, kind, key));
+        return cached == null ? null : (T) cached.orElse(null);
+    }
+
+    /**
+     * Stores a value derived from the configuration for the current run. Does nothing when the cache is not active.
+     */
+    public static void putDerived(Kind kind, String key, Object value) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries != null) {
+            entries.put(new Key(0, 0, kind, key), Optional.ofNullable(value));
+        }
+    }
+
+    /**
+     * @return key of a cached page, public and private pages can share the friendly URL
+     */
+    public static String pageKey(boolean privateLayout, String friendlyUrl) {
+        return (privateLayout ? "private" : "public") + friendlyUrl;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T get(Key key, Supplier<T> lookup) {
+        Map<Key, Optional<Object>> entries = entries();
+        if (entries == null) {
+            return lookup.get();
+        }
+        Optional<Object> cached = entries.get(key);
+        if (cached == null) {
+            countLookup();
+            cached = Optional.ofNullable(lookup.get());
+            entries.put(key, cached);
+            cachedInTransaction(key);
+        }
+        return (T) cached.orElse(null);
+    }
+
+    /**
+     * Counts a lookup that missed the cache, i.e. went to the services. One lookup may be more than one service call,
+     * e.g. a bulk query of a chunk of keys counts once. Does nothing when the cache is not active.
+     */
+    public static void countLookup() {
+        Scope scope = _scope.get();
+        if (scope != null) {
+            scope.lookups.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of lookups that missed the cache since the cache of the current thread was started, 0 if not
+     *         active
+     */
+    public static long getLookupCount() {
+        Scope scope = _scope.get();
+        return scope == null ? 0 : scope.lookups.get();
+    }
+
+    private static void cachedInTransaction(Key key) {
+        Set<Key> cached = _transactionCached.get();
+        if (cached != null) {
+            cached.add(key.scope());
+        }
+    }
+
+    private static Map<Key, Optional<Object>> entries() {
+        Scope scope = _scope.get();
+        return scope == null ? null : scope.entries;
+    }
+
+    /**
+     * Entries of one setup run, may be shared by the threads working on the run.
+     */
+    public static final class Scope {
+        private final Map<Key, Optional<Object>> entries = new ConcurrentHashMap<>();
+        private final AtomicLong lookups = new AtomicLong();
+
+        private Scope() {}
+    }
+
+    private static final class Key {
+        private final long companyId;
+        private final long groupId;
+        private final Kind kind;
+        private final String key;
+
+        private Key(long companyId, long groupId, Kind kind, String key) {
+            this.companyId = companyId;
+            this.groupId = groupId;
+            this.kind = kind;
+            this.key = key;
+        }
+
+        /**
+         * @return key standing for all entries of the company, group and kind of this key
+         */
+        private Key scope() {
+            return new Key(companyId, groupId, kind, null);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key other = (Key) o;
+            return companyId == other.companyId && groupId == other.groupId && kind == other.kind
+                    && Objects.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(companyId, groupId, kind, key);
+        }
+    }
+}
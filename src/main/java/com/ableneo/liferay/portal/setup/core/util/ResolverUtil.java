@@ -27,17 +27,30 @@ package com.ableneo.liferay.portal.setup.core.util;
  * #L%
  */
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-
-import com.liferay.asset.kernel.model.AssetCategory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache.Kind;
 import com.liferay.asset.kernel.model.AssetEntry;
 import com.liferay.asset.kernel.model.AssetVocabulary;
-import com.liferay.asset.kernel.service.AssetCategoryLocalServiceUtil;
 import com.liferay.asset.kernel.service.AssetVocabularyLocalServiceUtil;
 import com.liferay.document.library.kernel.util.DLUtil;
 import com.liferay.dynamic.data.lists.model.DDLRecordSet;
 import com.liferay.dynamic.data.lists.service.DDLRecordSetLocalServiceUtil;
+import com.liferay.dynamic.data.mapping.exception.NoSuchStructureException;
+import com.liferay.dynamic.data.mapping.exception.NoSuchTemplateException;
 import com.liferay.dynamic.data.mapping.model.DDMStructure;
 import com.liferay.dynamic.data.mapping.model.DDMTemplate;
 import com.liferay.dynamic.data.mapping.service.DDMStructureLocalServiceUtil;
@@ -51,6 +64,7 @@ import com.liferay.portal.kernel.exception.PortalException;
 import com.liferay.portal.kernel.exception.SystemException;
 import com.liferay.portal.kernel.log.Log;
 import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.CompanyConstants;
 import com.liferay.portal.kernel.model.GroupConstants;
 import com.liferay.portal.kernel.model.Layout;
 import com.liferay.portal.kernel.model.Organization;
@@ -72,7 +86,9 @@ public final class ResolverUtil {
     public static final int ID_TYPE_FILE = 3;
     public static final String IDTYPE = "%%IDTYPE%%";
     public static final String LOOKUPTYPE = "%%LOOKUPTYPE%%";
+    public static final String OPENING_TAG = "{{$";
     public static final String CLOSING_TAG = "$}}";
+    public static final String ARGUMENT_SEPARATOR = "=";
     public static final String ARTICLE_BY_ART_ID = "{{$ARTICLE-%%IDTYPE%%-BY-ARTICLE-ID=";
     public static final String TEMPLATE_BY_KEY = "{{$%%PREFIX%%-TEMPLATE-%%IDTYPE%%-BY-KEY=";
     public static final String STRUCTURE_BY_KEY = "{{$%%PREFIX%%-STRUCTURE-%%IDTYPE%%-BY-KEY=";
@@ -88,8 +104,14 @@ public final class ResolverUtil {
     public static final String ID_OF_ORG_USER_GROUP_WITH_NAME_KEY = "{{$%%IDTYPE%%_OF_%%LOOKUPTYPE%%_WITH_NAME=";
     public static final String LAYOUTID = "%%LAYOUTID%%";
     private static final Log LOG = LogFactoryUtil.getLog(ResolverUtil.class);
-    private static final String COULD_NOT_RESOLVE_SITE_NAME =
-            "Could not resolve site name, as the syntax is offended, closing tag (%2$s) is missing for %1$s";
+    static final String COULD_NOT_RESOLVE_PLACEHOLDER =
+            "Could not resolve placeholder, as the syntax is offended, closing tag (%2$s) is missing for %1$s";
+    private static final String ANCESTORS_KEY_PREFIX = "ancestors" + StringPool.POUND;
+    private static final int PREFETCH_CHUNK_SIZE = 500;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int MAX_PLACEHOLDER_LENGTH = 4096;
+    private static final AtomicLong LOOKUP_COUNT = new AtomicLong();
+    private static final AtomicLong SKIPPED_LOOKUP_COUNT = new AtomicLong();
 
     // CHECKSTYLE:ON
 
@@ -145,6 +167,8 @@ public final class ResolverUtil {
      * <li>{{UUDID_OF_USER_GROUP_WITH_NAME=&lt; name of the user group &gt;$}}
      * </li>
      * </ul>
+     * A value that starts with {{$CATEGORY-ID-BY-VOCABULARY-AND-PATH=:: name of the site :: name of the vocabulary
+     * :: category path $}} is replaced as a whole by the id of the category.
      *
      * @param groupId the group id which is used by default for the look up.
      * @param company the company id that is used for the default look up.
@@ -158,100 +182,447 @@ public final class ResolverUtil {
      */
     public static String lookupAll(final long groupId, final long company, final String value,
             final String resolverHint) {
-        // substitute references to groups/sites
-        String retVal = ResolverUtil.lookupSiteIdWithName(resolverHint, value, company);
-        // ID for article template
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, false, "ART",
-                true, JournalArticle.class);
-        // ID for article structure
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, false, "ART",
-                false, JournalArticle.class);
-        // UUID for article structure
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, true, "ART",
-                false, JournalArticle.class);
-        // UUID for article template
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, true, "ART",
-                true, JournalArticle.class);
-        // UUID for ADT
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, true, "ADT",
-                true, AssetEntry.class);
-        // ID for ADT
-        retVal = ResolverUtil.lookupStructureOrTemplateIdWithKey(retVal, resolverHint, groupId, company, false, "ADT",
-                true, AssetEntry.class);
-
-        // Resolve categories
-        retVal = ResolverUtil.substituteCategoryNameWithCategoryId(retVal, resolverHint, groupId, company);
-
-        // Substitute the article key with the primary key (id)
-        retVal = ResolverUtil.lookupArticleWithArticleId(retVal, resolverHint, groupId, company, ID_TYPE_ID);
-        // Substitute the article key with the uuid of the article
-        retVal = ResolverUtil.lookupArticleWithArticleId(retVal, resolverHint, groupId, company, ID_TYPE_UUID);
-        // Resource type id for articles
-        retVal = ResolverUtil.lookupArticleWithArticleId(retVal, resolverHint, groupId, company, ID_TYPE_RESOURCE);
-        // Substitute references to files by their URLs
-        retVal = ResolverUtil.substituteFileReferencesWithURL(retVal, resolverHint, groupId, company, groupId,
-                ID_TYPE_FILE);
-        // Substitute references to files by their id
-        retVal = ResolverUtil.substituteFileReferencesWithURL(retVal, resolverHint, groupId, company, groupId,
-                ID_TYPE_ID);
-        // Substitute references to files by their UUID
-        retVal = ResolverUtil.substituteFileReferencesWithURL(retVal, resolverHint, groupId, company, groupId,
-                ID_TYPE_UUID);
-        // Substitute class id references
-        retVal = ResolverUtil.getClassIdByName(retVal, resolverHint);
-        // Substitute private page friendly urls to layout ids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, true, IdMode.ID);
-        // Substitute public page friendly urls to layout ids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, false, IdMode.ID);
-        // Substitute private page friendly urls to plids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, true, IdMode.PLID);
-        // Substitute public page friendly urls to plids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, false, IdMode.PLID);
-        // Substitute private page friendly urls to uuids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, true, IdMode.UUID);
-        // Substitute public page friendly urls to uuids
-        retVal = ResolverUtil.lookupPageIdWithFriendlyUrl(retVal, resolverHint, groupId, company, false, IdMode.UUID);
-        // lookup ddl record set id by key
-        retVal = lookupDDLRecordSetId(retVal, resolverHint, groupId, company);
-        // replace id of user groups
-        retVal = lookupOrgOrUserGroupIdWithName(resolverHint, retVal, company, false, false);
-        // replace uuid of user groups
-        retVal = lookupOrgOrUserGroupIdWithName(resolverHint, retVal, company, true, false);
-        // replace id of orgs
-        retVal = lookupOrgOrUserGroupIdWithName(resolverHint, retVal, company, false, true);
-        // replace uuid of orgs
-        retVal = lookupOrgOrUserGroupIdWithName(resolverHint, retVal, company, true, true);
-        return retVal;
+        LOOKUP_COUNT.incrementAndGet();
+        if (value == null || value.indexOf(OPENING_TAG) < 0) {
+            // most of the values have no placeholder at all
+            SKIPPED_LOOKUP_COUNT.incrementAndGet();
+            return value;
+        }
+        if (value.startsWith(TEMPLATE_CATEGORY)) {
+            // a category placeholder is resolved only as the whole value, anywhere else it is kept as it is
+            String category = resolveCategory(value, resolverHint, company);
+            if (category != null) {
+                return category;
+            }
+        }
+        return resolvePlaceholders(groupId, company, value, resolverHint);
     }
 
-    public static String getClassIdByName(final String value, final String locationHint) {
-        String valueCopy = value;
-        String retVal = valueCopy;
-        while (valueCopy != null && valueCopy.trim().indexOf(CLASS_ID_BY_NAME) > -1) {
-            int pos = valueCopy.trim().indexOf(CLASS_ID_BY_NAME);
-            int pos2 = valueCopy.indexOf(CLOSING_TAG, pos + 1);
-            String name = "";
-            if (pos2 > -1) {
-                try {
-                    name = valueCopy.substring(pos + CLASS_ID_BY_NAME.length(), pos2);
-
-                    long groupId = ClassNameLocalServiceUtil.getClassNameId(name);
-                    retVal = valueCopy.substring(0, pos) + groupId
-                            + valueCopy.substring(pos2 + CLOSING_TAG.length(), valueCopy.length());
-                    valueCopy = retVal;
-                } catch (Exception ex) {
-                    LOG.error(String.format("Could not resolve class %1$s for %2$s", name, locationHint), ex);
+    private static String resolvePlaceholders(final long groupId, final long company, final String value,
+            final String resolverHint) {
+        // the same values are applied to many sites, so they are parsed only once
+        return PlaceholderTemplate.of(value, resolverHint).resolve(groupId, company, resolverHint);
+    }
+
+    /**
+     * Streaming variant of {@link #lookupAll(long, long, String, String)}, the input is read through a bounded buffer
+     * and resolved output is written as soon as it is known, so the whole value is never held in memory. A placeholder
+     * may span the buffer boundaries, the text after an opening tag is held back until the closing tag is read. An
+     * opening tag without closing tag within {@value #MAX_PLACEHOLDER_LENGTH} characters is written as it is.
+     *
+     * @param groupId the group id which is used by default for the look up.
+     * @param company the company id that is used for the default look up.
+     * @param in the value with placeholders, not closed by this method
+     * @param out receives the resolved value, not closed by this method
+     * @param resolverHint where the value is from, used for logging
+     * @throws IOException on reading or writing problems
+     */
+    public static void lookupAll(final long groupId, final long company, final Reader in, final Writer out,
+            final String resolverHint) throws IOException {
+        char[] buffer = new char[STREAM_BUFFER_SIZE];
+        StringBuilder pending = new StringBuilder(STREAM_BUFFER_SIZE);
+        boolean checked = false;
+        boolean whole = false;
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            pending.append(buffer, 0, read);
+            if (!checked) {
+                if (pending.length() < TEMPLATE_CATEGORY.length()) {
+                    continue;
                 }
-            } else {
-                LOG.warn(String.format(COULD_NOT_RESOLVE_SITE_NAME, locationHint, CLOSING_TAG));
+                checked = true;
+                // an input starting with a category placeholder may be the placeholder only, it is resolved at once
+                whole = TEMPLATE_CATEGORY.contentEquals(pending.subSequence(0, TEMPLATE_CATEGORY.length()));
+            }
+            if (!whole) {
+                pending.delete(0, writeResolved(groupId, company, pending, false, out, resolverHint));
+            }
+        }
+        if (whole) {
+            out.write(lookupAll(groupId, company, pending.toString(), resolverHint));
+        } else {
+            writeResolved(groupId, company, pending, true, out, resolverHint);
+        }
+    }
+
+    /**
+     * Passes each placeholder of the input to the action without resolving it. The input is read in chunks, it is
+     * never held in memory as a whole.
+     *
+     * @param in input with placeholders, e.g. article content
+     * @param action called with each placeholder including its opening and closing tag
+     * @throws IOException if the input can't be read
+     */
+    public static void forEachPlaceholder(final Reader in, final Consumer<String> action) throws IOException {
+        char[] buffer = new char[STREAM_BUFFER_SIZE];
+        StringBuilder pending = new StringBuilder(STREAM_BUFFER_SIZE);
+        int read;
+        while ((read = in.read(buffer)) > -1) {
+            pending.append(buffer, 0, read);
+            pending.delete(0, scanPlaceholders(pending, action));
+        }
+    }
+
+    /**
+     * @return number of pending characters scanned, the rest may belong to a placeholder not read completely yet
+     */
+    private static int scanPlaceholders(final StringBuilder pending, final Consumer<String> action) {
+        int scanned = 0;
+        while (true) {
+            int pos = pending.indexOf(OPENING_TAG, scanned);
+            if (pos < 0) {
+                // the end may be the beginning of an opening tag
+                return Math.max(scanned, pending.length() - OPENING_TAG.length() + 1);
+            }
+            int closingPos = pending.indexOf(CLOSING_TAG, pos + OPENING_TAG.length());
+            if (closingPos < 0) {
+                if (pending.length() - pos <= MAX_PLACEHOLDER_LENGTH) {
+                    return pos;
+                }
+                // too long to be a placeholder, a nested one may still follow
+                scanned = pos + OPENING_TAG.length();
+                continue;
+            }
+            scanned = closingPos + CLOSING_TAG.length();
+            action.accept(pending.substring(pos, scanned));
+        }
+    }
+
+    /**
+     * Writes resolved part of the pending input.
+     *
+     * @return number of pending characters consumed, the rest may belong to a placeholder not read completely yet
+     */
+    private static int writeResolved(final long groupId, final long company, final StringBuilder pending,
+            final boolean endOfInput, final Writer out, final String resolverHint) throws IOException {
+        int written = 0;
+        while (true) {
+            int pos = pending.indexOf(OPENING_TAG, written);
+            if (pos < 0) {
+                // the end may be the beginning of an opening tag
+                int end = endOfInput ? pending.length()
+                        : Math.max(written, pending.length() - OPENING_TAG.length() + 1);
+                out.append(pending, written, end);
+                return end;
+            }
+            out.append(pending, written, pos);
+            int closingPos = pending.indexOf(CLOSING_TAG, pos + OPENING_TAG.length());
+            if (closingPos < 0) {
+                if (endOfInput) {
+                    LOG.warn(String.format(COULD_NOT_RESOLVE_PLACEHOLDER, resolverHint, CLOSING_TAG));
+                    out.append(pending, pos, pending.length());
+                    return pending.length();
+                }
+                if (pending.length() - pos <= MAX_PLACEHOLDER_LENGTH) {
+                    return pos;
+                }
+                // too long to be a placeholder, a nested one may still follow
+                written = pos + OPENING_TAG.length();
+                out.append(pending, pos, written);
+                continue;
+            }
+            written = closingPos + CLOSING_TAG.length();
+            out.write(resolvePlaceholders(groupId, company, pending.substring(pos, written), resolverHint));
+        }
+    }
+
+    /**
+     * @return number of {@link #lookupAll(long, long, String, String)} calls since the class was loaded
+     */
+    public static long getLookupCount() {
+        return LOOKUP_COUNT.get();
+    }
+
+    /**
+     * @return number of {@link #lookupAll(long, long, String, String)} calls that returned the value unchanged
+     *         without scanning, as it contained no placeholder opening tag
+     */
+    public static long getSkippedLookupCount() {
+        return SKIPPED_LOOKUP_COUNT.get();
+    }
+
+    /**
+     * Fetches the articles and pages referred by placeholders in the values with a few bulk queries and stores them
+     * in the {@link ResolverCache}, so the subsequent {@link #lookupAll(long, long, String, String)} calls of the
+     * values don't hit the database one reference at a time. Keys are collected per kind and site first, then fetched
+     * with one query per chunk of {@value #PREFETCH_CHUNK_SIZE} keys.
+     * <p/>
+     * Does nothing when the cache is not active, the values are resolved one by one then.
+     *
+     * @param groupId the group id which is used by default for the look up.
+     * @param company the company id that is used for the default look up.
+     * @param values the values that are going to be resolved
+     * @param resolverHint where the values are from, used for logging
+     */
+    public static void prefetch(final long groupId, final long company, final Collection<String> values,
+            final String resolverHint) {
+        if (!ResolverCache.isActive()) {
+            return;
+        }
+        final Map<Long, Set<String>> articleIds = new HashMap<>();
+        final Map<Long, Set<String>> publicPageUrls = new HashMap<>();
+        final Map<Long, Set<String>> privatePageUrls = new HashMap<>();
+        for (String value : values) {
+            if (value == null || value.indexOf(OPENING_TAG) < 0) {
+                continue;
+            }
+            PlaceholderTemplate.of(value, resolverHint).forEachPlaceholder((type, argument) -> {
+                switch (type) {
+                    case ARTICLE_ID:
+                    case ARTICLE_UUID:
+                    case ARTICLE_RESID:
+                        collectKey(articleIds, argument, groupId, company, resolverHint);
+                        break;
+                    case PUB_PAGE_ID:
+                    case PUB_PAGE_PLID:
+                    case PUB_PAGE_UUID:
+                        collectKey(publicPageUrls, argument.trim(), groupId, company, resolverHint);
+                        break;
+                    case PRIV_PAGE_ID:
+                    case PRIV_PAGE_PLID:
+                    case PRIV_PAGE_UUID:
+                        collectKey(privatePageUrls, argument.trim(), groupId, company, resolverHint);
+                        break;
+                    default:
+                        break;
+                }
+            });
+        }
+        articleIds.forEach(ResolverUtil::prefetchArticles);
+        publicPageUrls.forEach((siteGroupId, urls) -> prefetchPages(siteGroupId, false, urls));
+        privatePageUrls.forEach((siteGroupId, urls) -> prefetchPages(siteGroupId, true, urls));
+    }
+
+    private static void collectKey(final Map<Long, Set<String>> keysBySite, final String reference,
+            final long groupId, final long company, final String resolverHint) {
+        long siteGroupId = groupId;
+        String key = reference;
+        String[] refSegs = separateSiteRef(reference);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = getSiteGroupIdByName(refSegs[0], company, resolverHint);
+            key = refSegs[1];
+        }
+        keysBySite.computeIfAbsent(siteGroupId, id -> new HashSet<>()).add(key);
+    }
+
+    private static void prefetchArticles(final long groupId, final Set<String> articleIds) {
+        List<String> missing = new ArrayList<>();
+        for (String articleId : articleIds) {
+            if (!ResolverCache.containsInGroup(groupId, Kind.ARTICLE, articleId)) {
+                missing.add(articleId);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += PREFETCH_CHUNK_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(from + PREFETCH_CHUNK_SIZE, missing.size()));
+            DynamicQuery dq = JournalArticleLocalServiceUtil.dynamicQuery()
+                    .add(PropertyFactoryUtil.forName("groupId").eq(groupId))
+                    .add(PropertyFactoryUtil.forName("articleId").in(chunk))
+                    .add(PropertyFactoryUtil.forName("status").eq(WorkflowConstants.STATUS_APPROVED));
+            Map<String, JournalArticle> latest = new HashMap<>();
+            try {
+                ResolverCache.countLookup();
+                List<JournalArticle> articles = JournalArticleLocalServiceUtil.dynamicQuery(dq);
+                for (JournalArticle article : articles) {
+                    JournalArticle known = latest.get(article.getArticleId());
+                    if (known == null || article.getVersion() > known.getVersion()) {
+                        latest.put(article.getArticleId(), article);
+                    }
+                }
+            } catch (SystemException e) {
+                LOG.error(String.format("Bulk fetch of articles failed in group %1$s", groupId), e);
+                return;
+            }
+            // articles not found are cached as missing, same as fetchLatestArticle would return
+            for (String articleId : chunk) {
+                ResolverCache.putInGroup(groupId, Kind.ARTICLE, articleId, latest.get(articleId));
+            }
+        }
+    }
+
+    private static void prefetchPages(final long groupId, final boolean isPrivate, final Set<String> friendlyUrls) {
+        List<String> missing = new ArrayList<>();
+        for (String friendlyUrl : friendlyUrls) {
+            if (!ResolverCache.containsInGroup(groupId, Kind.PAGE, ResolverCache.pageKey(isPrivate, friendlyUrl))) {
+                missing.add(friendlyUrl);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += PREFETCH_CHUNK_SIZE) {
+            List<String> chunk = missing.subList(from, Math.min(from + PREFETCH_CHUNK_SIZE, missing.size()));
+            DynamicQuery dq = LayoutLocalServiceUtil.dynamicQuery()
+                    .add(PropertyFactoryUtil.forName("groupId").eq(groupId))
+                    .add(PropertyFactoryUtil.forName("privateLayout").eq(isPrivate))
+                    .add(PropertyFactoryUtil.forName("friendlyURL").in(chunk));
+            try {
+                ResolverCache.countLookup();
+                List<Layout> layouts = LayoutLocalServiceUtil.dynamicQuery(dq);
+                // pages not found are left to the single lookup, it falls back to localized friendly URLs
+                for (Layout layout : layouts) {
+                    if (friendlyUrls.contains(layout.getFriendlyURL())) {
+                        ResolverCache.putInGroup(groupId, Kind.PAGE,
+                                ResolverCache.pageKey(isPrivate, layout.getFriendlyURL()), layout);
+                    }
+                }
+            } catch (SystemException e) {
+                LOG.error(String.format("Bulk fetch of pages failed in group %1$s", groupId), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Scans the value once and replaces every <code>{{$NAME=argument$}}</code> occurrence by the result of the
+     * resolver. The output is written into a single buffer, so the cost is linear in the size of the value regardless
+     * of the number of placeholders.
+     *
+     * @param value the value with placeholders
+     * @param locationHint where the value is from, used for logging
+     * @param resolver gets placeholder name and argument, returns the replacement or null to keep the placeholder
+     * @return value with all resolvable placeholders substituted
+     */
+    static String substitute(final String value, final String locationHint,
+            final BiFunction<String, String, String> resolver) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder result = null;
+        int copiedUpTo = 0;
+        int pos = value.indexOf(OPENING_TAG);
+        while (pos > -1) {
+            int argumentStart = pos + OPENING_TAG.length();
+            int closingPos = value.indexOf(CLOSING_TAG, argumentStart);
+            if (closingPos < 0) {
+                LOG.warn(String.format(COULD_NOT_RESOLVE_PLACEHOLDER, locationHint, CLOSING_TAG));
                 break;
             }
+            int separatorPos = value.indexOf(ARGUMENT_SEPARATOR, argumentStart);
+            String replacement = null;
+            if (separatorPos > -1 && separatorPos < closingPos) {
+                replacement = resolver.apply(value.substring(argumentStart, separatorPos),
+                        value.substring(separatorPos + ARGUMENT_SEPARATOR.length(), closingPos));
+            }
+            if (replacement == null) {
+                // unknown or unresolvable placeholder stays as it is, a nested one may still follow
+                pos = value.indexOf(OPENING_TAG, argumentStart);
+                continue;
+            }
+            if (result == null) {
+                result = new StringBuilder(value.length());
+            }
+            result.append(value, copiedUpTo, pos).append(replacement);
+            copiedUpTo = closingPos + CLOSING_TAG.length();
+            pos = value.indexOf(OPENING_TAG, copiedUpTo);
+        }
+        if (result == null) {
+            return value;
         }
+        return result.append(value, copiedUpTo, value.length()).toString();
+    }
 
-        return retVal;
+    // CHECKSTYLE:OFF
+    static String resolvePlaceholder(final PlaceholderType type, final String argument,
+            final String locationHint, final long groupId, final long company) {
+        switch (type) {
+            case SITE_ID:
+                return resolveSiteId(argument, locationHint, company);
+            case ART_TEMPLATE_ID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, false, true,
+                        JournalArticle.class);
+            case ART_TEMPLATE_UUID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, true, true,
+                        JournalArticle.class);
+            case ART_STRUCTURE_ID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, false, false,
+                        JournalArticle.class);
+            case ART_STRUCTURE_UUID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, true, false,
+                        JournalArticle.class);
+            case ADT_TEMPLATE_ID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, false, true,
+                        AssetEntry.class);
+            case ADT_TEMPLATE_UUID:
+                return resolveStructureOrTemplate(argument, locationHint, groupId, company, true, true,
+                        AssetEntry.class);
+            case ARTICLE_ID:
+                return resolveArticle(argument, locationHint, groupId, company, ID_TYPE_ID);
+            case ARTICLE_UUID:
+                return resolveArticle(argument, locationHint, groupId, company, ID_TYPE_UUID);
+            case ARTICLE_RESID:
+                return resolveArticle(argument, locationHint, groupId, company, ID_TYPE_RESOURCE);
+            case FILE_URL:
+                return resolveFileReference(argument, locationHint, groupId, company, groupId, ID_TYPE_FILE);
+            case FILE_ID:
+                return resolveFileReference(argument, locationHint, groupId, company, groupId, ID_TYPE_ID);
+            case FILE_UUID:
+                return resolveFileReference(argument, locationHint, groupId, company, groupId, ID_TYPE_UUID);
+            case CLASS_ID:
+                return resolveClassId(argument, locationHint);
+            // the PLID placeholders resolve to layout ids and vice versa, kept for compatibility of configurations
+            case PRIV_PAGE_PLID:
+                return resolvePage(argument, locationHint, groupId, company, true, IdMode.ID);
+            case PUB_PAGE_PLID:
+                return resolvePage(argument, locationHint, groupId, company, false, IdMode.ID);
+            case PRIV_PAGE_ID:
+                return resolvePage(argument, locationHint, groupId, company, true, IdMode.PLID);
+            case PUB_PAGE_ID:
+                return resolvePage(argument, locationHint, groupId, company, false, IdMode.PLID);
+            case PRIV_PAGE_UUID:
+                return resolvePage(argument, locationHint, groupId, company, true, IdMode.UUID);
+            case PUB_PAGE_UUID:
+                return resolvePage(argument, locationHint, groupId, company, false, IdMode.UUID);
+            case DDL_REC_SET_ID:
+                return resolveDDLRecordSet(argument, locationHint, groupId, company);
+            case ORG_ID:
+                return resolveOrgOrUserGroup(argument, locationHint, company, false, true);
+            case ORG_UUID:
+                return resolveOrgOrUserGroup(argument, locationHint, company, true, true);
+            case USER_GROUP_ID:
+                return resolveOrgOrUserGroup(argument, locationHint, company, false, false);
+            case USER_GROUP_UUID:
+                return resolveOrgOrUserGroup(argument, locationHint, company, true, false);
+            default:
+                return null;
+        }
+    }
+    // CHECKSTYLE:ON
+
+    public static String getClassIdByName(final String value, final String locationHint) {
+        return substituteSingle(value, locationHint, CLASS_ID_BY_NAME,
+                name -> resolveClassId(name, locationHint));
+    }
+
+    private static String resolveClassId(final String name, final String locationHint) {
+        try {
+            return Long.toString(getClassNameId(name));
+        } catch (Exception ex) {
+            LOG.error(String.format("Could not resolve class %1$s for %2$s", name, locationHint), ex);
+        }
+        return null;
+    }
+
+    /**
+     * Substitutes only the placeholders with the given opening tag.
+     *
+     * @param value the value with placeholders
+     * @param locationHint where the value is from, used for logging
+     * @param openingTag full opening tag of the placeholder, e.g. {@link #CLASS_ID_BY_NAME}
+     * @param resolver gets the placeholder argument, returns the replacement or null to keep the placeholder
+     * @return value with the placeholders substituted
+     */
+    private static String substituteSingle(final String value, final String locationHint, final String openingTag,
+            final Function<String, String> resolver) {
+        final String placeholderName =
+                openingTag.substring(OPENING_TAG.length(), openingTag.length() - ARGUMENT_SEPARATOR.length());
+        return substitute(value, locationHint,
+                (name, argument) -> placeholderName.equals(name) ? resolver.apply(argument) : null);
     }
 
     public static long getSiteGroupIdByName(final String siteName, final long company, final String locationName) {
+        return ResolverCache.getInCompany(company, Kind.SITE, siteName,
+                () -> lookupSiteGroupIdByName(siteName, company, locationName));
+    }
+
+    private static long lookupSiteGroupIdByName(final String siteName, final long company,
+            final String locationName) {
         long siteGroupId = 0;
 
         if (siteName.equalsIgnoreCase("global")) {
@@ -304,83 +675,77 @@ public final class ResolverUtil {
         } else if (refType == ID_TYPE_UUID) {
             openingTag = FILE_REFERENCE_UUID;
         }
-        String result = content;
-        int pos = result.indexOf(openingTag);
-        while (pos > -1) {
-            int pos2 = result.indexOf(CLOSING_TAG, pos);
-            if (pos2 < 0) {
-                LOG.error(String.format("No closing Tag, pos %1$s in file %2$s", pos, locationHint));
-                break;
-            } else {
-                // by default the referred file is looked up in current site.
-                long siteGroupId = groupId;
-                String filePath = result.substring(pos + openingTag.length(), pos2).trim();
-
-                // check for the reference to another site
-                String[] refSegs = ResolverUtil.separateSiteRef(filePath);
-                if (!refSegs[0].equals("")) {
-                    siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
-                    filePath = refSegs[1];
-                }
+        return substituteSingle(content, locationHint, openingTag,
+                filePath -> resolveFileReference(filePath, locationHint, groupId, company, repoId, refType));
+    }
 
-                FileEntry fe = DocumentUtil.findDocument(filePath, siteGroupId, repoId);
-                if (fe == null) {
-                    LOG.error(String.format("Referred file %1$s is not found in documents and media.", filePath));
-                    result = result.substring(0, pos) + " <file-not-found /> "
-                            + result.substring(pos2 + CLOSING_TAG.length(), result.length());
-                } else {
-                    String fileEntryRef = " <file-not-found /> ";
-                    try {
-                        if (refType == ID_TYPE_ID) {
-                            fileEntryRef = Long.toString(fe.getFileEntryId());
-                        } else if (refType == ID_TYPE_UUID) {
-                            fileEntryRef = fe.getUuid();
-                        } else {
-                            fileEntryRef = DLUtil.getPreviewURL(fe, fe.getFileVersion(), null, StringPool.BLANK);
-                        }
-                    } catch (PortalException e) {
-                        LOG.error(String.format("URL of referred file %1$s cannot be retrieved.", filePath));
-                    }
-                    result = result.substring(0, pos) + fileEntryRef
-                            + result.substring(pos2 + CLOSING_TAG.length(), result.length());
-                }
+    private static String resolveFileReference(final String reference, final String locationHint,
+            final long groupId, final long company, final long repoId, final int refType) {
+        // by default the referred file is looked up in current site.
+        long siteGroupId = groupId;
+        String filePath = reference.trim();
+
+        // check for the reference to another site
+        String[] refSegs = ResolverUtil.separateSiteRef(filePath);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
+            filePath = refSegs[1];
+        }
+
+        final long fileGroupId = siteGroupId;
+        final String fileEntryPath = filePath;
+        FileEntry fe = ResolverCache.getInGroup(fileGroupId, Kind.FILE, repoId + StringPool.POUND + fileEntryPath,
+                () -> DocumentUtil.findDocument(fileEntryPath, fileGroupId, repoId));
+        if (fe == null) {
+            LOG.error(String.format("Referred file %1$s is not found in documents and media.", filePath));
+            return " <file-not-found /> ";
+        }
+        String fileEntryRef = " <file-not-found /> ";
+        try {
+            if (refType == ID_TYPE_ID) {
+                fileEntryRef = Long.toString(fe.getFileEntryId());
+            } else if (refType == ID_TYPE_UUID) {
+                fileEntryRef = fe.getUuid();
+            } else {
+                fileEntryRef = DLUtil.getPreviewURL(fe, fe.getFileVersion(), null, StringPool.BLANK);
             }
-            pos = result.indexOf(openingTag, pos + 1);
+        } catch (PortalException e) {
+            LOG.error(String.format("URL of referred file %1$s cannot be retrieved.", filePath));
         }
-        return result;
+        return fileEntryRef;
     }
 
     public static String substituteCategoryNameWithCategoryId(final String content, final String locationHint,
             final long groupId, final long company) {
-        String openingTag = TEMPLATE_CATEGORY;
-
-        String result = content;
-
-        if (result.startsWith(openingTag)) {
-
-            String[] values = result.replace(CLOSING_TAG, "").split(VALUE_SPLIT);
-            if (values.length == 4) {
-                long groupIdResolved = groupId;
-
-                try {
-                    groupIdResolved = ResolverUtil.getSiteGroupIdByName(values[1], company, locationHint);
-
-                    String category = resolveVocabularyName(locationHint, values, groupIdResolved);
-                    if (category != null) {
-                        return category;
-                    }
-
-                } catch (Exception e) {
-                    LOG.error(String.format("Could not resolve site name for %1$s", locationHint), e);
-                }
-            } else {
-                LOG.error(
-                        "Categories to be susbstited is not in correct format : SiteName::Vocabulary::CategoriesPath");
+        if (content.startsWith(TEMPLATE_CATEGORY)) {
+            String category = resolveCategory(content, locationHint, company);
+            if (category != null) {
+                return category;
             }
-
         }
+        return content;
+    }
 
-        return result;
+    /**
+     * Resolves a category placeholder that is the whole value, trailing text is taken as part of the category path.
+     *
+     * @return id of the category or null if it can't be resolved
+     */
+    private static String resolveCategory(final String content, final String locationHint, final long company) {
+        // the first value is the opening tag, then SiteName::Vocabulary::CategoriesPath
+        String[] values = content.replace(CLOSING_TAG, "").split(VALUE_SPLIT);
+        if (values.length == 4) {
+            try {
+                long groupIdResolved = ResolverUtil.getSiteGroupIdByName(values[1], company, locationHint);
+                return ResolverCache.getInGroup(groupIdResolved, Kind.CATEGORY, values[2] + VALUE_SPLIT + values[3],
+                        () -> resolveVocabularyName(locationHint, values, groupIdResolved));
+            } catch (Exception e) {
+                LOG.error(String.format("Could not resolve site name for %1$s", locationHint), e);
+            }
+        } else {
+            LOG.error("Categories to be susbstited is not in correct format : SiteName::Vocabulary::CategoriesPath");
+        }
+        return null;
     }
 
     private static String resolveVocabularyName(String locationHint, String[] values, long groupIdResolved) {
@@ -388,67 +753,34 @@ public final class ResolverUtil {
             AssetVocabulary assetVocabulary =
                     AssetVocabularyLocalServiceUtil.getGroupVocabulary(groupIdResolved, values[2]);
 
-            String[] categoryIds = values[3].split("/");
-
-            String category = resolveCategoryId(locationHint, assetVocabulary, categoryIds);
-            if (category != null)
-                return category;
+            Long categoryId = CategoryPathIndex.getCategoryId(groupIdResolved, assetVocabulary.getVocabularyId(),
+                    values[3]);
+            if (categoryId != null) {
+                return String.valueOf(categoryId);
+            }
+            LOG.error(String.format("Could not resolve category path for %1$s", locationHint));
         } catch (PortalException e) {
             LOG.error(String.format("Could not resolve vocabulary name for %1$s", locationHint), e);
         }
         return null;
     }
 
-    private static String resolveCategoryId(String locationHint, AssetVocabulary assetVocabulary,
-            String[] categoryIds) {
-        try {
-            AssetCategory category = assetVocabulary.getCategories().stream()
-                    .filter(vocabularyCategory -> vocabularyCategory.getName().equals(categoryIds[0])).findFirst()
-                    .orElseThrow(PortalException::new);
-
-            for (int i = 1; i < categoryIds.length; i++) {
-                String categoryName = categoryIds[i];
-                category = AssetCategoryLocalServiceUtil.getChildCategories(category.getCategoryId()).stream()
-                        .filter(childrenCategory -> childrenCategory.getName().equals(categoryName)).findFirst()
-                        .orElseThrow(PortalException::new);
-            }
-            return String.valueOf(category.getCategoryId());
-        } catch (PortalException e) {
-            LOG.error(String.format("Could not resolve category path for %1$s", locationHint), e);
-        }
-        return null;
+    public static String lookupSiteIdWithName(final String locationHint, final String value, final long company) {
+        return substituteSingle(value, locationHint, ID_OF_SITE_WITH_NAME_KEY,
+                name -> resolveSiteId(name, locationHint, company));
     }
 
-    public static String lookupSiteIdWithName(final String locationHint, final String value, final long company) {
-        String valueCopy = value;
-        String retVal = valueCopy;
-        while (valueCopy != null && valueCopy.trim().indexOf(ID_OF_SITE_WITH_NAME_KEY) > -1) {
-            int pos = valueCopy.trim().indexOf(ID_OF_SITE_WITH_NAME_KEY);
-            int pos2 = valueCopy.indexOf(CLOSING_TAG, pos + 1);
-            if (pos2 > -1) {
-                try {
-                    String name = valueCopy.substring(pos + ID_OF_SITE_WITH_NAME_KEY.length(), pos2);
-
-                    long groupId = ResolverUtil.getSiteGroupIdByName(name, company, locationHint);
-                    retVal = valueCopy.substring(0, pos) + groupId
-                            + valueCopy.substring(pos2 + CLOSING_TAG.length(), valueCopy.length());
-                    valueCopy = retVal;
-                } catch (Exception ex) {
-                    LOG.error(String.format("Could not resolve site name for %1$s", locationHint), ex);
-                }
-            } else {
-                LOG.warn(String.format(COULD_NOT_RESOLVE_SITE_NAME, locationHint, CLOSING_TAG));
-                break;
-            }
+    private static String resolveSiteId(final String name, final String locationHint, final long company) {
+        try {
+            return Long.toString(ResolverUtil.getSiteGroupIdByName(name, company, locationHint));
+        } catch (Exception ex) {
+            LOG.error(String.format("Could not resolve site name for %1$s", locationHint), ex);
         }
-
-        return retVal;
+        return null;
     }
 
     public static String lookupOrgOrUserGroupIdWithName(final String locationHint, final String value,
             final long company, final boolean uuid, final boolean org) {
-        String valueCopy = value;
-        String retVal = valueCopy;
         String searchString = ID_OF_ORG_USER_GROUP_WITH_NAME_KEY;
         if (uuid) {
             searchString = searchString.replace(IDTYPE, "UUID");
@@ -460,64 +792,46 @@ public final class ResolverUtil {
         } else {
             searchString = searchString.replace(LOOKUPTYPE, "USER_GROUP");
         }
-        while (valueCopy != null && valueCopy.trim().indexOf(searchString) > -1) {
-            int pos = valueCopy.trim().indexOf(searchString);
-            int pos2 = valueCopy.indexOf(CLOSING_TAG, pos + 1);
-            if (pos2 > -1) {
-                try {
-                    String name = valueCopy.substring(pos + searchString.length(), pos2);
-                    String replacementId = "NOT FOUND";
-                    if (org) {
-                        Organization o = ResolverUtil.getOrganization(name, company, name);
-                        if (o != null) {
-                            if (uuid) {
-                                replacementId = o.getUuid();
-                            } else {
-                                replacementId = Long.toString(o.getOrganizationId());
-                            }
-                        }
-                    } else {
-                        UserGroup ug = ResolverUtil.getUserGroup(name, company, name);
-                        if (ug != null) {
-                            if (uuid) {
-                                replacementId = ug.getUuid();
-                            } else {
-                                replacementId = Long.toString(ug.getUserGroupId());
-                            }
-                        }
-                    }
+        return substituteSingle(value, locationHint, searchString,
+                name -> resolveOrgOrUserGroup(name, locationHint, company, uuid, org));
+    }
 
-                    retVal = valueCopy.substring(0, pos) + replacementId
-                            + valueCopy.substring(pos2 + CLOSING_TAG.length(), valueCopy.length());
-                    valueCopy = retVal;
-                } catch (Exception ex) {
-                    String type = "user group";
-                    if (org) {
-                        type = "organization";
+    private static String resolveOrgOrUserGroup(final String name, final String locationHint, final long company,
+            final boolean uuid, final boolean org) {
+        try {
+            String replacementId = "NOT FOUND";
+            if (org) {
+                Organization o = ResolverUtil.getOrganization(name, company, name);
+                if (o != null) {
+                    if (uuid) {
+                        replacementId = o.getUuid();
+                    } else {
+                        replacementId = Long.toString(o.getOrganizationId());
                     }
-                    LOG.error(String.format("Could not resolve  %1$s name for %2$s", type, locationHint), ex);
                 }
             } else {
-                String type = "user group";
-                if (org) {
-                    type = "organization";
+                UserGroup ug = ResolverUtil.getUserGroup(name, company, name);
+                if (ug != null) {
+                    if (uuid) {
+                        replacementId = ug.getUuid();
+                    } else {
+                        replacementId = Long.toString(ug.getUserGroupId());
+                    }
                 }
-                LOG.warn(String.format(
-                        "Could not resolve %1$s name, as the syntax is offendended, closing (%3$s) is missing for %2$s",
-                        type, locationHint, CLOSING_TAG));
-                break;
             }
+            return replacementId;
+        } catch (Exception ex) {
+            String type = "user group";
+            if (org) {
+                type = "organization";
+            }
+            LOG.error(String.format("Could not resolve  %1$s name for %2$s", type, locationHint), ex);
         }
-
-        return retVal;
+        return null;
     }
 
     public static String lookupArticleWithArticleId(final String content, final String locationHint, final long groupId,
             final long company, final int typeOfId) {
-        String contentCopy = content;
-        String retVal = contentCopy;
-        long siteGroupId = groupId;
-        int pos = -1;
         String lookup = ARTICLE_BY_ART_ID;
 
         if (typeOfId == 0) {
@@ -527,55 +841,48 @@ public final class ResolverUtil {
         } else if (typeOfId == 2) {
             lookup = lookup.replace(IDTYPE, "RESID");
         }
+        return substituteSingle(content, locationHint, lookup,
+                name -> resolveArticle(name, locationHint, groupId, company, typeOfId));
+    }
 
-        while (contentCopy != null && contentCopy.indexOf(lookup) > -1) {
-            pos = contentCopy.indexOf(lookup);
-            int pos2 = contentCopy.indexOf(CLOSING_TAG, pos + 1);
-            if (pos2 > -1) {
-                String name = contentCopy.substring(pos + lookup.length(), pos2);
+    private static String resolveArticle(final String reference, final String locationHint, final long groupId,
+            final long company, final int typeOfId) {
+        long siteGroupId = groupId;
+        String name = reference;
 
-                // check for the reference to another site
-                String[] refSegs = ResolverUtil.separateSiteRef(name);
-                if (!refSegs[0].equals("")) {
-                    siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
-                    name = refSegs[1];
-                }
-                String templateId = "";
-                try {
-                    JournalArticle ja = JournalArticleLocalServiceUtil.fetchLatestArticle(siteGroupId, name,
-                            WorkflowConstants.STATUS_APPROVED);
-                    if (ja != null) {
-                        if (typeOfId == 0) {
-                            templateId = Long.toString(ja.getId());
-                        } else if (typeOfId == 1) {
-                            templateId = ja.getUuid();
-                        } else if (typeOfId == 2) {
-                            templateId = Long.toString(ja.getResourcePrimKey());
-                        }
-                    } else {
-                        LOG.error(String.format("Article with article id %1$s not found for %2$s", name, locationHint));
-                        templateId = "!!NOTFOUND!!";
-                    }
-                } catch (SystemException e) {
-                    LOG.error(String.format("Article with article id %1$s not found for %2$s", name, locationHint), e);
+        // check for the reference to another site
+        String[] refSegs = ResolverUtil.separateSiteRef(name);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
+            name = refSegs[1];
+        }
+        final long articleGroupId = siteGroupId;
+        final String articleId = name;
+        String templateId = "";
+        try {
+            JournalArticle ja = ResolverCache.getInGroup(articleGroupId, Kind.ARTICLE, articleId,
+                    () -> JournalArticleLocalServiceUtil.fetchLatestArticle(articleGroupId, articleId,
+                            WorkflowConstants.STATUS_APPROVED));
+            if (ja != null) {
+                if (typeOfId == 0) {
+                    templateId = Long.toString(ja.getId());
+                } else if (typeOfId == 1) {
+                    templateId = ja.getUuid();
+                } else if (typeOfId == 2) {
+                    templateId = Long.toString(ja.getResourcePrimKey());
                 }
-
-                retVal = contentCopy.substring(0, pos) + templateId
-                        + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                contentCopy = retVal;
             } else {
-                LOG.warn(String.format(
-                        "Could not resolve template, as the syntax is offended, closing (%1$s) is missing for %2$s abort parsing, as this is possibly an error!",
-                        CLOSING_TAG, locationHint));
-                break;
+                LOG.error(String.format("Article with article id %1$s not found for %2$s", name, locationHint));
+                templateId = "!!NOTFOUND!!";
             }
+        } catch (SystemException e) {
+            LOG.error(String.format("Article with article id %1$s not found for %2$s", name, locationHint), e);
         }
-        return retVal;
+        return templateId;
     }
 
     public static String lookupPageIdWithFriendlyUrl(final String content, final String locationHint,
             final long groupId, final long company, final boolean isPrivate, final IdMode mode) {
-        String contentCopy = content;
         String lookUp = PAGE_ID_BY_FRIENDLY_URL;
         if (isPrivate) {
             lookUp = lookUp.replace("%%PTYPE%%", "PRIV");
@@ -593,115 +900,95 @@ public final class ResolverUtil {
                 lookUp = lookUp.replace(LAYOUTID, "UUID");
                 break;
         }
-        int pos = contentCopy.indexOf(lookUp);
-        while (pos > -1) {
-            int pos2 = contentCopy.indexOf(CLOSING_TAG, pos);
-            if (pos2 < 0) {
-                LOG.error(String.format("No closing Tag, pos %1$s for %2$s", pos, locationHint));
-                break;
-            } else {
-                // by default the referred file is looked up in current site.
-                long siteGroupId = groupId;
-                String fUrl = contentCopy.substring(pos + lookUp.length(), pos2).trim();
-
-                // check for the reference to another site
-                String[] refSegs = ResolverUtil.separateSiteRef(fUrl);
-                if (!refSegs[0].equals("")) {
-                    siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
-                    fUrl = refSegs[1];
-                }
+        return substituteSingle(content, locationHint, lookUp,
+                friendlyUrl -> resolvePage(friendlyUrl, locationHint, groupId, company, isPrivate, mode));
+    }
 
-                String pageId = "NOT FOUND";
-                Layout l = null;
-                try {
-                    l = LayoutLocalServiceUtil.getFriendlyURLLayout(siteGroupId, isPrivate, fUrl);
-                } catch (PortalException | SystemException e) {
-                    LOG.error(e);
-                }
+    private static String resolvePage(final String reference, final String locationHint, final long groupId,
+            final long company, final boolean isPrivate, final IdMode mode) {
+        // by default the referred file is looked up in current site.
+        long siteGroupId = groupId;
+        String fUrl = reference.trim();
 
-                if (l == null) {
-                    LOG.error(String.format("Referred page %1$s is not found .", fUrl));
-                    contentCopy = contentCopy.substring(0, pos) + " PAGE NOT FOUND!! "
-                            + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                } else {
-                    switch (mode) {
-                        case ID:
-                            pageId = Long.toString(l.getLayoutId());
-                            break;
-                        case PLID:
-                            pageId = Long.toString(l.getPlid());
-                            break;
-                        case UUID:
-                            pageId = l.getUuid();
-                            break;
-                    }
-                    contentCopy = contentCopy.substring(0, pos) + pageId
-                            + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                }
-            }
-            pos = contentCopy.indexOf(lookUp, pos + 1);
+        // check for the reference to another site
+        String[] refSegs = ResolverUtil.separateSiteRef(fUrl);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
+            fUrl = refSegs[1];
         }
 
-        //
-        return contentCopy;
+        final long layoutGroupId = siteGroupId;
+        final String friendlyUrl = fUrl;
+        Layout l = ResolverCache.getInGroup(layoutGroupId, Kind.PAGE, ResolverCache.pageKey(isPrivate, friendlyUrl),
+                () -> {
+                    try {
+                        return LayoutLocalServiceUtil.getFriendlyURLLayout(layoutGroupId, isPrivate, friendlyUrl);
+                    } catch (PortalException | SystemException e) {
+                        LOG.error(e);
+                    }
+                    return null;
+                });
+
+        if (l == null) {
+            LOG.error(String.format("Referred page %1$s is not found .", fUrl));
+            return " PAGE NOT FOUND!! ";
+        }
+        String pageId = "NOT FOUND";
+        switch (mode) {
+            case ID:
+                pageId = Long.toString(l.getLayoutId());
+                break;
+            case PLID:
+                pageId = Long.toString(l.getPlid());
+                break;
+            case UUID:
+                pageId = l.getUuid();
+                break;
+        }
+        return pageId;
     }
 
     public static String lookupDDLRecordSetId(final String content, final String locationHint, final long groupId,
             final long company) {
-        String contentCopy = content;
-        String lookUp = DDL_REC_SET_BY_KEY;
-
-        int pos = contentCopy.indexOf(lookUp);
-        while (pos > -1) {
-            int pos2 = contentCopy.indexOf(CLOSING_TAG, pos);
-            if (pos2 < 0) {
-                LOG.error(String.format("No closing Tag, pos %1$s for %2$s", pos, locationHint));
-                break;
-            } else {
-                // by default the referred file is looked up in current site.
-                long siteGroupId = groupId;
-                String recordsetId = contentCopy.substring(pos + lookUp.length(), pos2).trim();
-
-                // check for the reference to another site
-                String[] refSegs = ResolverUtil.separateSiteRef(recordsetId);
-                if (!refSegs[0].equals("")) {
-                    siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
-                    recordsetId = refSegs[1];
-                }
+        return substituteSingle(content, locationHint, DDL_REC_SET_BY_KEY,
+                key -> resolveDDLRecordSet(key, locationHint, groupId, company));
+    }
 
-                DDLRecordSet rs = null;
-                try {
-                    rs = DDLRecordSetLocalServiceUtil.getRecordSet(siteGroupId, recordsetId);
+    private static String resolveDDLRecordSet(final String reference, final String locationHint, final long groupId,
+            final long company) {
+        // by default the referred file is looked up in current site.
+        long siteGroupId = groupId;
+        String recordsetId = reference.trim();
 
-                } catch (PortalException e) {
-                    LOG.error(String.format("Error retrieving referred DDL structure %1$s.", recordsetId));
-                }
+        // check for the reference to another site
+        String[] refSegs = ResolverUtil.separateSiteRef(recordsetId);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
+            recordsetId = refSegs[1];
+        }
 
-                if (rs == null) {
-                    LOG.error(String.format("Referred DDL structure %1$s is not found .", recordsetId));
-                    contentCopy = contentCopy.substring(0, pos) + " PAGE NOT FOUND!! "
-                            + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                } else {
-                    String pageId = Long.toString(rs.getRecordSetId());
-                    contentCopy = contentCopy.substring(0, pos) + pageId
-                            + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                }
+        final long recordSetGroupId = siteGroupId;
+        final String recordSetKey = recordsetId;
+        DDLRecordSet rs = ResolverCache.getInGroup(recordSetGroupId, Kind.DDL_RECORD_SET, recordSetKey, () -> {
+            try {
+                return DDLRecordSetLocalServiceUtil.getRecordSet(recordSetGroupId, recordSetKey);
+            } catch (PortalException e) {
+                LOG.error(String.format("Error retrieving referred DDL structure %1$s.", recordSetKey));
             }
-            pos = contentCopy.indexOf(lookUp, pos + 1);
-        }
+            return null;
+        });
 
-        //
-        return contentCopy;
+        if (rs == null) {
+            LOG.error(String.format("Referred DDL structure %1$s is not found .", recordsetId));
+            return " PAGE NOT FOUND!! ";
+        }
+        return Long.toString(rs.getRecordSetId());
     }
 
     // CHECKSTYLE:OFF
     public static String lookupStructureOrTemplateIdWithKey(final String content, final String locationHint,
             final long groupId, final long company, final boolean uuid, final String commandPrefix,
             final boolean isTemplate, final Class referredClass) {
-        String contentCopy = content;
-        String retVal = contentCopy;
-        long siteGroupId = groupId;
-        int pos = -1;
         String lookup = TEMPLATE_BY_KEY;
         if (!isTemplate) {
             lookup = STRUCTURE_BY_KEY;
@@ -712,49 +999,42 @@ public final class ResolverUtil {
             lookup = lookup.replace(IDTYPE, "ID");
         }
         lookup = lookup.replace("%%PREFIX%%", commandPrefix);
-        while (contentCopy != null && contentCopy.indexOf(lookup) > -1) {
-            pos = contentCopy.indexOf(lookup);
-            int pos2 = contentCopy.indexOf(CLOSING_TAG);
-            if (pos2 > -1) {
-                String name = contentCopy.substring(pos + lookup.length(), pos2);
-
-                // check for the reference to another site
-                String[] refSegs = ResolverUtil.separateSiteRef(name);
-                if (!refSegs[0].equals("")) {
-                    siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
-                    name = refSegs[1];
-                }
-                String templateId = "";
-                try {
-                    if (uuid) {
-                        if (isTemplate) {
-                            templateId = getTemplateUUID(name);
-                        } else {
-                            templateId = getStructureUUID(name, siteGroupId, referredClass);
-                        }
-                    } else {
-                        if (isTemplate) {
-                            templateId = Long.toString(getTemplateId(name, siteGroupId, referredClass));
-                        } else {
-                            templateId = Long.toString(getStructureId(name, siteGroupId, referredClass, false));
-                        }
-                    }
-                } catch (PortalException | SystemException e) {
-                    LOG.error(
-                            String.format("Template with key contentCopy %1$s not found for %2$s", name, locationHint));
-                    LOG.error((Throwable) e);
-                }
+        return substituteSingle(content, locationHint, lookup, key -> resolveStructureOrTemplate(key, locationHint,
+                groupId, company, uuid, isTemplate, referredClass));
+    }
+
+    private static String resolveStructureOrTemplate(final String reference, final String locationHint,
+            final long groupId, final long company, final boolean uuid, final boolean isTemplate,
+            final Class referredClass) {
+        long siteGroupId = groupId;
+        String name = reference;
 
-                retVal = contentCopy.substring(0, pos) + templateId
-                        + contentCopy.substring(pos2 + CLOSING_TAG.length(), contentCopy.length());
-                contentCopy = retVal;
+        // check for the reference to another site
+        String[] refSegs = ResolverUtil.separateSiteRef(name);
+        if (!refSegs[0].equals("")) {
+            siteGroupId = ResolverUtil.getSiteGroupIdByName(refSegs[0], company, locationHint);
+            name = refSegs[1];
+        }
+        String templateId = "";
+        try {
+            if (uuid) {
+                if (isTemplate) {
+                    templateId = getTemplateUUID(name, siteGroupId, referredClass);
+                } else {
+                    templateId = getStructureUUID(name, siteGroupId, referredClass);
+                }
             } else {
-                LOG.warn("Could not resolve template, as the syntax is offended, closing $}} is " + "missing for "
-                        + locationHint + " abort parsing, as this is possibly an error!");
-                break;
+                if (isTemplate) {
+                    templateId = Long.toString(getTemplateId(name, siteGroupId, referredClass));
+                } else {
+                    templateId = Long.toString(getStructureId(name, siteGroupId, referredClass, false));
+                }
             }
+        } catch (PortalException | SystemException e) {
+            LOG.error(String.format("Template with key contentCopy %1$s not found for %2$s", name, locationHint));
+            LOG.error((Throwable) e);
         }
-        return retVal;
+        return templateId;
     }
 
     // CHECKSTYLE:ON
@@ -762,49 +1042,133 @@ public final class ResolverUtil {
     public static long getStructureId(final String structureKey, final long groupId, final Class clazz,
             boolean includeAncestorStructures) throws PortalException {
 
-        long classNameId = ClassNameLocalServiceUtil.getClassNameId(clazz);
-        DDMStructure structure = DDMStructureLocalServiceUtil.getStructure(groupId, classNameId, structureKey,
-                includeAncestorStructures);
-        return structure.getStructureId();
+        return getStructure(structureKey, groupId, clazz, includeAncestorStructures).getStructureId();
     }
 
     public static String getStructureUUID(final String structureKey, final long groupId, final Class clazz)
             throws PortalException {
 
-        long classNameId = ClassNameLocalServiceUtil.getClassNameId(clazz);
-        DDMStructure structure = DDMStructureLocalServiceUtil.getStructure(groupId, classNameId, structureKey);
-        return structure.getUuid();
+        return getStructure(structureKey, groupId, clazz, false).getUuid();
+    }
+
+    private static DDMStructure getStructure(final String structureKey, final long groupId, final Class clazz,
+            final boolean includeAncestorStructures) throws PortalException {
+
+        long classNameId = getClassNameId(clazz.getName());
+        if (includeAncestorStructures) {
+            return DDMStructureLocalServiceUtil.getStructure(groupId, classNameId, structureKey, true);
+        }
+        DDMStructure structure =
+                ResolverCache.getInGroup(groupId, Kind.STRUCTURE, classNameId + StringPool.POUND + structureKey,
+                        () -> DDMStructureLocalServiceUtil.fetchStructure(groupId, classNameId, structureKey));
+        if (structure == null) {
+            throw new NoSuchStructureException(
+                    String.format("Structure with key %1$s not found in group %2$s", structureKey, groupId));
+        }
+        return structure;
     }
 
     public static long getTemplateId(final String templateKey, final long groupId, final Class clazz)
             throws PortalException {
 
-        long classNameId = ClassNameLocalServiceUtil.getClassNameId(clazz);
+        return getTemplate(templateKey, groupId, clazz, false).getTemplateId();
+    }
+
+    /**
+     * Looks the template up in the group and its ancestor sites.
+     *
+     * @param templateKey key of the template
+     * @param groupId group where the look up starts
+     * @param clazz class the template is for, article templates are looked up among the templates of structures
+     * @return uuid of the template
+     * @throws PortalException if there is no such template in the group nor in its ancestors
+     */
+    public static String getTemplateUUID(final String templateKey, final long groupId, final Class clazz)
+            throws PortalException {
 
-        DDMTemplate template = DDMTemplateLocalServiceUtil.getTemplate(groupId, classNameId, templateKey);
-        return template.getTemplateId();
+        return getTemplate(templateKey, groupId, clazz, true).getUuid();
     }
 
-    public static Organization getOrganization(final String name, final long companyId, final String locationHint) {
-        Organization o = null;
-        try {
-            o = OrganizationLocalServiceUtil.getOrganization(companyId, name);
-        } catch (PortalException e) {
-            LOG.error(String.format("Could not retrieve organization %1$s in context %2$s", name, locationHint));
+    private static DDMTemplate getTemplate(final String templateKey, final long groupId, final Class clazz,
+            final boolean includeAncestorTemplates) throws PortalException {
+
+        long classNameId = getClassNameId(clazz.getName());
+        long resourceClassNameId = 0;
+        if (JournalArticle.class.equals(clazz)) {
+            // article templates belong to the structures, the article is their resource class, see SetupArticles
+            resourceClassNameId = classNameId;
+            classNameId = getClassNameId(DDMStructure.class.getName());
         }
-        return o;
+        final long templateClassNameId = classNameId;
+        String cacheKey = templateClassNameId + StringPool.POUND + templateKey;
+        if (includeAncestorTemplates) {
+            cacheKey = ANCESTORS_KEY_PREFIX + cacheKey;
+        }
+        DDMTemplate template = ResolverCache.getInGroup(groupId, Kind.TEMPLATE, cacheKey, () -> {
+            try {
+                return DDMTemplateLocalServiceUtil.fetchTemplate(groupId, templateClassNameId, templateKey,
+                        includeAncestorTemplates);
+            } catch (PortalException e) {
+                LOG.error(String.format("Could not look template %1$s up in group %2$s", templateKey, groupId), e);
+            }
+            return null;
+        });
+        if (template != null && resourceClassNameId != 0 && template.getResourceClassNameId() != resourceClassNameId) {
+            // e.g. a template of dynamic data lists with the same key
+            template = null;
+        }
+        if (template == null) {
+            throw new NoSuchTemplateException(
+                    String.format("Template with key %1$s not found in group %2$s", templateKey, groupId));
+        }
+        return template;
+    }
+
+    /**
+     * Drops the templates cached for the group. Templates looked up in the ancestor sites of any group are dropped
+     * too, missing ones included, as the group may be one of the ancestors.
+     *
+     * @param groupId group a template was added to or updated in
+     */
+    public static void invalidateTemplates(final long groupId) {
+        ResolverCache.invalidateInGroup(groupId, Kind.TEMPLATE);
+        ResolverCache.invalidateByPrefix(Kind.TEMPLATE, ANCESTORS_KEY_PREFIX);
+    }
+
+    private static long getClassNameId(final String className) {
+        return ResolverCache.getInCompany(CompanyConstants.SYSTEM, Kind.CLASS_NAME, className,
+                () -> ClassNameLocalServiceUtil.getClassNameId(className));
+    }
+
+    public static Organization getOrganization(final String name, final long companyId, final String locationHint) {
+        return ResolverCache.getInCompany(companyId, Kind.ORGANIZATION, name, () -> {
+            try {
+                return OrganizationLocalServiceUtil.getOrganization(companyId, name);
+            } catch (PortalException e) {
+                LOG.error(String.format("Could not retrieve organization %1$s in context %2$s", name, locationHint));
+            }
+            return null;
+        });
     }
 
     public static UserGroup getUserGroup(final String name, final long companyId, final String locationHint) {
-        UserGroup o = null;
-        try {
-            o = UserGroupLocalServiceUtil.getUserGroup(companyId, name);
-        } catch (PortalException e) {
-            LOG.error(String.format("Could not retrieve organization %1$s in context %2$s", name, locationHint));
-        }
-        return o;
+        return ResolverCache.getInCompany(companyId, Kind.USER_GROUP, name, () -> {
+            try {
+                return UserGroupLocalServiceUtil.getUserGroup(companyId, name);
+            } catch (PortalException e) {
+                LOG.error(String.format("Could not retrieve organization %1$s in context %2$s", name, locationHint));
+            }
+            return null;
+        });
     }
 
+    /**
+     * Looks the template up by key in all groups and companies.
+     *
+     * @deprecated use {@link #getTemplateUUID(String, long, Class)}, it looks the template up by the indexed group,
+     *             class and key
+     */
+    @Deprecated
     public static String getTemplateUUID(final String templateKey) {
 
         DynamicQuery dq = DDMTemplateLocalServiceUtil.dynamicQuery()
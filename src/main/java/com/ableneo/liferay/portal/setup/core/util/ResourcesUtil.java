@@ -27,8 +27,13 @@ package com.ableneo.liferay.portal.setup.core.util;
  * #L%
  */
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
 
 import com.liferay.portal.kernel.util.FileUtil;
@@ -46,6 +51,31 @@ public class ResourcesUtil {
         return cl.getResourceAsStream(path);
     }
 
+    public static Reader getFileReader(String path) throws IOException {
+        InputStream stream = getFileStream(path);
+        if (stream == null) {
+            throw new FileNotFoundException(path);
+        }
+        return new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return size of the file in bytes, -1 if there is no such file or its size is not known
+     */
+    public static long getFileSize(String path) throws IOException {
+        URL url = ResourcesUtil.class.getClassLoader().getResource(path);
+        if (url == null) {
+            return -1;
+        }
+        URLConnection connection = url.openConnection();
+        try {
+            return connection.getContentLengthLong();
+        } finally {
+            // the connection may have opened the file to get its size
+            connection.getInputStream().close();
+        }
+    }
+
     public static byte[] getFileBytes(String path) throws IOException {
         return FileUtil.getBytes(getFileStream(path));
     }
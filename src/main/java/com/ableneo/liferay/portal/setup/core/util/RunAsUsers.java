@@ -0,0 +1,174 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.ableneo.liferay.portal.setup.LiferaySetupException;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.model.RoleConstants;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.security.permission.PermissionChecker;
+import com.liferay.portal.kernel.security.permission.PermissionCheckerFactoryUtil;
+import com.liferay.portal.kernel.service.RoleLocalServiceUtil;
+import com.liferay.portal.kernel.service.UserLocalServiceUtil;
+
+/**
+ * Users the setup runs as, resolved once per company and email and kept for a few minutes, e.g. when the setup is
+ * called for many configuration files in one upgrade. The administrator of the company is used when no email is
+ * configured. Only the users are kept, every thread gets a permission checker of its own: permission checkers cache
+ * the permissions they checked and are not thread-safe.
+ * <p/>
+ * Call {@link #clear()} when the run as users or their roles change while the portal is running.
+ */
+public final class RunAsUsers {
+
+    private static final Log LOG = LogFactoryUtil.getLog(RunAsUsers.class);
+    private static final String ADMINISTRATOR = "";
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final Map<String, ResolvedUser> USERS = new ConcurrentHashMap<>();
+
+    private RunAsUsers() {}
+
+    /**
+     * @param companyId company the setup runs in
+     * @param email email of the run as user, null or empty for the administrator of the company
+     * @return user id and a new permission checker of the run as user, to be used by the current thread
+     * @throws PortalException if the user with the email does not exist
+     * @throws LiferaySetupException if the company has no administrator or the permission checker can not be created
+     */
+    public static Identity get(final long companyId, final String email) throws PortalException, LiferaySetupException {
+        String user = email == null || email.isEmpty() ? ADMINISTRATOR : email.toLowerCase(Locale.ENGLISH);
+        String key = companyId + "#" + user;
+        ResolvedUser resolved = USERS.get(key);
+        if (resolved == null || resolved.isExpired()) {
+            resolved = new ResolvedUser(resolve(companyId, user));
+            USERS.put(key, resolved);
+        }
+        return new Identity(resolved.user.getUserId(), newPermissionChecker(resolved.user));
+    }
+
+    /**
+     * @param permissionChecker permission checker of another thread, may be null
+     * @return new permission checker of the same user for the current thread, null if none was given
+     * @throws LiferaySetupException if the permission checker can not be created
+     */
+    public static PermissionChecker forCurrentThread(final PermissionChecker permissionChecker)
+            throws LiferaySetupException {
+        if (permissionChecker == null || permissionChecker.getUser() == null) {
+            return permissionChecker;
+        }
+        return newPermissionChecker(permissionChecker.getUser());
+    }
+
+    /**
+     * Forgets all resolved users, they are looked up again by the next run.
+     */
+    public static void clear() {
+        USERS.clear();
+    }
+
+    private static User resolve(final long companyId, final String user) throws PortalException, LiferaySetupException {
+        User runAsUser = ADMINISTRATOR.equals(user) ? getAdminUser(companyId)
+                : UserLocalServiceUtil.getUserByEmailAddress(companyId, user);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Resolved run as user %1$s in company %2$s", runAsUser.getEmailAddress(),
+                    companyId));
+        }
+        return runAsUser;
+    }
+
+    private static PermissionChecker newPermissionChecker(final User user) throws LiferaySetupException {
+        try {
+            return PermissionCheckerFactoryUtil.create(user);
+        } catch (Exception e) {
+            throw new LiferaySetupException(
+                    String.format("Failed to create permission checker for user: %1$s", user.getEmailAddress()), e);
+        }
+    }
+
+    /**
+     * Fetches only the first user of the administrator role, not all of them.
+     */
+    private static User getAdminUser(final long companyId) throws LiferaySetupException {
+        try {
+            Role adminRole = RoleLocalServiceUtil.getRole(companyId, RoleConstants.ADMINISTRATOR);
+            List<User> adminUsers = UserLocalServiceUtil.getRoleUsers(adminRole.getRoleId(), 0, 1);
+            if (adminUsers == null || adminUsers.isEmpty()) {
+                throw new LiferaySetupException(
+                        String.format("No user with role %1$s found in company %2$s", RoleConstants.ADMINISTRATOR,
+                                companyId));
+            }
+            return adminUsers.get(0);
+        } catch (PortalException e) {
+            throw new LiferaySetupException(
+                    String.format("Cannot obtain Liferay role for role name: %1$s", RoleConstants.ADMINISTRATOR), e);
+        }
+    }
+
+    private static final class ResolvedUser {
+        private final User user;
+        private final long resolvedAt = System.nanoTime();
+
+        private ResolvedUser(final User user) {
+            this.user = user;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - resolvedAt > TTL_NANOS;
+        }
+    }
+
+    /**
+     * Resolved run as user.
+     */
+    public static final class Identity {
+        private final long userId;
+        private final PermissionChecker permissionChecker;
+
+        private Identity(final long userId, final PermissionChecker permissionChecker) {
+            this.userId = userId;
+            this.permissionChecker = permissionChecker;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public PermissionChecker getPermissionChecker() {
+            return permissionChecker;
+        }
+    }
+}
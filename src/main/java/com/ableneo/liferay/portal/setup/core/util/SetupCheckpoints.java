@@ -0,0 +1,154 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.ableneo.liferay.portal.setup.domain.Site;
+import com.liferay.petra.string.StringPool;
+
+/**
+ * Units of a setup run completed so far, i.e. stages and sites, kept in the {@link SetupLedger} of the company under
+ * the hash of the setup configuration. Checkpoints are kept only by runs that ask to resume or have a time budget; a
+ * run that failed or yielded can be resumed with the same configuration, the completed units are skipped then. The
+ * checkpoints of a company are removed when its setup succeeds.
+ */
+public final class SetupCheckpoints {
+
+    private static final String COMPLETED = "completed";
+    // options of the run, they don't change what the run writes
+    private static final Set<String> RUN_OPTIONS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("resume", "writes-per-second", "max-concurrent-operations", "time-budget-seconds")));
+
+    private final String configurationHash;
+    private final Set<String> units = ConcurrentHashMap.newKeySet();
+
+    public SetupCheckpoints(final String configurationHash) {
+        this.configurationHash = configurationHash;
+    }
+
+    /**
+     * @param setup configuration of db setup runner
+     * @return checkpoints of the configuration, null if the configuration doesn't keep them
+     */
+    public static SetupCheckpoints of(final Setup setup) {
+        return isKept(setup) ? new SetupCheckpoints(hash(setup)) : null;
+    }
+
+    /**
+     * @param setup configuration of db setup runner
+     * @return true if the run asks to resume or has a time budget, a run stopped by its budget continues when run again
+     */
+    public static boolean isKept(final Setup setup) {
+        return setup.getConfiguration().isResume() || setup.getConfiguration().getTimeBudgetSeconds() > 0;
+    }
+
+    /**
+     * @return hash of the setup configuration, the same whether the run is resumed or not and whatever its throttle
+     */
+    public static String hash(final Setup setup) {
+        return hash(setup, null);
+    }
+
+    /**
+     * @param setup setup configuration, may hold only a part of the configuration; it is not changed
+     * @param content hash of the rest of the configuration, e.g. of a streamed file
+     * @return hash of the setup configuration and the content, the same whether the run is resumed or not and
+     *         whatever its throttle
+     */
+    public static String hash(final Setup setup, final String content) {
+        return SetupLedger.hash(setup, content, RUN_OPTIONS);
+    }
+
+    public String getConfigurationHash() {
+        return configurationHash;
+    }
+
+    /**
+     * @param unit unit of the run, see {@link #stage(String)} and {@link #site(Site)}
+     * @return true if the run is resumed and the unit was completed by a previous run of the same configuration
+     */
+    public static boolean isCompleted(final String unit) {
+        SetupCheckpoints checkpoints = SetupConfigurationThreadLocal.getCheckpoints();
+        if (checkpoints == null) {
+            return false;
+        }
+        boolean completed = SetupLedger.isRecorded(checkpoints.key(unit), COMPLETED);
+        if (completed) {
+            checkpoints.units.add(unit);
+        }
+        return completed;
+    }
+
+    /**
+     * Records the unit as completed in the company of the current thread if the run keeps checkpoints.
+     */
+    public static void complete(final String unit) {
+        SetupCheckpoints checkpoints = SetupConfigurationThreadLocal.getCheckpoints();
+        if (checkpoints != null) {
+            SetupLedger.record(checkpoints.key(unit), COMPLETED);
+            checkpoints.units.add(unit);
+        }
+    }
+
+    /**
+     * Removes the checkpoints of the units seen by the run from the company of the current thread, called once the
+     * setup of the company succeeded.
+     */
+    public static void clear() {
+        SetupCheckpoints checkpoints = SetupConfigurationThreadLocal.getCheckpoints();
+        if (checkpoints != null) {
+            for (String unit : checkpoints.units) {
+                SetupLedger.remove(checkpoints.key(unit));
+            }
+            checkpoints.units.clear();
+        }
+    }
+
+    public static String stage(final String name) {
+        return SetupLedger.entityKey("stage", name);
+    }
+
+    public static String site(final Site site) {
+        if (site.isDefault()) {
+            return SetupLedger.entityKey("site", "default");
+        }
+        return SetupLedger.entityKey("site", site.getName() == null ? "global" : site.getName());
+    }
+
+    private String key(final String unit) {
+        return SetupLedger.entityKey("checkpoint", configurationHash) + StringPool.POUND + unit;
+    }
+}
@@ -0,0 +1,184 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+
+/**
+ * Executors for independent units of setup work, e.g. companies or sites set up at the same time. The work mostly
+ * waits for the database, document store and search index, therefore the executor threads are virtual when the JVM
+ * supports them (Java 21+), platform threads otherwise. The JVM is checked at runtime, the library keeps running on
+ * Java 8. Virtual threads are not pooled, every task gets a thread of its own and a semaphore bounds the number of
+ * tasks running at the same time; platform threads are pooled.
+ */
+public final class SetupExecutors {
+
+    private static final Log LOG = LogFactoryUtil.getLog(SetupExecutors.class);
+    private static final boolean VIRTUAL_THREADS_AVAILABLE = newVirtualThreadFactory("db-setup-probe-") != null;
+
+    private SetupExecutors() {}
+
+    /**
+     * @param name name of the work, used in the names of the threads
+     * @param parallelism maximal number of units of work done at the same time
+     * @return executor running at most <code>parallelism</code> tasks at the same time
+     */
+    public static ExecutorService newExecutor(final String name, final int parallelism) {
+        String prefix = "db-setup-" + name + "-";
+        ThreadFactory threadFactory = VIRTUAL_THREADS_AVAILABLE ? newVirtualThreadFactory(prefix) : null;
+        ExecutorService executor = threadFactory != null ? newThreadPerTaskExecutor(threadFactory) : null;
+        if (executor != null) {
+            return new BoundedExecutor(executor, Math.max(1, parallelism));
+        }
+        return Executors.newFixedThreadPool(Math.max(1, parallelism), newPlatformThreadFactory(prefix));
+    }
+
+    /**
+     * @return true if the executors run their tasks on virtual threads
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        return VIRTUAL_THREADS_AVAILABLE;
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(final String prefix) {
+        final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return task -> {
+            Thread thread = defaultFactory.newThread(task);
+            thread.setName(prefix + threadNumber.getAndIncrement());
+            return thread;
+        };
+    }
+
+    /**
+     * Calls <code>Executors.newThreadPerTaskExecutor(threadFactory)</code> by reflection.
+     *
+     * @return executor starting a new thread for every task, null if the JVM has none
+     */
+    private static ExecutorService newThreadPerTaskExecutor(final ThreadFactory threadFactory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Thread per task executor is not available, using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Calls <code>Thread.ofVirtual().name(prefix, 0).factory()</code> by reflection.
+     *
+     * @return factory of virtual threads, null if the JVM has none
+     */
+    private static ThreadFactory newVirtualThreadFactory(final String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Java before 21, or 19 and 20 without preview features enabled
+            LOG.debug("Virtual threads are not available, using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Runs at most the given number of tasks of the delegate at the same time. The tasks wait for a permit in their
+     * own threads, virtual threads waiting for a permit are cheap.
+     */
+    private static final class BoundedExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+
+        private BoundedExecutor(final ExecutorService delegate, final int parallelism) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(parallelism);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            delegate.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    // the executor was shut down now, the task does not run
+                    Thread.currentThread().interrupt();
+                    if (command instanceof Future) {
+                        ((Future<?>) command).cancel(false);
+                    }
+                    return;
+                }
+                try {
+                    command.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
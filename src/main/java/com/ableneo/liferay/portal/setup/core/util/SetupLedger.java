@@ -0,0 +1,403 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.xml.bind.JAXBException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.ableneo.liferay.portal.setup.MarshallUtil;
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupPlan;
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache.Kind;
+import com.liferay.expando.kernel.model.ExpandoColumnConstants;
+import com.liferay.expando.kernel.model.ExpandoTable;
+import com.liferay.expando.kernel.service.ExpandoColumnLocalServiceUtil;
+import com.liferay.expando.kernel.service.ExpandoTableLocalServiceUtil;
+import com.liferay.expando.kernel.service.ExpandoValueLocalServiceUtil;
+import com.liferay.petra.string.StringPool;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.exception.SystemException;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
+
+/**
+ * Persistent record of the content hash each declared entity was last written with. The ledger is kept in an expando
+ * table of the company, one row per entity. Setup modules skip the update of an existing entity whose declaration
+ * and content hash is the same as recorded, unless the run is forced by
+ * {@link SetupConfigurationThreadLocal#isForceFullRun()}.
+ */
+public final class SetupLedger {
+
+    public static final String TABLE_NAME = "DB_SETUP_LEDGER";
+    private static final String KEY_COLUMN = "entityKey";
+    private static final String HASH_COLUMN = "hash";
+    private static final String CLASS_NAME = SetupLedger.class.getName();
+    private static final Log LOG = LogFactoryUtil.getLog(SetupLedger.class);
+
+    private SetupLedger() {}
+
+    /**
+     * @param declaration element of the setup configuration, e.g. the article
+     * @param content content the entity is written with, e.g. the resolved article content
+     * @return hash of the declaration and the content
+     */
+    public static String hash(final Object declaration, final String content) {
+        return hash(declaration, content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param declaration element of the setup configuration, e.g. the document
+     * @param content content the entity is written with, e.g. the bytes of the file
+     * @return hash of the declaration and the content
+     */
+    public static String hash(final Object declaration, final byte[] content) {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new DigestOutputStream(new NullOutputStream(), digest)) {
+            MarshallUtil.marshallFragment(declaration, out);
+        } catch (JAXBException | IOException e) {
+            // the hash then covers the content only, unchanged content is still recognized
+            LOG.warn(String.format("Could not hash declaration %1$s", declaration), e);
+        }
+        digest.update(content == null ? new byte[0] : content);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param declaration element of the setup configuration, e.g. the whole configuration
+     * @param content content the entity is written with
+     * @param excludedAttributes names of the attributes left out of the declaration, e.g. options of the run that
+     *        don't change what is written; the declaration itself is not changed
+     * @return hash of the declaration without the attributes and of the content
+     */
+    public static String hash(final Object declaration, final String content, final Set<String> excludedAttributes) {
+        return hash(declaration, content, excludedAttributes, Collections.emptySet());
+    }
+
+    /**
+     * @param declaration element of the setup configuration, e.g. a page
+     * @param content content the entity is written with
+     * @param excludedAttributes names of the attributes left out of the declaration
+     * @param excludedElements names of the nested elements left out of the declaration with their content, e.g. the
+     *        child pages of a page which are written on their own; the declaration itself is not changed
+     * @return hash of the declaration without the attributes and elements and of the content
+     */
+    public static String hash(final Object declaration, final String content, final Set<String> excludedAttributes,
+            final Set<String> excludedElements) {
+        MessageDigest digest = newDigest();
+        try {
+            MarshallUtil.marshallFragment(declaration,
+                    new DigestHandler(digest, excludedAttributes, excludedElements));
+        } catch (JAXBException e) {
+            LOG.warn(String.format("Could not hash declaration %1$s", declaration), e);
+        }
+        digest.update(content == null ? new byte[0] : content.getBytes(StandardCharsets.UTF_8));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param declaration element of the setup configuration, e.g. the article
+     * @param parts values the entity is written with, e.g. the resolved content and the folder; each part is digested
+     *        on its own, prefixed by its length, so neighbouring parts can't be confused
+     * @return hash of the declaration and the parts
+     */
+    public static String hashParts(final Object declaration, final String... parts) {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new DigestOutputStream(new NullOutputStream(), digest)) {
+            MarshallUtil.marshallFragment(declaration, out);
+        } catch (JAXBException | IOException e) {
+            LOG.warn(String.format("Could not hash declaration %1$s", declaration), e);
+        }
+        for (String part : parts) {
+            byte[] bytes = part == null ? new byte[0] : part.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(part == null ? -1 : bytes.length).array());
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param entityKey unique key of the entity in the company, e.g. <code>article#groupId#articleId</code>
+     * @param hash hash of the entity to be written
+     * @return true if the entity was already written with the same hash or is planned as no-op by the plan the run
+     *         executes, false if the run is forced
+     */
+    public static boolean isUnchanged(final String entityKey, final String hash) {
+        if (SetupConfigurationThreadLocal.isForceFullRun()) {
+            return false;
+        }
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        SetupPlan plan = SetupConfigurationThreadLocal.getPlan();
+        if (plan != null && plan.isNoOp(companyId, entityKey)) {
+            return true;
+        }
+        return isRecorded(entityKey, hash);
+    }
+
+    /**
+     * @param entityKey unique key of the entity in the company
+     * @param hash hash of the entity
+     * @return true if the ledger has the entity recorded with the hash, regardless of the forced or planned run
+     */
+    public static boolean isRecorded(final String entityKey, final String hash) {
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        // read only, e.g. a dry run must not create the table, a missing table means nothing is recorded yet
+        if (!isTableReady(companyId)) {
+            return false;
+        }
+        long rowId = rowId(entityKey);
+        ResolverCache.countLookup();
+        try {
+            String recordedKey = ExpandoValueLocalServiceUtil.getData(companyId, CLASS_NAME, TABLE_NAME, KEY_COLUMN,
+                    rowId, StringPool.BLANK);
+            String recordedHash = ExpandoValueLocalServiceUtil.getData(companyId, CLASS_NAME, TABLE_NAME, HASH_COLUMN,
+                    rowId, StringPool.BLANK);
+            return entityKey.equals(recordedKey) && hash.equals(recordedHash);
+        } catch (PortalException e) {
+            LOG.error(String.format("Could not read setup ledger entry of %1$s", entityKey), e);
+        }
+        return false;
+    }
+
+    /**
+     * Records the hash the entity was written with.
+     *
+     * @param entityKey unique key of the entity in the company
+     * @param hash hash of the written entity
+     */
+    public static void record(final String entityKey, final String hash) {
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        if (!ensureTable(companyId)) {
+            return;
+        }
+        long rowId = rowId(entityKey);
+        try {
+            ExpandoValueLocalServiceUtil.addValue(companyId, CLASS_NAME, TABLE_NAME, KEY_COLUMN, rowId, entityKey);
+            ExpandoValueLocalServiceUtil.addValue(companyId, CLASS_NAME, TABLE_NAME, HASH_COLUMN, rowId, hash);
+        } catch (PortalException e) {
+            LOG.error(String.format("Could not record setup ledger entry of %1$s", entityKey), e);
+        }
+    }
+
+    /**
+     * Removes the entry of the entity from the ledger.
+     *
+     * @param entityKey unique key of the entity in the company
+     */
+    public static void remove(final String entityKey) {
+        long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+        if (!ensureTable(companyId)) {
+            return;
+        }
+        long rowId = rowId(entityKey);
+        try {
+            ExpandoValueLocalServiceUtil.deleteValue(companyId, CLASS_NAME, TABLE_NAME, KEY_COLUMN, rowId);
+            ExpandoValueLocalServiceUtil.deleteValue(companyId, CLASS_NAME, TABLE_NAME, HASH_COLUMN, rowId);
+        } catch (PortalException e) {
+            LOG.error(String.format("Could not remove setup ledger entry of %1$s", entityKey), e);
+        }
+    }
+
+    /**
+     * @return key of the entity made of its type and identifying values
+     */
+    public static String entityKey(final String type, final Object... ids) {
+        StringBuilder key = new StringBuilder(type);
+        for (Object id : ids) {
+            key.append(StringPool.POUND).append(id);
+        }
+        return key.toString();
+    }
+
+    static long rowId(final String entityKey) {
+        byte[] digest = newDigest().digest(entityKey.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong() & Long.MAX_VALUE;
+    }
+
+    private static boolean isTableReady(final long companyId) {
+        Boolean ready = ResolverCache.getInCompany(companyId, Kind.LEDGER, TABLE_NAME, () -> {
+            try {
+                long classNameId = ClassNameLocalServiceUtil.getClassNameId(CLASS_NAME);
+                ExpandoTable table = ExpandoTableLocalServiceUtil.fetchTable(companyId, classNameId, TABLE_NAME);
+                return table != null && ExpandoColumnLocalServiceUtil.getColumn(table.getTableId(), KEY_COLUMN) != null
+                        && ExpandoColumnLocalServiceUtil.getColumn(table.getTableId(), HASH_COLUMN) != null;
+            } catch (SystemException e) {
+                LOG.error(String.format("Setup ledger can not be read in company %1$s", companyId), e);
+            }
+            return Boolean.FALSE;
+        });
+        return Boolean.TRUE.equals(ready);
+    }
+
+    private static boolean ensureTable(final long companyId) {
+        if (isTableReady(companyId)) {
+            return true;
+        }
+        Boolean created = ResolverCache.getInCompany(companyId, Kind.LEDGER, TABLE_NAME + StringPool.POUND + "create",
+                () -> {
+                    try {
+                        long classNameId = ClassNameLocalServiceUtil.getClassNameId(CLASS_NAME);
+                        ExpandoTable table =
+                                ExpandoTableLocalServiceUtil.fetchTable(companyId, classNameId, TABLE_NAME);
+                        if (table == null) {
+                            table = ExpandoTableLocalServiceUtil.addTable(companyId, CLASS_NAME, TABLE_NAME);
+                        }
+                        for (String column : new String[] {KEY_COLUMN, HASH_COLUMN}) {
+                            if (ExpandoColumnLocalServiceUtil.getColumn(table.getTableId(), column) == null) {
+                                ExpandoColumnLocalServiceUtil.addColumn(table.getTableId(), column,
+                                        ExpandoColumnConstants.STRING);
+                            }
+                        }
+                        return Boolean.TRUE;
+                    } catch (PortalException e) {
+                        LOG.error(String.format("Setup ledger can not be used in company %1$s", companyId), e);
+                    }
+                    return Boolean.FALSE;
+                });
+        // the missing table is cached by the read only check
+        ResolverCache.invalidateInCompany(companyId, Kind.LEDGER, TABLE_NAME);
+        return Boolean.TRUE.equals(created);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Digests elements, attributes and text of a marshalled declaration. Every name and value is prefixed by its
+     * length, so different declarations can't digest the same.
+     */
+    private static final class DigestHandler extends DefaultHandler {
+        private final MessageDigest digest;
+        private final Set<String> excludedAttributes;
+        private final Set<String> excludedElements;
+        private final StringBuilder text = new StringBuilder();
+        private int depth;
+        // depth of the excluded element being skipped, 0 if none
+        private int excludedDepth;
+
+        private DigestHandler(final MessageDigest digest, final Set<String> excludedAttributes,
+                final Set<String> excludedElements) {
+            this.digest = digest;
+            this.excludedAttributes = excludedAttributes;
+            this.excludedElements = excludedElements;
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName,
+                final Attributes attributes) {
+            depth++;
+            if (excludedDepth == 0 && depth > 1 && excludedElements.contains(localName)) {
+                excludedDepth = depth;
+            }
+            if (excludedDepth > 0) {
+                return;
+            }
+            flushText();
+            update("<" + localName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                if (!excludedAttributes.contains(attributes.getLocalName(i))) {
+                    update(attributes.getLocalName(i));
+                    update(attributes.getValue(i));
+                }
+            }
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) {
+            if (excludedDepth > 0) {
+                if (excludedDepth == depth) {
+                    excludedDepth = 0;
+                }
+                depth--;
+                return;
+            }
+            depth--;
+            flushText();
+            update(">");
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) {
+            if (excludedDepth > 0) {
+                return;
+            }
+            // the marshaller may pass a text in pieces
+            text.append(ch, start, length);
+        }
+
+        private void flushText() {
+            if (text.length() > 0) {
+                update(text.toString());
+                text.setLength(0);
+            }
+        }
+
+        private void update(final String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+    }
+
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            // only the digest is needed
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // only the digest is needed
+        }
+    }
+}
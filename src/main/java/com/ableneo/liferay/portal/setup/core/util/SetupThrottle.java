@@ -0,0 +1,188 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.liferay.petra.lang.CentralizedThreadLocal;
+
+/**
+ * Limits the load a setup run puts on the database, so it can run next to user traffic: the number of entities
+ * written per second (token bucket), the number of setup transactions and writes running at the same time and the
+ * time the run may take. One throttle is shared by all companies and sites of a run set up in parallel.
+ * <p/>
+ * The limits apply to the entities written by {@link TransactionChunks}, i.e. users, user groups, organizations, roles,
+ * portlet permissions, custom fields, articles and documents, to the sites, pages, structures, templates, vocabularies
+ * and categories written within a {@link #write()} and to the setup transactions.
+ */
+public final class SetupThrottle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final ThreadLocal<Integer> _operationDepth =
+            new CentralizedThreadLocal<>(SetupThrottle.class + "._operationDepth", () -> 0);
+
+    private final int writesPerSecond;
+    private final Semaphore operations;
+    private final int timeBudgetSeconds;
+    private final long deadline;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param writesPerSecond maximal number of entities written per second, 0 for unlimited
+     * @param maxConcurrentOperations maximal number of transactions and writes at the same time, 0 for unlimited
+     * @param timeBudgetSeconds time the run may take from now, 0 for unlimited
+     */
+    public SetupThrottle(final int writesPerSecond, final int maxConcurrentOperations, final int timeBudgetSeconds) {
+        this.writesPerSecond = writesPerSecond;
+        this.operations = maxConcurrentOperations > 0 ? new Semaphore(maxConcurrentOperations, true) : null;
+        this.timeBudgetSeconds = timeBudgetSeconds;
+        this.refilledAt = System.nanoTime();
+        this.deadline = refilledAt + TimeUnit.SECONDS.toNanos(timeBudgetSeconds);
+        this.tokens = writesPerSecond;
+    }
+
+    /**
+     * @param setup configuration of db setup runner
+     * @return throttle of the configured limits, null if nothing is limited
+     */
+    public static SetupThrottle of(final Setup setup) {
+        Configuration configuration = setup.getConfiguration();
+        if (configuration.getWritesPerSecond() <= 0 && configuration.getMaxConcurrentOperations() <= 0
+                && configuration.getTimeBudgetSeconds() <= 0) {
+            return null;
+        }
+        return new SetupThrottle(configuration.getWritesPerSecond(), configuration.getMaxConcurrentOperations(),
+                configuration.getTimeBudgetSeconds());
+    }
+
+    /**
+     * Waits until the throttle of the current run allows another entity to be written.
+     */
+    public static void acquireWrite() {
+        SetupThrottle throttle = SetupConfigurationThreadLocal.getThrottle();
+        if (throttle == null || throttle.writesPerSecond <= 0) {
+            return;
+        }
+        long wait = throttle.reserveWrite();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until fewer than the allowed number of operations run, operations nested in an operation of the current
+     * thread are not counted again. Each call must be followed by {@link #releaseOperation()}.
+     */
+    public static void acquireOperation() {
+        int depth = _operationDepth.get();
+        _operationDepth.set(depth + 1);
+        SetupThrottle throttle = SetupConfigurationThreadLocal.getThrottle();
+        if (depth == 0 && throttle != null && throttle.operations != null) {
+            throttle.operations.acquireUninterruptibly();
+        }
+    }
+
+    public static void releaseOperation() {
+        int depth = _operationDepth.get() - 1;
+        if (depth <= 0) {
+            _operationDepth.remove();
+        } else {
+            _operationDepth.set(depth);
+        }
+        SetupThrottle throttle = SetupConfigurationThreadLocal.getThrottle();
+        if (depth == 0 && throttle != null && throttle.operations != null) {
+            throttle.operations.release();
+        }
+    }
+
+    /**
+     * Starts the write of an entity set up outside of {@link TransactionChunks}, e.g. a site or a page. Waits until the
+     * throttle of the current run allows another entity to be written and fewer than the allowed number of operations
+     * run, the operation is released when the write is closed.
+     *
+     * @return write to be closed once the entity is written
+     */
+    public static Write write() {
+        acquireWrite();
+        acquireOperation();
+        return new Write();
+    }
+
+    /**
+     * @return true if the time budget of the current run is over
+     */
+    public static boolean isBudgetExhausted() {
+        SetupThrottle throttle = SetupConfigurationThreadLocal.getThrottle();
+        return throttle != null && throttle.timeBudgetSeconds > 0 && System.nanoTime() - throttle.deadline >= 0;
+    }
+
+    /**
+     * @param unit stage or site that was not started
+     * @return message of a run stopped because its time budget is over
+     */
+    public static String budgetExhaustedMessage(final String unit) {
+        SetupThrottle throttle = SetupConfigurationThreadLocal.getThrottle();
+        return String.format("Time budget of %1$s s is over before %2$s, run the setup again to continue",
+                throttle == null ? 0 : throttle.timeBudgetSeconds, unit);
+    }
+
+    /**
+     * Takes a token, the bucket may go into debt which the caller waits for.
+     *
+     * @return nanoseconds to wait before writing
+     */
+    synchronized long reserveWrite() {
+        long now = System.nanoTime();
+        tokens = Math.min(writesPerSecond, tokens + (double) (now - refilledAt) * writesPerSecond / NANOS_PER_SECOND);
+        refilledAt = now;
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens * NANOS_PER_SECOND / writesPerSecond);
+    }
+
+    /**
+     * Write of an entity started by {@link #write()}, releases its operation when closed.
+     */
+    public static final class Write implements AutoCloseable {
+
+        private Write() {}
+
+        @Override
+        public void close() {
+            releaseOperation();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupListener;
+import com.liferay.petra.lang.CentralizedThreadLocal;
+import com.liferay.portal.kernel.log.Log;
+import com.liferay.portal.kernel.log.LogFactoryUtil;
+import com.liferay.portal.kernel.transaction.Propagation;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+
+/**
+ * Writes entities in transactions of {@link SetupConfigurationThreadLocal#getTransactionChunkSize()} entities, so the
+ * commit is not paid for each of them. A chunk whose transaction fails is written again entity by entity, each in its
+ * own transaction, so one bad entity does not lose the rest of the chunk.
+ * <p/>
+ * Entities are reported as processed to the {@link SetupListener} of the run once their transaction is committed.
+ * Writes and transactions are limited by the {@link SetupThrottle} of the run.
+ */
+public final class TransactionChunks {
+
+    private static final Log LOG = LogFactoryUtil.getLog(TransactionChunks.class);
+    private static final TransactionConfig TRANSACTION_CONFIG =
+            TransactionConfig.Factory.create(Propagation.REQUIRED, new Class<?>[] {Exception.class});
+    private static final ThreadLocal<Boolean> _inTransaction =
+            new CentralizedThreadLocal<>(TransactionChunks.class + "._inTransaction", () -> Boolean.FALSE);
+
+    private TransactionChunks() {}
+
+    /**
+     * Sets up each of the items, in chunks of the configured size when chunking is enabled and no setup transaction
+     * is running already.
+     *
+     * @param items entities to be set up
+     * @param name name of an item to be logged
+     * @param setup sets up one item, handles expected failures itself
+     */
+    public static <T> void forEach(final List<T> items, final Function<T, String> name, final Consumer<T> setup) {
+        int chunkSize = SetupConfigurationThreadLocal.getTransactionChunkSize();
+        if (chunkSize <= 1 || isInTransaction()) {
+            for (T item : items) {
+                write(item, setup);
+                processed(name, item);
+            }
+            return;
+        }
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            List<T> chunk = items.subList(from, Math.min(from + chunkSize, items.size()));
+            try {
+                inTransaction(() -> {
+                    chunk.forEach(item -> write(item, setup));
+                    return null;
+                });
+                chunk.forEach(item -> processed(name, item));
+            } catch (Throwable t) {
+                LOG.warn(String.format("Transaction of %1$s items failed, setting them up one by one", chunk.size()),
+                        t);
+                retryOneByOne(chunk, name, setup);
+            }
+        }
+    }
+
+    /**
+     * Runs the task in a setup transaction. Chunks of {@link #forEach(List, Function, Consumer)} called by the task
+     * are part of this transaction.
+     *
+     * @param task work to be done in the transaction
+     * @return result of the task
+     * @throws Throwable failure of the task or of the transaction
+     */
+    public static <T> T inTransaction(final Callable<T> task) throws Throwable {
+        if (isInTransaction()) {
+            return task.call();
+        }
+        SetupThrottle.acquireOperation();
+        _inTransaction.set(Boolean.TRUE);
+        ResolverCache.beginTransaction();
+        boolean committed = false;
+        try {
+            T result = TransactionInvokerUtil.invoke(TRANSACTION_CONFIG, task);
+            committed = true;
+            return result;
+        } finally {
+            // entities looked up in a rolled back transaction may not exist anymore, only their groups and kinds are
+            // dropped from the cache
+            ResolverCache.endTransaction(!committed);
+            _inTransaction.remove();
+            SetupThrottle.releaseOperation();
+        }
+    }
+
+    /**
+     * @return true if the current thread runs in a setup transaction
+     */
+    public static boolean isInTransaction() {
+        return _inTransaction.get();
+    }
+
+    private static <T> void retryOneByOne(final List<T> chunk, final Function<T, String> name,
+            final Consumer<T> setup) {
+        for (T item : chunk) {
+            try {
+                inTransaction(() -> {
+                    write(item, setup);
+                    return null;
+                });
+                processed(name, item);
+            } catch (Throwable t) {
+                LOG.error(String.format("Setup of %1$s failed", name.apply(item)), t);
+                failed(name, item, t);
+            }
+        }
+    }
+
+    /**
+     * Writes the item within the limits of the {@link SetupThrottle} of the run.
+     */
+    private static <T> void write(final T item, final Consumer<T> setup) {
+        try (SetupThrottle.Write write = SetupThrottle.write()) {
+            setup.accept(item);
+        }
+    }
+
+    private static <T> void processed(final Function<T, String> name, final T item) {
+        SetupListener listener = SetupConfigurationThreadLocal.getListener();
+        if (listener != SetupListener.NONE) {
+            listener.entityProcessed(SetupConfigurationThreadLocal.getRunInCompanyId(), name.apply(item));
+        }
+    }
+
+    private static <T> void failed(final Function<T, String> name, final T item, final Throwable failure) {
+        SetupListener listener = SetupConfigurationThreadLocal.getListener();
+        if (listener != SetupListener.NONE) {
+            listener.error(SetupConfigurationThreadLocal.getRunInCompanyId(), name.apply(item), failure);
+        }
+    }
+}
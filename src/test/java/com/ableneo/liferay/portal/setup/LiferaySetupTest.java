@@ -0,0 +1,148 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.core.util.RunAsUsers;
+import com.ableneo.liferay.portal.setup.domain.Company;
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
+
+import mockit.Mocked;
+
+class LiferaySetupTest {
+
+    @Mocked
+    RunAsUsers runAsUsers;
+    @Mocked
+    GroupLocalServiceUtil groupLocalServiceUtil;
+
+    @BeforeEach
+    void resetStage() {
+        CompanyStage.COMPANY_IDS.clear();
+        CompanyStage.barrier = null;
+        CompanyStage.failingCompanyId = -1;
+        CompanyStage.yieldingCompanyId = -1;
+    }
+
+    @Test
+    void companiesAreSetUpConcurrently() {
+        // each company waits for the other one, a sequential run would time out
+        CompanyStage.barrier = new CyclicBarrier(2);
+        SetupReport report = LiferaySetup.setupInParallel(setup(1l, 2l), 2);
+        assertTrue(report.isSuccessful(), report.toString());
+        assertEquals(new HashSet<>(Arrays.asList(1l, 2l)), CompanyStage.COMPANY_IDS);
+    }
+
+    @Test
+    void failureOfCompanyDoesNotStopOthers() {
+        CompanyStage.failingCompanyId = 1l;
+        SetupReport report = LiferaySetup.setupInParallel(setup(1l, 2l, 3l), 2);
+        assertEquals(3, report.getCompanyResults().size());
+        assertEquals(1, report.getFailures().size());
+        assertEquals(1l, report.getFailures().get(0).getCompanyId());
+        assertEquals(new HashSet<>(Arrays.asList(1l, 2l, 3l)), CompanyStage.COMPANY_IDS);
+    }
+
+    @Test
+    void yieldedCompanyIsNotAFailure() {
+        CompanyStage.yieldingCompanyId = 2l;
+        SetupReport report = LiferaySetup.setupInParallel(setup(1l, 2l), 2);
+        assertTrue(report.isSuccessful(), report.toString());
+        assertFalse(report.isComplete());
+        assertEquals(1, report.getYielded().size());
+        assertEquals(2l, report.getYielded().get(0).getCompanyId());
+        assertEquals("Budget is over", report.getYielded().get(0).getYieldReason());
+    }
+
+    private static Setup setup(final Long... companyIds) {
+        Configuration configuration = new Configuration();
+        configuration.setStages(CompanyStage.class.getName());
+        for (Long companyId : companyIds) {
+            Company company = new Company();
+            company.setCompanyid(companyId);
+            configuration.getCompany().add(company);
+        }
+        Setup setup = new Setup();
+        setup.setConfiguration(configuration);
+        return setup;
+    }
+
+    /**
+     * Records the company of the thread it is executed on.
+     */
+    public static class CompanyStage implements SetupStage {
+        static final Set<Long> COMPANY_IDS = ConcurrentHashMap.newKeySet();
+        static volatile CyclicBarrier barrier;
+        static volatile long failingCompanyId;
+        static volatile long yieldingCompanyId;
+
+        @Override
+        public String getName() {
+            return "company";
+        }
+
+        @Override
+        public int countEntities(final Setup setup) {
+            return 1;
+        }
+
+        @Override
+        public void execute(final Setup setup) throws LiferaySetupException {
+            long companyId = SetupConfigurationThreadLocal.getRunInCompanyId();
+            COMPANY_IDS.add(companyId);
+            if (companyId == failingCompanyId) {
+                throw new LiferaySetupException(String.format("Company %1$s fails", companyId));
+            }
+            if (companyId == yieldingCompanyId) {
+                throw new SetupYieldedException("Budget is over");
+            }
+            if (barrier != null) {
+                try {
+                    barrier.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new LiferaySetupException("Companies are not set up concurrently", e);
+                }
+            }
+        }
+    }
+}
@@ -32,10 +32,21 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
 class MarshallUtilTest {
 
     private File validConfiguration;
@@ -61,9 +72,87 @@ class MarshallUtilTest {
         assertNotNull(MarshallUtil.unmarshall(validConfiguration));
     }
 
+    @Test
+    void unmarshallInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Setup>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                File configuration = i % 2 == 0 ? validConfiguration : invalidConfiguration;
+                results.add(executor.submit(() -> MarshallUtil.unmarshall(configuration)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Setup setup = results.get(i).get(30, TimeUnit.SECONDS);
+                assertEquals(i % 2 == 0, setup != null);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     void validateAgainstXSD() {
         assertTrue(MarshallUtil.validateAgainstXSD(validConfiguration));
         assertFalse(MarshallUtil.validateAgainstXSD(invalidConfiguration));
     }
+
+    @Test
+    void loadValid() throws FileNotFoundException {
+        SetupLoadResult result = MarshallUtil.load(validConfiguration);
+        assertTrue(result.isValid());
+        assertNotNull(result.getSetup());
+    }
+
+    @Test
+    void loadInvalidReportsLocations() throws FileNotFoundException {
+        SetupLoadResult result = MarshallUtil.load(invalidConfiguration);
+        assertFalse(result.isValid());
+        assertNull(result.getSetup());
+        assertFalse(result.getDiagnostics().isEmpty());
+        for (SetupLoadResult.Diagnostic diagnostic : result.getDiagnostics()) {
+            assertTrue(diagnostic.getLine() > 0, diagnostic.toString());
+        }
+    }
+
+    @Test
+    void unmarshallAfterValidation() throws FileNotFoundException {
+        assertTrue(MarshallUtil.validateAgainstXSD(validConfiguration));
+        assertNotNull(MarshallUtil.unmarshall(validConfiguration));
+        assertFalse(MarshallUtil.validateAgainstXSD(invalidConfiguration));
+        assertNull(MarshallUtil.unmarshall(invalidConfiguration));
+    }
+
+    @Test
+    void unmarshallAfterValidationOfOtherFiles() throws FileNotFoundException {
+        assertTrue(MarshallUtil.validateAgainstXSD(validConfiguration));
+        assertFalse(MarshallUtil.validateAgainstXSD(invalidConfiguration));
+        assertNotNull(MarshallUtil.unmarshall(validConfiguration));
+        assertNull(MarshallUtil.unmarshall(invalidConfiguration));
+    }
+
+    @Test
+    void unmarshallAfterValidationSeesChangedContentOfSameSizeAndTime() throws Exception {
+        Path file = Files.createTempFile("configuration", ".xml");
+        file.toFile().deleteOnExit();
+        String content = new String(Files.readAllBytes(validConfiguration.toPath()), StandardCharsets.UTF_8);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        long lastModified = file.toFile().lastModified();
+        assertTrue(MarshallUtil.validateAgainstXSD(file.toFile()));
+
+        Files.write(file, content.replace("Some Role", "Same Role").getBytes(StandardCharsets.UTF_8));
+        assertTrue(file.toFile().setLastModified(lastModified));
+        Setup setup = MarshallUtil.unmarshall(file.toFile());
+        assertEquals("Same Role", setup.getRoles().getRole().get(0).getName());
+    }
+
+    @Test
+    void warmUpInBackground() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MarshallUtil.warmUp(executor).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertNotNull(MarshallUtil.unmarshall(validConfiguration));
+    }
 }
@@ -27,9 +27,14 @@ package com.ableneo.liferay.portal.setup;
  */
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.Callable;
 
 import org.junit.jupiter.api.Test;
 
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
 import com.liferay.portal.kernel.exception.PortalException;
 import com.liferay.portal.kernel.model.Group;
 import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
@@ -72,4 +77,61 @@ class SetupConfigurationThreadLocalTest {
         SetupConfigurationThreadLocal.setRunAsUserId(1l);
         assertEquals(new Long(1l), SetupConfigurationThreadLocal.getRunAsUserId());
     }
+
+    @Test
+    void contextIsHandedOverAndCleared() throws Exception {
+        ResolverCache.start();
+        try {
+            SetupConfigurationThreadLocal.setRunInCompanyId(2l);
+            SetupConfigurationThreadLocal.setRunInGroupId(3l);
+            SetupConfigurationThreadLocal.setRunAsUserId(4l);
+            SetupContext context = SetupContext.current();
+            assertSame(ResolverCache.getScope(), context.getResolverCache());
+
+            SetupConfigurationThreadLocal.clear();
+            ResolverCache.clear();
+            Long groupId = context.withGroupId(5l).call(SetupConfigurationThreadLocal::getRunInGroupId);
+            assertEquals(new Long(5l), groupId);
+            assertEquals(new Long(2l), context.call(SetupConfigurationThreadLocal::getRunInCompanyId));
+            assertFalse(ResolverCache.isActive());
+        } finally {
+            SetupConfigurationThreadLocal.clear();
+            ResolverCache.clear();
+        }
+    }
+
+    @Test
+    void callRestoresStateOfTheCallingThread() throws Exception {
+        try {
+            SetupConfigurationThreadLocal.setRunInCompanyId(2l);
+            SetupConfigurationThreadLocal.setRunInGroupId(3l);
+            SetupConfigurationThreadLocal.setRunAsUserId(4l);
+            SetupConfigurationThreadLocal.setTransactionChunkSize(50);
+            SetupContext context = SetupContext.current().withGroupId(5l);
+
+            SetupConfigurationThreadLocal.setRunInGroupId(6l);
+            SetupConfigurationThreadLocal.setTransactionChunkSize(0);
+            assertEquals(new Long(5l), context.call(SetupConfigurationThreadLocal::getRunInGroupId));
+            assertEquals(new Long(6l), SetupConfigurationThreadLocal.getRunInGroupId());
+            assertEquals(new Long(2l), SetupConfigurationThreadLocal.getRunInCompanyId());
+            assertEquals(0, SetupConfigurationThreadLocal.getTransactionChunkSize());
+        } finally {
+            SetupConfigurationThreadLocal.clear();
+        }
+    }
+
+    @Test
+    void runSettingsAreHandedOverApartFromTheContext() throws Exception {
+        try {
+            SetupConfigurationThreadLocal.setTransactionChunkSize(50);
+            Callable<Integer> task = SetupConfigurationThreadLocal
+                    .inheritRunSettings(SetupConfigurationThreadLocal::getTransactionChunkSize);
+
+            SetupConfigurationThreadLocal.setTransactionChunkSize(0);
+            assertEquals(new Integer(50), task.call());
+            assertEquals(0, SetupConfigurationThreadLocal.getTransactionChunkSize());
+        } finally {
+            SetupConfigurationThreadLocal.clear();
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+class SetupPipelineTest {
+
+    @Test
+    void builtInStagesRunInDefaultOrder() throws LiferaySetupException {
+        assertEquals("[delete, custom-fields, roles, users, organizations, user-groups, resource-permissions, sites]",
+                names(SetupPipeline.fromConfiguration(new Configuration())).toString());
+    }
+
+    @Test
+    void stagesAreReorderedAndDisabled() throws LiferaySetupException {
+        Configuration configuration = new Configuration();
+        configuration.setStages(" users, roles ,sites," + CountingStage.class.getName());
+        configuration.setDisabledStages("sites");
+        assertEquals("[users, roles, counting]", names(SetupPipeline.fromConfiguration(configuration)).toString());
+    }
+
+    @Test
+    void unknownStageFails() {
+        Configuration configuration = new Configuration();
+        configuration.setStages("roles,no-such-stage");
+        assertThrows(LiferaySetupException.class, () -> SetupPipeline.fromConfiguration(configuration));
+    }
+
+    @Test
+    void stageResultsAreRecorded() throws LiferaySetupException {
+        Configuration configuration = new Configuration();
+        configuration.setStages("roles," + CountingStage.class.getName());
+        List<SetupReport.StageResult> results = SetupPipeline.fromConfiguration(configuration).run(new Setup());
+        assertEquals(2, results.size());
+        assertEquals("roles", results.get(0).getStage());
+        assertEquals(0, results.get(0).getEntityCount());
+        assertEquals("counting", results.get(1).getStage());
+        assertEquals(3, results.get(1).getEntityCount());
+    }
+
+    @Test
+    void stageEventsAreReported() throws LiferaySetupException {
+        Configuration configuration = new Configuration();
+        configuration.setStages(CountingStage.class.getName());
+        List<String> events = new ArrayList<>();
+        SetupConfigurationThreadLocal.setRunInCompanyId(7L);
+        SetupConfigurationThreadLocal.setListener(new SetupListener() {
+            @Override
+            public void stageStarted(final long companyId, final String stage) {
+                events.add(companyId + " started " + stage);
+            }
+
+            @Override
+            public void stageFinished(final long companyId, final SetupReport.StageResult result) {
+                events.add(companyId + " finished " + result.getStage() + " " + result.getEntityCount());
+            }
+        });
+        try {
+            SetupPipeline.fromConfiguration(configuration).run(new Setup());
+        } finally {
+            SetupConfigurationThreadLocal.clear();
+        }
+        assertEquals(Arrays.asList("7 started counting", "7 finished counting 3"), events);
+    }
+
+    private static List<String> names(final SetupPipeline pipeline) {
+        return pipeline.getStages().stream().map(SetupStage::getName).collect(Collectors.toList());
+    }
+
+    public static class CountingStage implements SetupStage {
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public int countEntities(final Setup setup) {
+            return 3;
+        }
+
+        @Override
+        public void execute(final Setup setup) {
+            // nothing to set up
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.SetupPlan.Action;
+
+class SetupPlanTest {
+
+    @Test
+    void countsActionsPerPhase() {
+        SetupPlan plan = samplePlan();
+        Map<String, Map<Action, Integer>> counts = plan.getCounts();
+        assertEquals("[roles, articles]", counts.keySet().toString());
+        assertEquals(2, (int) counts.get("articles").get(Action.NO_OP));
+        assertEquals(1, (int) counts.get("articles").get(Action.UPDATE));
+        assertEquals(2, plan.getCount(Action.NO_OP));
+    }
+
+    @Test
+    void noOpIsScopedByCompany() {
+        SetupPlan plan = samplePlan();
+        assertTrue(plan.isNoOp(1L, "article#10#A"));
+        assertFalse(plan.isNoOp(2L, "article#10#A"));
+        assertFalse(plan.isNoOp(1L, "article#10#C"));
+        assertFalse(plan.isNoOp(1L, "article#10#unknown"));
+    }
+
+    @Test
+    void survivesSerialization() throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(samplePlan());
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            SetupPlan plan = (SetupPlan) in.readObject();
+            assertEquals(4, plan.getEntries().size());
+            assertTrue(plan.isNoOp(1L, "article#10#B"));
+        }
+    }
+
+    private static SetupPlan samplePlan() {
+        SetupPlan plan = new SetupPlan();
+        plan.add(1L, "roles", "role#Editor", Action.CREATE);
+        plan.add(1L, "articles", "article#10#A", Action.NO_OP);
+        plan.add(1L, "articles", "article#10#B", Action.NO_OP);
+        plan.add(1L, "articles", "article#10#C", Action.UPDATE);
+        return plan;
+    }
+}
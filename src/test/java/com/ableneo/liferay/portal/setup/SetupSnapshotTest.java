@@ -0,0 +1,100 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+class SetupSnapshotTest {
+
+    private File directory;
+    private File configuration;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        directory = Files.createTempDirectory("setup-snapshot").toFile();
+        configuration = new File(directory, "configuration.xml");
+        Files.copy(new File(SetupSnapshotTest.class.getResource("/valid-configuration.xml").toURI()).toPath(),
+                configuration.toPath());
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    void snapshotIsWrittenOnFirstLoadAndReadOnNext() throws IOException {
+        Setup parsed = MarshallUtil.unmarshall(configuration, true);
+        assertNotNull(parsed);
+        assertTrue(SetupSnapshot.fileOf(configuration).isFile());
+
+        Setup loaded = SetupSnapshot.read(configuration, SetupSnapshot.key(configuration));
+        assertNotNull(loaded);
+        assertEquals(parsed.getConfiguration().getRunAsUserEmail(), loaded.getConfiguration().getRunAsUserEmail());
+        assertEquals(parsed.getRoles().getRole().get(0).getName(), loaded.getRoles().getRole().get(0).getName());
+    }
+
+    @Test
+    void snapshotOfChangedFileIsIgnored() throws IOException, LiferaySetupException {
+        SetupSnapshot.create(configuration);
+        byte[] key = SetupSnapshot.key(configuration);
+        Files.write(configuration.toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertFalse(Arrays.equals(key, SetupSnapshot.key(configuration)));
+        assertNull(SetupSnapshot.read(configuration, SetupSnapshot.key(configuration)));
+        assertNotNull(MarshallUtil.unmarshall(configuration, true));
+        assertNotNull(SetupSnapshot.read(configuration, SetupSnapshot.key(configuration)));
+    }
+
+    @Test
+    void corruptedSnapshotIsIgnored() throws IOException {
+        Files.write(SetupSnapshot.fileOf(configuration).toPath(), new byte[] {1, 2, 3});
+        assertNull(SetupSnapshot.read(configuration, SetupSnapshot.key(configuration)));
+        assertNotNull(MarshallUtil.unmarshall(configuration, true));
+    }
+}
@@ -0,0 +1,138 @@
+package com.ableneo.liferay.portal.setup;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+class SetupStreamTest {
+
+    private SetupStream stream;
+
+    @BeforeEach
+    void setUp() throws URISyntaxException, LiferaySetupException {
+        stream = SetupStream.open(new File(SetupStreamTest.class.getResource("/valid-configuration.xml").toURI()), 1);
+    }
+
+    @Test
+    void configurationIsReadWhenOpened() {
+        assertEquals("test@liferay.com", stream.getConfiguration().getRunAsUserEmail());
+        assertEquals(1, stream.getConfiguration().getCompany().size());
+    }
+
+    @Test
+    void elementsOfStreamedSectionAreReadInBatches() throws LiferaySetupException {
+        List<Setup> parts = new ArrayList<>();
+        stream.forEachPart(SetupStages.ROLES, parts::add);
+        assertEquals(1, parts.size());
+        assertEquals("Some Role", parts.get(0).getRoles().getRole().get(0).getName());
+        assertSame(stream.getConfiguration(), parts.get(0).getConfiguration());
+    }
+
+    @Test
+    void smallSectionIsReadAsWhole() throws LiferaySetupException {
+        List<Setup> parts = new ArrayList<>();
+        stream.forEachPart(SetupStages.RESOURCE_PERMISSIONS, parts::add);
+        assertEquals(1, parts.size());
+        assertEquals("some-portlet-id", parts.get(0).getResourcePermissions().getResource().get(0).getResourceId());
+    }
+
+    @Test
+    void missingSectionHasNoParts() throws LiferaySetupException {
+        List<Setup> parts = new ArrayList<>();
+        for (SetupStage stage : Arrays.asList(SetupStages.USERS, SetupStages.SITES, SetupStages.CUSTOM_FIELDS)) {
+            stream.forEachPart(stage, parts::add);
+        }
+        assertTrue(parts.isEmpty());
+        assertNull(stream.getPageTemplates());
+    }
+
+    @Test
+    void customStageCanNotBeStreamed() {
+        assertThrows(LiferaySetupException.class,
+                () -> stream.forEachPart(new SetupPipelineTest.CountingStage(), part -> {}));
+    }
+
+    @Test
+    void invalidConfigurationIsRejected() {
+        assertThrows(LiferaySetupException.class, () -> SetupStream
+                .open(new File(SetupStreamTest.class.getResource("/invalid-configuration.xml").toURI())));
+    }
+
+    @Test
+    void configurationHashTellsTokensApart() throws URISyntaxException, IOException, LiferaySetupException {
+        String twoRoles = "<role name=\"A\"></role><role name=\"B\"></role>";
+        String oneRole = "<role name=\"A&gt;&lt;role name=B\"></role>";
+        assertNotEquals(openWithRoles(twoRoles).getConfigurationHash(),
+                openWithRoles(oneRole).getConfigurationHash());
+    }
+
+    @Test
+    void configurationHashIgnoresRunOptions() throws URISyntaxException, IOException, LiferaySetupException {
+        String roles = "<role name=\"Some Role\"></role>";
+        SetupStream resumed = open(roles, "<configuration resume=\"true\" time-budget-seconds=\"60\">");
+        assertEquals(openWithRoles(roles).getConfigurationHash(), resumed.getConfigurationHash());
+        assertEquals(60, resumed.getConfiguration().getTimeBudgetSeconds());
+    }
+
+    private static SetupStream openWithRoles(final String roles)
+            throws URISyntaxException, IOException, LiferaySetupException {
+        return open(roles, "<configuration>");
+    }
+
+    private static SetupStream open(final String roles, final String configuration)
+            throws URISyntaxException, IOException, LiferaySetupException {
+        Path valid = Paths.get(SetupStreamTest.class.getResource("/valid-configuration.xml").toURI());
+        String content = new String(Files.readAllBytes(valid), StandardCharsets.UTF_8)
+                .replace("<role name=\"Some Role\"></role>", roles).replace("<configuration>", configuration);
+        Path file = Files.createTempFile("configuration", ".xml");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return SetupStream.open(file.toFile());
+    }
+}
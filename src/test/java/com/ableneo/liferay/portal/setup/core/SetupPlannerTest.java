@@ -0,0 +1,216 @@
+package com.ableneo.liferay.portal.setup.core;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.SetupPlan;
+import com.ableneo.liferay.portal.setup.SetupPlan.Action;
+import com.ableneo.liferay.portal.setup.core.util.ResourcesUtil;
+import com.ableneo.liferay.portal.setup.core.util.SetupLedger;
+import com.ableneo.liferay.portal.setup.domain.Article;
+import com.ableneo.liferay.portal.setup.domain.Page;
+import com.ableneo.liferay.portal.setup.domain.Pages;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.ableneo.liferay.portal.setup.domain.Site;
+import com.ableneo.liferay.portal.setup.domain.Sites;
+import com.ableneo.liferay.portal.setup.domain.Structure;
+import com.liferay.dynamic.data.mapping.model.DDMStructure;
+import com.liferay.dynamic.data.mapping.service.DDMStructureLocalServiceUtil;
+import com.liferay.journal.model.JournalArticle;
+import com.liferay.journal.service.JournalArticleLocalServiceUtil;
+import com.liferay.portal.kernel.model.Group;
+import com.liferay.portal.kernel.model.Layout;
+import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
+import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
+import com.liferay.portal.kernel.service.LayoutLocalServiceUtil;
+import com.liferay.portal.kernel.util.FileUtil;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+
+class SetupPlannerTest {
+
+    private static final long COMPANY_ID = 1l;
+    private static final long GROUP_ID = 10l;
+    private static final String CONTENT_PATH = "valid-configuration.xml";
+
+    @Mocked
+    GroupLocalServiceUtil groupLocalServiceUtil;
+    @Mocked
+    Group group;
+    @Mocked
+    ClassNameLocalServiceUtil classNameLocalServiceUtil;
+    @Mocked
+    DDMStructureLocalServiceUtil ddmStructureLocalServiceUtil;
+    @Mocked
+    DDMStructure ddmStructure;
+    @Mocked
+    JournalArticleLocalServiceUtil journalArticleLocalServiceUtil;
+    @Mocked
+    JournalArticle journalArticle;
+    @Mocked
+    LayoutLocalServiceUtil layoutLocalServiceUtil;
+    @Mocked
+    Layout layout;
+    @Mocked
+    FileUtil fileUtil;
+
+    // entity key to the hash the ledger has recorded
+    private final Map<String, String> recorded = new HashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        SetupConfigurationThreadLocal.clear();
+    }
+
+    @Test
+    void entitiesArePlannedByExistenceAndLedger() throws IOException {
+        Site site = new Site();
+        site.setName("Site");
+        Pages privatePages = new Pages();
+        // pages have no layout of their own, the default one is part of their hash
+        privatePages.setDefaultLayout("1_column");
+        site.setPrivatePages(privatePages);
+        for (String name : new String[] {"same", "changed", "new"}) {
+            site.getArticleStructure().add(structure(name));
+            site.getArticle().add(article(name));
+            privatePages.getPage().add(page(name));
+        }
+        Setup setup = new Setup();
+        Sites sites = new Sites();
+        sites.getSite().add(site);
+        setup.setSites(sites);
+
+        // the ledger has the same content recorded for the "same" entities, an outdated one for the "changed" ones
+        recorded.put(structureKey("same"), SetupLedger.hash(structure("same"),
+                ResourcesUtil.getFileContent(CONTENT_PATH)));
+        recorded.put(structureKey("changed"), "outdated");
+        Article sameArticle = article("same");
+        recorded.put(SetupArticles.articleLedgerKey(sameArticle, GROUP_ID), SetupArticles.articleLedgerHash(
+                sameArticle, SetupArticles.readArticleContent(sameArticle, GROUP_ID, COMPANY_ID), 0L));
+        recorded.put(SetupArticles.articleLedgerKey(article("changed"), GROUP_ID), "outdated");
+        recorded.put(SetupPages.pageLedgerKey(GROUP_ID, true, "/same"),
+                SetupPages.pageLedgerHash(page("same"), "1_column", null, COMPANY_ID, GROUP_ID));
+        recorded.put(SetupPages.pageLedgerKey(GROUP_ID, true, "/changed"), "outdated");
+
+        SetupConfigurationThreadLocal.setRunInCompanyId(COMPANY_ID);
+        new Expectations(SetupLedger.class) {
+            {
+                GroupLocalServiceUtil.fetchGroup(COMPANY_ID, "Site");
+                result = group;
+                group.getStagingGroup();
+                result = null;
+                group.getGroupId();
+                result = GROUP_ID;
+                DDMStructureLocalServiceUtil.fetchStructure(GROUP_ID, anyLong, anyString);
+                result = new Delegate<DDMStructure>() {
+                    DDMStructure fetchStructure(long groupId, long classNameId, String key) {
+                        return key.equals("new") ? null : ddmStructure;
+                    }
+                };
+                JournalArticleLocalServiceUtil.fetchLatestArticle(GROUP_ID, anyString, anyInt);
+                result = new Delegate<JournalArticle>() {
+                    JournalArticle fetchLatestArticle(long groupId, String articleId, int status) {
+                        return articleId.equals("new") ? null : journalArticle;
+                    }
+                };
+                LayoutLocalServiceUtil.fetchLayoutByFriendlyURL(GROUP_ID, true, anyString);
+                result = new Delegate<Layout>() {
+                    Layout fetchLayoutByFriendlyURL(long groupId, boolean privateLayout, String friendlyURL) {
+                        return friendlyURL.equals("/new") ? null : layout;
+                    }
+                };
+                SetupLedger.isRecorded(anyString, anyString);
+                result = new Delegate<Boolean>() {
+                    boolean isRecorded(String entityKey, String hash) {
+                        return hash.equals(recorded.get(entityKey));
+                    }
+                };
+            }
+        };
+
+        SetupPlan plan = new SetupPlan();
+        SetupPlanner.planCompany(setup, plan);
+
+        assertAction(plan, Action.NO_OP, structureKey("same"));
+        assertAction(plan, Action.UPDATE, structureKey("changed"));
+        assertAction(plan, Action.CREATE, structureKey("new"));
+        assertAction(plan, Action.NO_OP, SetupArticles.articleLedgerKey(article("same"), GROUP_ID));
+        assertAction(plan, Action.UPDATE, SetupArticles.articleLedgerKey(article("changed"), GROUP_ID));
+        assertAction(plan, Action.CREATE, SetupArticles.articleLedgerKey(article("new"), GROUP_ID));
+        assertAction(plan, Action.NO_OP, "page#10#private#/same");
+        assertAction(plan, Action.UPDATE, "page#10#private#/changed");
+        assertAction(plan, Action.CREATE, "page#10#private#/new");
+    }
+
+    private static void assertAction(final SetupPlan plan, final Action action, final String entityKey) {
+        for (SetupPlan.Entry entry : plan.getEntries()) {
+            if (entry.getEntityKey().equals(entityKey)) {
+                assertEquals(action, entry.getAction(), entityKey);
+                return;
+            }
+        }
+        throw new AssertionError(String.format("%1$s is not planned", entityKey));
+    }
+
+    private static String structureKey(final String name) {
+        return SetupArticles.templateLedgerKey("structure", GROUP_ID, 0, name);
+    }
+
+    private static Structure structure(final String key) {
+        Structure structure = new Structure();
+        structure.setKey(key);
+        structure.setPath(CONTENT_PATH);
+        return structure;
+    }
+
+    private static Article article(final String articleId) {
+        Article article = new Article();
+        article.setArticleId(articleId);
+        article.setTitle(articleId);
+        article.setPath(CONTENT_PATH);
+        return article;
+    }
+
+    private static Page page(final String name) {
+        Page page = new Page();
+        page.setName(name);
+        page.setFriendlyUrl("/" + name);
+        return page;
+    }
+}
@@ -0,0 +1,93 @@
+package com.ableneo.liferay.portal.setup.core;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache;
+import com.ableneo.liferay.portal.setup.domain.Article;
+import com.ableneo.liferay.portal.setup.domain.CustomFieldSetting;
+import com.ableneo.liferay.portal.setup.domain.Site;
+
+class SiteDependencyGraphTest {
+
+    @Test
+    void siteDependsOnParentAndReferredSites() {
+        Site shared = site("Shared");
+        Site microsite = site("Microsite");
+        Site child = site("Child");
+        microsite.getSite().add(child);
+        CustomFieldSetting setting = new CustomFieldSetting();
+        setting.setKey("sharedSiteId");
+        setting.setValue("{{$ID_OF_SITE_WITH_NAME=Shared$}}");
+        child.getCustomFieldSetting().add(setting);
+
+        List<SiteDependencyGraph.Node> nodes = SiteDependencyGraph.build(Arrays.asList(shared, microsite)).getNodes();
+
+        assertEquals(3, nodes.size());
+        assertTrue(nodes.get(0).getDependencies().isEmpty());
+        assertTrue(nodes.get(1).getDependencies().isEmpty());
+        assertEquals(2, nodes.get(2).getDependencies().size());
+        assertTrue(nodes.get(2).getDependencies().contains(nodes.get(0)));
+        assertTrue(nodes.get(2).getDependencies().contains(nodes.get(1)));
+    }
+
+    @Test
+    void articlesAreReadOnceAndKeptForTheRun() {
+        Site shared = site("Shared");
+        Site microsite = site("Microsite");
+        Article article = new Article();
+        article.setPath("articles/refers-shared-site.xml");
+        microsite.getArticle().add(article);
+
+        ResolverCache.start();
+        try {
+            List<SiteDependencyGraph.Node> nodes =
+                    SiteDependencyGraph.build(Arrays.asList(shared, microsite)).getNodes();
+
+            assertTrue(nodes.get(1).getDependencies().contains(nodes.get(0)));
+            String content = ResolverCache.getDerived(ResolverCache.Kind.ARTICLE_CONTENT, article.getPath());
+            assertTrue(content.startsWith("<?xml"));
+            assertTrue(content.contains("{{$ARTICLE-ID-BY-ARTICLE-ID=::Shared::contact$}}"));
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+
+    private static Site site(final String name) {
+        Site site = new Site();
+        site.setName(name);
+        return site;
+    }
+}
@@ -0,0 +1,136 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*-
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Copyright (C) 2016 - 2019 ableneo s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.liferay.asset.kernel.model.AssetCategory;
+import com.liferay.asset.kernel.service.AssetCategoryLocalServiceUtil;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+
+class CategoryPathIndexTest {
+
+    private static final long GROUP_ID = 5l;
+    private static final long VOCABULARY_ID = 7l;
+    // ordered by name as the vocabulary returns them, the first News is nested
+    static final List<AssetCategory> CATEGORIES = Arrays.asList(category(3, 2, "Football"), category(5, 4, "Local"),
+            category(6, 4, "News"), category(1, 0, "News"), category(2, 1, "Sport"), category(4, 0, "Sport"));
+
+    @Mocked
+    AssetCategoryLocalServiceUtil assetCategoryLocalServiceUtil;
+
+    @Test
+    void indexIsLoadedOncePerRun() {
+        vocabulary(1, 0);
+        ResolverCache.start();
+        try {
+            assertPaths();
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+
+    @Test
+    void indexIsLoadedAgainWhenInvalidated() {
+        vocabulary(2, 0);
+        ResolverCache.start();
+        try {
+            assertEquals(Long.valueOf(3), CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Sport/Football"));
+            CategoryPathIndex.invalidate(GROUP_ID);
+            assertEquals(Long.valueOf(3), CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Sport/Football"));
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+
+    @Test
+    void pathIsQueriedWithoutCache() {
+        // a query for the first segment of each path, then for the children of each category found
+        vocabulary(6, 3);
+        assertPaths();
+    }
+
+    private static void assertPaths() {
+        assertEquals(Long.valueOf(3), CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Sport/Football"));
+        assertEquals(Long.valueOf(3), CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Football"));
+        assertEquals(Long.valueOf(2), CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Sport/"));
+        // the first News of the vocabulary is the nested one, it has no Sport child
+        assertNull(CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "News/Sport"));
+        assertNull(CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Sport/Local"));
+        assertNull(CategoryPathIndex.getCategoryId(GROUP_ID, VOCABULARY_ID, "Missing"));
+    }
+
+    private void vocabulary(final int vocabularyQueries, final int childQueries) {
+        new Expectations() {
+            {
+                AssetCategoryLocalServiceUtil.getVocabularyCategories(VOCABULARY_ID, anyInt, anyInt, null);
+                result = CATEGORIES;
+                times = vocabularyQueries;
+                AssetCategoryLocalServiceUtil.getChildCategories(anyLong);
+                result = new Delegate<List<AssetCategory>>() {
+                    @SuppressWarnings("unused")
+                    List<AssetCategory> getChildCategories(final long parentCategoryId) {
+                        return children(parentCategoryId);
+                    }
+                };
+                times = childQueries;
+            }
+        };
+    }
+
+    static List<AssetCategory> children(final long parentCategoryId) {
+        return CATEGORIES.stream().filter(category -> category.getParentCategoryId() == parentCategoryId)
+                .collect(Collectors.toList());
+    }
+
+    static AssetCategory category(final long categoryId, final long parentCategoryId, final String name) {
+        return (AssetCategory) Proxy.newProxyInstance(AssetCategory.class.getClassLoader(),
+                new Class<?>[] {AssetCategory.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getCategoryId":
+                            return categoryId;
+                        case "getParentCategoryId":
+                            return parentCategoryId;
+                        case "getName":
+                            return name;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,94 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PlaceholderTemplateTest {
+
+    @Test
+    void resolvesAgainstDifferentContexts() {
+        PlaceholderTemplate template =
+                PlaceholderTemplate.compile("a {{$ARTICLE-ID-BY-ARTICLE-ID=X$}} b {{$FILE-ID=/f$}}", "test");
+        assertTrue(template.hasPlaceholders());
+        assertEquals("a ARTICLE-ID-BY-ARTICLE-ID:X:1 b FILE-ID:/f:1",
+                template.resolve((type, argument) -> type + ":" + argument + ":1"));
+        assertEquals("a ARTICLE-ID-BY-ARTICLE-ID:X:2 b FILE-ID:/f:2",
+                template.resolve((type, argument) -> type + ":" + argument + ":2"));
+    }
+
+    @Test
+    void keepsUnknownAndUnresolvedPlaceholders() {
+        final String value = "{{$UNKNOWN=1$}} {{$CLASS-ID-BY-NAME=x$}}";
+        PlaceholderTemplate template = PlaceholderTemplate.compile(value, "test");
+        assertEquals(value, template.resolve((type, argument) -> null));
+    }
+
+    @Test
+    void valueWithoutPlaceholderIsReturnedAsIs() {
+        final String value = "test test";
+        PlaceholderTemplate template = PlaceholderTemplate.compile(value, "test");
+        assertFalse(template.hasPlaceholders());
+        assertSame(value, template.resolve((type, argument) -> "x"));
+    }
+
+    @Test
+    void templatesAreCachedForTheRunOnly() {
+        final String value = "a {{$FILE-ID=/f$}}";
+        assertNotSame(PlaceholderTemplate.of(value, "test"), PlaceholderTemplate.of(value, "test"));
+        ResolverCache.start();
+        try {
+            PlaceholderTemplate template = PlaceholderTemplate.of(value, "test");
+            assertSame(template, PlaceholderTemplate.of(new String(value), "test"));
+        } finally {
+            ResolverCache.clear();
+        }
+        assertNotSame(PlaceholderTemplate.of(value, "test"), PlaceholderTemplate.of(value, "test"));
+    }
+
+    @Test
+    void largeValuesAreNotCached() {
+        StringBuilder value = new StringBuilder("{{$FILE-ID=/f$}}");
+        while (value.length() <= 16 * 1024) {
+            value.append("text of a large article ");
+        }
+        ResolverCache.start();
+        try {
+            assertNotSame(PlaceholderTemplate.of(value.toString(), "test"),
+                    PlaceholderTemplate.of(value.toString(), "test"));
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*-
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Copyright (C) 2019 Pawel Kruszewski
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ResolverCacheTest {
+
+    @AfterEach
+    void clear() {
+        ResolverCache.clear();
+    }
+
+    @Test
+    void inactiveCacheAlwaysLooksUp() {
+        AtomicInteger lookups = new AtomicInteger();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", lookups::incrementAndGet);
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", lookups::incrementAndGet);
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void missingValueIsCached() {
+        ResolverCache.start();
+        AtomicInteger lookups = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertNull(ResolverCache.getInCompany(1l, ResolverCache.Kind.SITE, "missing", () -> {
+                lookups.incrementAndGet();
+                return null;
+            }));
+        }
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void invalidateDropsOnlyAffectedEntries() {
+        ResolverCache.start();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "a");
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.PAGE, "P", () -> "p");
+        ResolverCache.getInGroup(2l, ResolverCache.Kind.ARTICLE, "A", () -> "a2");
+
+        ResolverCache.invalidateInGroup(1l, ResolverCache.Kind.ARTICLE);
+
+        assertEquals("new", ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "new"));
+        assertEquals("p", ResolverCache.getInGroup(1l, ResolverCache.Kind.PAGE, "P", () -> "new"));
+        assertEquals("a2", ResolverCache.getInGroup(2l, ResolverCache.Kind.ARTICLE, "A", () -> "new"));
+    }
+
+    @Test
+    void invalidateByPrefixDropsEntriesOfAllGroups() {
+        ResolverCache.start();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.TEMPLATE, "ancestors#T", () -> null);
+        ResolverCache.getInGroup(2l, ResolverCache.Kind.TEMPLATE, "ancestors#T", () -> "t2");
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.TEMPLATE, "T", () -> "t");
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.STRUCTURE, "ancestors#T", () -> "s");
+
+        ResolverCache.invalidateByPrefix(ResolverCache.Kind.TEMPLATE, "ancestors#");
+
+        assertEquals("new", ResolverCache.getInGroup(1l, ResolverCache.Kind.TEMPLATE, "ancestors#T", () -> "new"));
+        assertEquals("new", ResolverCache.getInGroup(2l, ResolverCache.Kind.TEMPLATE, "ancestors#T", () -> "new"));
+        assertEquals("t", ResolverCache.getInGroup(1l, ResolverCache.Kind.TEMPLATE, "T", () -> "new"));
+        assertEquals("s", ResolverCache.getInGroup(1l, ResolverCache.Kind.STRUCTURE, "ancestors#T", () -> "new"));
+    }
+
+    @Test
+    void rollbackDropsOnlyGroupsAndKindsCachedInTransaction() {
+        ResolverCache.start();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "a");
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.PAGE, "P", () -> "p");
+        ResolverCache.getInGroup(2l, ResolverCache.Kind.ARTICLE, "A", () -> "a2");
+
+        ResolverCache.beginTransaction();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "B", () -> "b");
+        ResolverCache.endTransaction(true);
+
+        assertEquals("new", ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "new"));
+        assertEquals("new", ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "B", () -> "new"));
+        assertEquals("p", ResolverCache.getInGroup(1l, ResolverCache.Kind.PAGE, "P", () -> "new"));
+        assertEquals("a2", ResolverCache.getInGroup(2l, ResolverCache.Kind.ARTICLE, "A", () -> "new"));
+    }
+
+    @Test
+    void commitKeepsEntriesCachedInTransaction() {
+        ResolverCache.start();
+        ResolverCache.beginTransaction();
+        ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "a");
+        ResolverCache.endTransaction(false);
+
+        assertEquals("a", ResolverCache.getInGroup(1l, ResolverCache.Kind.ARTICLE, "A", () -> "new"));
+    }
+}
@@ -28,6 +28,11 @@ package com.ableneo.liferay.portal.setup.core.util;
 
 import static com.ableneo.liferay.portal.setup.core.util.ResolverUtil.CLASS_ID_BY_NAME;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 
 import org.junit.jupiter.api.Test;
 
@@ -55,4 +60,34 @@ class ResolverUtilTest {
 
     }
 
+    @Test
+    void lookupAllKeepsUnknownPlaceholder() {
+        String valueWithUnknownTag = "test {{$UNKNOWN-BY-KEY=123$}} test";
+        assertEquals(valueWithUnknownTag, ResolverUtil.lookupAll(1l, 1l, valueWithUnknownTag, "doing test"));
+    }
+
+    @Test
+    void lookupAllMissingClosingTag() {
+        String valueWithWrongClosingTag = String.format("test %scom.liferay.portal.kernel.model.Layout$} test",
+                CLASS_ID_BY_NAME);
+        assertEquals(valueWithWrongClosingTag, ResolverUtil.lookupAll(1l, 1l, valueWithWrongClosingTag,
+                String.format("testing: %s", valueWithWrongClosingTag)));
+    }
+
+    @Test
+    void lookupAllSkipsValueWithoutPlaceholder() {
+        final String valueWithoutTags = "test test";
+        long skipped = ResolverUtil.getSkippedLookupCount();
+        assertSame(valueWithoutTags, ResolverUtil.lookupAll(1l, 1l, valueWithoutTags, "doing test"));
+        assertEquals(skipped + 1, ResolverUtil.getSkippedLookupCount());
+    }
+
+    @Test
+    void streamingLookupKeepsUnknownAndUnclosedPlaceholders() throws IOException {
+        final String value = "test {{$UNKNOWN=1$}} test {{$FILE-ID=/unclosed";
+        StringWriter out = new StringWriter();
+        ResolverUtil.lookupAll(1l, 1l, new StringReader(value), out, "doing test");
+        assertEquals(value, out.toString());
+    }
+
 }
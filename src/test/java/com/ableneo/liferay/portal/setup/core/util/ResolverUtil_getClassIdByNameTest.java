@@ -54,4 +54,21 @@ class ResolverUtil_getClassIdByNameTest {
                 String.format("test %scom.liferay.portal.kernel.model.Layout%s test", CLASS_ID_BY_NAME, CLOSING_TAG),
                 "test1"));
     }
+
+    @Test
+    void lookupAllResolvesEveryOccurrence() {
+        new Expectations(ClassNameLocalServiceUtil.class) {
+            {
+                classNameLocalServiceUtil.getClassNameId("com.liferay.portal.kernel.model.Layout");
+                result = 7l;
+                classNameLocalServiceUtil.getClassNameId("com.liferay.portal.kernel.model.Group");
+                result = 8l;
+            }
+        };
+        assertEquals("7 test 8 test 7", ResolverUtil.lookupAll(1l, 1l,
+                String.format("%1$scom.liferay.portal.kernel.model.Layout%2$s test "
+                        + "%1$scom.liferay.portal.kernel.model.Group%2$s test "
+                        + "%1$scom.liferay.portal.kernel.model.Layout%2$s", CLASS_ID_BY_NAME, CLOSING_TAG),
+                "test2"));
+    }
 }
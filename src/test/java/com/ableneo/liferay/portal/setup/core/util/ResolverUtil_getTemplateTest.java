@@ -0,0 +1,164 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*-
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Copyright (C) 2016 - 2019 ableneo s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.liferay.asset.kernel.model.AssetEntry;
+import com.liferay.dynamic.data.mapping.model.DDMStructure;
+import com.liferay.dynamic.data.mapping.model.DDMTemplate;
+import com.liferay.dynamic.data.mapping.service.DDMTemplateLocalServiceUtil;
+import com.liferay.journal.model.JournalArticle;
+import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+class ResolverUtil_getTemplateTest {
+
+    private static final long GROUP_ID = 5l;
+    private static final long PARENT_GROUP_ID = 4l;
+    private static final long ARTICLE_CLASS_NAME_ID = 10l;
+    private static final long STRUCTURE_CLASS_NAME_ID = 20l;
+    private static final long ASSET_ENTRY_CLASS_NAME_ID = 30l;
+
+    @Mocked
+    ClassNameLocalServiceUtil classNameLocalServiceUtil;
+    @Mocked
+    DDMTemplateLocalServiceUtil ddmTemplateLocalServiceUtil;
+    @Mocked
+    DDMTemplate template;
+
+    private void classNames() {
+        new Expectations() {
+            {
+                ClassNameLocalServiceUtil.getClassNameId(JournalArticle.class.getName());
+                result = ARTICLE_CLASS_NAME_ID;
+                minTimes = 0;
+                ClassNameLocalServiceUtil.getClassNameId(DDMStructure.class.getName());
+                result = STRUCTURE_CLASS_NAME_ID;
+                minTimes = 0;
+                ClassNameLocalServiceUtil.getClassNameId(AssetEntry.class.getName());
+                result = ASSET_ENTRY_CLASS_NAME_ID;
+                minTimes = 0;
+            }
+        };
+    }
+
+    @Test
+    void articleTemplateUuidIsLookedUpAsTemplateOfStructures() throws Exception {
+        classNames();
+        new Expectations() {
+            {
+                DDMTemplateLocalServiceUtil.fetchTemplate(GROUP_ID, STRUCTURE_CLASS_NAME_ID, "article-template", true);
+                result = template;
+                template.getResourceClassNameId();
+                result = ARTICLE_CLASS_NAME_ID;
+                template.getUuid();
+                result = "template-uuid";
+            }
+        };
+        assertEquals("uuid: template-uuid", ResolverUtil.lookupAll(GROUP_ID, 1l,
+                "uuid: {{$ART-TEMPLATE-UUID-BY-KEY=article-template$}}", "test"));
+    }
+
+    @Test
+    void articleTemplateIdIsLookedUpInGroupOnly() throws Exception {
+        classNames();
+        new Expectations() {
+            {
+                DDMTemplateLocalServiceUtil.fetchTemplate(GROUP_ID, STRUCTURE_CLASS_NAME_ID, "article-template",
+                        false);
+                result = template;
+                template.getResourceClassNameId();
+                result = ARTICLE_CLASS_NAME_ID;
+                template.getTemplateId();
+                result = 7l;
+            }
+        };
+        assertEquals("id: 7", ResolverUtil.lookupAll(GROUP_ID, 1l,
+                "id: {{$ART-TEMPLATE-ID-BY-KEY=article-template$}}", "test"));
+    }
+
+    @Test
+    void templateOfOtherResourceClassIsNotArticleTemplate() throws Exception {
+        classNames();
+        new Expectations() {
+            {
+                DDMTemplateLocalServiceUtil.fetchTemplate(GROUP_ID, STRUCTURE_CLASS_NAME_ID, "list-template", true);
+                result = template;
+                template.getResourceClassNameId();
+                result = 99l;
+            }
+        };
+        assertEquals("uuid: ", ResolverUtil.lookupAll(GROUP_ID, 1l,
+                "uuid: {{$ART-TEMPLATE-UUID-BY-KEY=list-template$}}", "test"));
+    }
+
+    @Test
+    void adtIsLookedUpByItsOwnClass() throws Exception {
+        classNames();
+        new Expectations() {
+            {
+                DDMTemplateLocalServiceUtil.fetchTemplate(GROUP_ID, ASSET_ENTRY_CLASS_NAME_ID, "adt", false);
+                result = template;
+                template.getTemplateId();
+                result = 8l;
+            }
+        };
+        assertEquals("id: 8", ResolverUtil.lookupAll(GROUP_ID, 1l, "id: {{$ADT-TEMPLATE-ID-BY-KEY=adt$}}", "test"));
+    }
+
+    @Test
+    void missingAncestorTemplateIsLookedUpAgainWhenTemplateIsAdded() throws Exception {
+        classNames();
+        new Expectations() {
+            {
+                DDMTemplateLocalServiceUtil.fetchTemplate(GROUP_ID, STRUCTURE_CLASS_NAME_ID, "article-template", true);
+                returns(null, template);
+                times = 2;
+                template.getResourceClassNameId();
+                result = ARTICLE_CLASS_NAME_ID;
+                template.getUuid();
+                result = "template-uuid";
+            }
+        };
+        String value = "uuid: {{$ART-TEMPLATE-UUID-BY-KEY=article-template$}}";
+        ResolverCache.start();
+        try {
+            assertEquals("uuid: ", ResolverUtil.lookupAll(GROUP_ID, 1l, value, "test"));
+            assertEquals("uuid: ", ResolverUtil.lookupAll(GROUP_ID, 1l, value, "test"));
+            // added to the parent site of the group
+            ResolverUtil.invalidateTemplates(PARENT_GROUP_ID);
+            assertEquals("uuid: template-uuid", ResolverUtil.lookupAll(GROUP_ID, 1l, value, "test"));
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*-
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Copyright (C) 2016 - 2019 ableneo s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static com.ableneo.liferay.portal.setup.core.util.ResolverUtil.TEMPLATE_CATEGORY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+import com.liferay.asset.kernel.model.AssetCategory;
+import com.liferay.asset.kernel.model.AssetVocabulary;
+import com.liferay.asset.kernel.service.AssetCategoryLocalServiceUtil;
+import com.liferay.asset.kernel.service.AssetVocabularyLocalServiceUtil;
+import com.liferay.portal.kernel.model.Group;
+import com.liferay.portal.kernel.service.GroupLocalServiceUtil;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+
+/**
+ * Compares category placeholders resolved by {@link ResolverUtil#lookupAll(long, long, String, String)} with the
+ * resolution that substituted them before the placeholders were resolved in a single pass.
+ */
+class ResolverUtil_lookupCategoryTest {
+
+    private static final long COMPANY_ID = 1l;
+    private static final long GROUP_ID = 5l;
+    private static final long VOCABULARY_ID = 7l;
+    private static final List<AssetCategory> CATEGORIES = CategoryPathIndexTest.CATEGORIES;
+    private static final List<String> VALUES = Arrays.asList(placeholder("Sport/Football"), placeholder("Football"),
+            placeholder("News/Sport"), placeholder("Sport/Local"), placeholder("Sport/Local/"),
+            placeholder("Missing"), placeholder("Sport") + " trailing text", "text " + placeholder("Football"),
+            TEMPLATE_CATEGORY + "::Site::Sport/Football$}}");
+
+    @Mocked
+    GroupLocalServiceUtil groupLocalServiceUtil;
+    @Mocked
+    AssetVocabularyLocalServiceUtil assetVocabularyLocalServiceUtil;
+    @Mocked
+    AssetCategoryLocalServiceUtil assetCategoryLocalServiceUtil;
+    @Mocked
+    Group group;
+    @Mocked
+    AssetVocabulary vocabulary;
+
+    private void vocabulary() throws Exception {
+        new Expectations() {
+            {
+                GroupLocalServiceUtil.getGroup(COMPANY_ID, "Site");
+                result = group;
+                minTimes = 0;
+                group.getGroupId();
+                result = GROUP_ID;
+                minTimes = 0;
+                AssetVocabularyLocalServiceUtil.getGroupVocabulary(GROUP_ID, "Topics");
+                result = vocabulary;
+                minTimes = 0;
+                vocabulary.getVocabularyId();
+                result = VOCABULARY_ID;
+                minTimes = 0;
+                AssetCategoryLocalServiceUtil.getVocabularyCategories(VOCABULARY_ID, anyInt, anyInt, null);
+                result = CATEGORIES;
+                minTimes = 0;
+                AssetCategoryLocalServiceUtil.getChildCategories(anyLong);
+                result = new Delegate<List<AssetCategory>>() {
+                    @SuppressWarnings("unused")
+                    List<AssetCategory> getChildCategories(final long parentCategoryId) {
+                        return CategoryPathIndexTest.children(parentCategoryId);
+                    }
+                };
+                minTimes = 0;
+            }
+        };
+    }
+
+    @Test
+    void categoryIsResolvedAsBefore() throws Exception {
+        vocabulary();
+        assertEquals("3", ResolverUtil.lookupAll(GROUP_ID, COMPANY_ID, placeholder("Sport/Football"), "test"));
+        for (String value : VALUES) {
+            assertEquals(previousLookup(value), ResolverUtil.lookupAll(GROUP_ID, COMPANY_ID, value, "test"), value);
+        }
+    }
+
+    @Test
+    void categoryIsResolvedAsBeforeWithCache() throws Exception {
+        vocabulary();
+        ResolverCache.start();
+        try {
+            for (String value : VALUES) {
+                assertEquals(previousLookup(value), ResolverUtil.lookupAll(GROUP_ID, COMPANY_ID, value, "test"),
+                        value);
+            }
+        } finally {
+            ResolverCache.clear();
+        }
+    }
+
+    @Test
+    void streamedCategoryIsResolvedAsBefore() throws Exception {
+        vocabulary();
+        for (String value : VALUES) {
+            assertEquals(previousLookup(value), streamedLookup(value), value);
+        }
+    }
+
+    private static String streamedLookup(final String value) throws IOException {
+        StringWriter out = new StringWriter();
+        ResolverUtil.lookupAll(GROUP_ID, COMPANY_ID, new StringReader(value), out, "test");
+        return out.toString();
+    }
+
+    /**
+     * The category substitution as it was: the whole value is the placeholder, the first category of the path is
+     * the first category of the vocabulary with the name, the others are children with the name.
+     */
+    private static String previousLookup(final String content) {
+        if (!content.startsWith(TEMPLATE_CATEGORY)) {
+            return content;
+        }
+        String[] values = content.replace("$}}", "").split("::");
+        if (values.length != 4 || !"Site".equals(values[1]) || !"Topics".equals(values[2])) {
+            return content;
+        }
+        String[] names = values[3].split("/");
+        Optional<AssetCategory> category =
+                CATEGORIES.stream().filter(candidate -> candidate.getName().equals(names[0])).findFirst();
+        for (int i = 1; i < names.length && category.isPresent(); i++) {
+            long parentId = category.get().getCategoryId();
+            String name = names[i];
+            category = CATEGORIES.stream().filter(
+                    candidate -> candidate.getParentCategoryId() == parentId && candidate.getName().equals(name))
+                    .findFirst();
+        }
+        return category.map(found -> String.valueOf(found.getCategoryId())).orElse(content);
+    }
+
+    private static String placeholder(final String path) {
+        return TEMPLATE_CATEGORY + "::Site::Topics::" + path + "$}}";
+    }
+}
@@ -0,0 +1,117 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*-
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Copyright (C) 2016 - 2019 ableneo s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.core.util.ResolverCache.Kind;
+import com.liferay.journal.service.JournalArticleLocalServiceUtil;
+import com.liferay.portal.kernel.dao.orm.DynamicQuery;
+import com.liferay.portal.kernel.dao.orm.PropertyFactoryUtil;
+import com.liferay.portal.kernel.service.LayoutLocalServiceUtil;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+class ResolverUtil_prefetchTest {
+
+    private static final long GROUP_ID = 5l;
+
+    @Mocked
+    JournalArticleLocalServiceUtil journalArticleLocalServiceUtil;
+    @Mocked
+    LayoutLocalServiceUtil layoutLocalServiceUtil;
+    @Mocked
+    PropertyFactoryUtil propertyFactoryUtil;
+
+    @BeforeEach
+    void startCache() {
+        ResolverCache.start();
+    }
+
+    @AfterEach
+    void clearCache() {
+        ResolverCache.clear();
+    }
+
+    @Test
+    void articlesAreFetchedInChunks() {
+        new Expectations() {
+            {
+                JournalArticleLocalServiceUtil.dynamicQuery((DynamicQuery) any);
+                times = 3;
+            }
+        };
+        List<String> values = values("{{$ARTICLE-ID-BY-ARTICLE-ID=article-%1$s$}}", 1001);
+        ResolverUtil.prefetch(GROUP_ID, 1l, values, "test");
+        for (int i = 0; i < 1001; i++) {
+            assertTrue(ResolverCache.containsInGroup(GROUP_ID, Kind.ARTICLE, "article-" + i));
+        }
+        // all of them are cached, missing ones too
+        ResolverUtil.prefetch(GROUP_ID, 1l, values, "test");
+    }
+
+    @Test
+    void pagesAreFetchedInChunksPerPrivacy() {
+        new Expectations() {
+            {
+                LayoutLocalServiceUtil.dynamicQuery((DynamicQuery) any);
+                times = 3;
+            }
+        };
+        List<String> values = values("{{$PUB-PAGE-ID-BY-FRIENDLY_URL=/page-%1$s$}}", 501);
+        values.add("{{$PRIV-PAGE-ID-BY-FRIENDLY_URL=/private$}}");
+        ResolverUtil.prefetch(GROUP_ID, 1l, values, "test");
+    }
+
+    @Test
+    void nothingIsFetchedWithoutCache() {
+        ResolverCache.clear();
+        new Expectations() {
+            {
+                JournalArticleLocalServiceUtil.dynamicQuery((DynamicQuery) any);
+                times = 0;
+            }
+        };
+        ResolverUtil.prefetch(GROUP_ID, 1l, values("{{$ARTICLE-ID-BY-ARTICLE-ID=article-%1$s$}}", 10), "test");
+    }
+
+    private static List<String> values(final String format, final int count) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(String.format(format, i));
+        }
+        return values;
+    }
+}
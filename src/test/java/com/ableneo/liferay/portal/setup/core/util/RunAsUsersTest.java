@@ -0,0 +1,136 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.LiferaySetupException;
+import com.liferay.portal.kernel.exception.PortalException;
+import com.liferay.portal.kernel.model.Role;
+import com.liferay.portal.kernel.model.User;
+import com.liferay.portal.kernel.security.permission.PermissionChecker;
+import com.liferay.portal.kernel.security.permission.PermissionCheckerFactoryUtil;
+import com.liferay.portal.kernel.service.RoleLocalServiceUtil;
+import com.liferay.portal.kernel.service.UserLocalServiceUtil;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+class RunAsUsersTest {
+
+    @Mocked
+    RoleLocalServiceUtil roleLocalServiceUtil;
+    @Mocked
+    UserLocalServiceUtil userLocalServiceUtil;
+    @Mocked
+    PermissionCheckerFactoryUtil permissionCheckerFactoryUtil;
+    @Mocked
+    Role role;
+    @Mocked
+    User user;
+    @Mocked
+    PermissionChecker permissionChecker;
+
+    @AfterEach
+    void tearDown() {
+        RunAsUsers.clear();
+    }
+
+    @Test
+    void administratorIsResolvedOncePerCompany() throws Exception {
+        new Expectations() {
+            {
+                RoleLocalServiceUtil.getRole(1l, anyString);
+                result = role;
+                UserLocalServiceUtil.getRoleUsers(anyLong, 0, 1);
+                result = Collections.singletonList(user);
+                times = 1;
+                user.getUserId();
+                result = 42l;
+                PermissionCheckerFactoryUtil.create(user);
+                result = permissionChecker;
+                times = 2;
+            }
+        };
+        RunAsUsers.Identity identity = RunAsUsers.get(1l, null);
+        assertEquals(42l, identity.getUserId());
+        assertSame(permissionChecker, identity.getPermissionChecker());
+        assertEquals(42l, RunAsUsers.get(1l, "").getUserId());
+    }
+
+    @Test
+    void usersAreKeyedByCompanyAndEmail() throws Exception {
+        new Expectations() {
+            {
+                UserLocalServiceUtil.getUserByEmailAddress(anyLong, "admin@example.com");
+                result = user;
+                times = 2;
+                PermissionCheckerFactoryUtil.create(user);
+                result = permissionChecker;
+            }
+        };
+        RunAsUsers.get(1l, "admin@example.com");
+        RunAsUsers.get(1l, "Admin@Example.com");
+        RunAsUsers.get(2l, "admin@example.com");
+    }
+
+    @Test
+    void everyThreadGetsPermissionCheckerOfItsOwn(@Mocked final PermissionChecker workerPermissionChecker)
+            throws Exception {
+        new Expectations() {
+            {
+                permissionChecker.getUser();
+                result = user;
+                PermissionCheckerFactoryUtil.create(user);
+                result = workerPermissionChecker;
+                times = 1;
+            }
+        };
+        assertSame(workerPermissionChecker, RunAsUsers.forCurrentThread(permissionChecker));
+        assertNull(RunAsUsers.forCurrentThread(null));
+    }
+
+    @Test
+    void companyWithoutAdministratorFails() throws PortalException {
+        new Expectations() {
+            {
+                UserLocalServiceUtil.getRoleUsers(anyLong, 0, 1);
+                result = Collections.emptyList();
+            }
+        };
+        assertThrows(LiferaySetupException.class, () -> RunAsUsers.get(3l, null));
+    }
+}
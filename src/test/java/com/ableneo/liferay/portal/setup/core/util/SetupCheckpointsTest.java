@@ -0,0 +1,99 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+import com.ableneo.liferay.portal.setup.domain.Site;
+
+class SetupCheckpointsTest {
+
+    @Test
+    void configurationHashIgnoresResume() {
+        Setup setup = setup("example");
+        String hash = SetupCheckpoints.hash(setup);
+        setup.getConfiguration().setResume(true);
+        assertEquals(hash, SetupCheckpoints.hash(setup));
+        assertTrue(setup.getConfiguration().isResume());
+        assertNotEquals(hash, SetupCheckpoints.hash(setup("changed")));
+    }
+
+    @Test
+    void configurationHashIgnoresThrottleWithoutChangingIt() {
+        Setup setup = setup("example");
+        String hash = SetupCheckpoints.hash(setup);
+        setup.getConfiguration().setWritesPerSecond(10);
+        setup.getConfiguration().setMaxConcurrentOperations(2);
+        setup.getConfiguration().setTimeBudgetSeconds(60);
+        assertEquals(hash, SetupCheckpoints.hash(setup));
+        assertEquals(10, setup.getConfiguration().getWritesPerSecond());
+        assertEquals(2, setup.getConfiguration().getMaxConcurrentOperations());
+        assertEquals(60, setup.getConfiguration().getTimeBudgetSeconds());
+    }
+
+    @Test
+    void checkpointsAreKeptOnlyIfResumed() {
+        Setup setup = setup("example");
+        assertNull(SetupCheckpoints.of(setup));
+        setup.getConfiguration().setResume(true);
+        assertEquals(SetupCheckpoints.hash(setup), SetupCheckpoints.of(setup).getConfigurationHash());
+    }
+
+    @Test
+    void checkpointsAreKeptIfTimeBudgetIsSet() {
+        Setup setup = setup("example");
+        setup.getConfiguration().setTimeBudgetSeconds(60);
+        assertTrue(SetupCheckpoints.isKept(setup));
+        assertEquals(SetupCheckpoints.hash(setup), SetupCheckpoints.of(setup).getConfigurationHash());
+    }
+
+    @Test
+    void unitsAreNamedByStageAndSite() {
+        assertEquals("stage#roles", SetupCheckpoints.stage("roles"));
+        Site site = new Site();
+        assertEquals("site#global", SetupCheckpoints.site(site));
+        site.setName("Example");
+        assertEquals("site#Example", SetupCheckpoints.site(site));
+        site.setDefault(true);
+        assertEquals("site#default", SetupCheckpoints.site(site));
+    }
+
+    private static Setup setup(final String runAsUserEmail) {
+        Setup setup = new Setup();
+        setup.setConfiguration(new Configuration());
+        setup.getConfiguration().setRunAsUserEmail(runAsUserEmail);
+        return setup;
+    }
+}
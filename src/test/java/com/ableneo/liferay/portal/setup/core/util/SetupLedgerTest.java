@@ -0,0 +1,127 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.domain.Article;
+import com.ableneo.liferay.portal.setup.domain.Page;
+import com.liferay.expando.kernel.service.ExpandoColumnLocalServiceUtil;
+import com.liferay.expando.kernel.service.ExpandoTableLocalServiceUtil;
+import com.liferay.portal.kernel.service.ClassNameLocalServiceUtil;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+class SetupLedgerTest {
+
+    @AfterEach
+    void tearDown() {
+        SetupConfigurationThreadLocal.clear();
+    }
+
+    @Test
+    void entityKeyJoinsIds() {
+        assertEquals("article#20123#ABOUT", SetupLedger.entityKey("article", 20123L, "ABOUT"));
+    }
+
+    @Test
+    void rowIdIsStableAndPositive() {
+        long rowId = SetupLedger.rowId("article#20123#ABOUT");
+        assertEquals(rowId, SetupLedger.rowId("article#20123#ABOUT"));
+        assertNotEquals(rowId, SetupLedger.rowId("article#20123#CONTACT"));
+        assertTrue(rowId >= 0);
+    }
+
+    @Test
+    void hashCoversDeclarationAndContent() {
+        Article article = new Article();
+        article.setArticleId("ABOUT");
+        String hash = SetupLedger.hash(article, "content");
+        assertEquals(hash, SetupLedger.hash(article, "content"));
+        assertNotEquals(hash, SetupLedger.hash(article, "changed content"));
+
+        Article changed = new Article();
+        changed.setArticleId("ABOUT");
+        changed.setArticleStructureKey("STRUCTURE");
+        assertNotEquals(hash, SetupLedger.hash(changed, "content"));
+    }
+
+    @Test
+    void hashPartsAreNotConfused() {
+        Article article = new Article();
+        article.setArticleId("ABOUT");
+        String hash = SetupLedger.hashParts(article, "content#1", "2");
+        assertEquals(hash, SetupLedger.hashParts(article, "content#1", "2"));
+        assertNotEquals(hash, SetupLedger.hashParts(article, "content", "1#2"));
+    }
+
+    @Test
+    void hashLeavesOutExcludedElements() {
+        Page page = new Page();
+        page.setFriendlyUrl("/parent");
+        Page child = new Page();
+        child.setFriendlyUrl("/child");
+        page.getPage().add(child);
+        String hash = SetupLedger.hash(page, "", Collections.emptySet(), Collections.singleton("page"));
+
+        child.setFriendlyUrl("/changed-child");
+        assertEquals(hash, SetupLedger.hash(page, "", Collections.emptySet(), Collections.singleton("page")));
+        assertEquals("/changed-child", page.getPage().get(0).getFriendlyUrl());
+
+        page.setFriendlyUrl("/changed");
+        assertNotEquals(hash, SetupLedger.hash(page, "", Collections.emptySet(), Collections.singleton("page")));
+    }
+
+    @Test
+    void readingMissingLedgerDoesNotCreateIt(@Mocked ClassNameLocalServiceUtil classNameLocalServiceUtil,
+            @Mocked ExpandoTableLocalServiceUtil expandoTableLocalServiceUtil,
+            @Mocked ExpandoColumnLocalServiceUtil expandoColumnLocalServiceUtil) throws Exception {
+        SetupConfigurationThreadLocal.setRunInCompanyId(1L);
+        new Expectations() {
+            {
+                ExpandoTableLocalServiceUtil.fetchTable(1L, anyLong, SetupLedger.TABLE_NAME);
+                result = null;
+                ExpandoTableLocalServiceUtil.addTable(anyLong, anyString, anyString);
+                times = 0;
+                ExpandoColumnLocalServiceUtil.addColumn(anyLong, anyString, anyInt);
+                times = 0;
+            }
+        };
+        assertFalse(SetupLedger.isRecorded("article#20123#ABOUT", "hash"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.ableneo.liferay.portal.setup.domain.Configuration;
+import com.ableneo.liferay.portal.setup.domain.Setup;
+
+class SetupThrottleTest {
+
+    @AfterEach
+    void tearDown() {
+        SetupConfigurationThreadLocal.clear();
+    }
+
+    @Test
+    void unlimitedByDefault() {
+        Setup setup = new Setup();
+        setup.setConfiguration(new Configuration());
+        assertNull(SetupThrottle.of(setup));
+        assertFalse(SetupThrottle.isBudgetExhausted());
+    }
+
+    @Test
+    void writesBeyondTheRateWait() {
+        SetupThrottle throttle = new SetupThrottle(2, 0, 0);
+        assertEquals(0, throttle.reserveWrite());
+        assertEquals(0, throttle.reserveWrite());
+        assertTrue(throttle.reserveWrite() > 0);
+    }
+
+    @Test
+    void nestedOperationsTakeOnePermit() {
+        SetupConfigurationThreadLocal.setThrottle(new SetupThrottle(0, 1, 0));
+        SetupThrottle.acquireOperation();
+        // would block if the nested operation took a permit of its own
+        SetupThrottle.acquireOperation();
+        SetupThrottle.releaseOperation();
+        SetupThrottle.releaseOperation();
+        SetupThrottle.acquireOperation();
+        SetupThrottle.releaseOperation();
+    }
+
+    @Test
+    void closedWriteReleasesItsPermit() {
+        SetupConfigurationThreadLocal.setThrottle(new SetupThrottle(0, 1, 0));
+        try (SetupThrottle.Write write = SetupThrottle.write()) {
+            // would block if the write nested in the write took a permit of its own
+            try (SetupThrottle.Write nested = SetupThrottle.write()) {
+                assertNotNull(nested);
+            }
+        }
+        // would block if the permit was not released
+        try (SetupThrottle.Write write = SetupThrottle.write()) {
+            assertNotNull(write);
+        }
+    }
+
+    @Test
+    void budgetIsNotOverBeforeItsTime() {
+        SetupConfigurationThreadLocal.setThrottle(new SetupThrottle(0, 0, 3600));
+        assertFalse(SetupThrottle.isBudgetExhausted());
+        assertEquals("Time budget of 3600 s is over before stage sites, run the setup again to continue",
+                SetupThrottle.budgetExhaustedMessage("stage sites"));
+    }
+}
@@ -0,0 +1,100 @@
+package com.ableneo.liferay.portal.setup.core.util;
+
+/*
+ * #%L
+ * Liferay Portal DB Setup core
+ * %%
+ * Original work Copyright (C) 2016 - 2018 mimacom ag
+ * Modified work Copyright (C) 2018 - 2020 ableneo, s. r. o.
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.ableneo.liferay.portal.setup.SetupConfigurationThreadLocal;
+import com.liferay.portal.kernel.transaction.TransactionConfig;
+import com.liferay.portal.kernel.transaction.TransactionInvokerUtil;
+
+import mockit.Mock;
+import mockit.MockUp;
+
+class TransactionChunksTest {
+
+    private final List<String> transactions = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        new MockUp<TransactionInvokerUtil>() {
+            @Mock
+            <T> T invoke(TransactionConfig transactionConfig, Callable<T> callable) throws Throwable {
+                transactions.add("begin");
+                return callable.call();
+            }
+        };
+        SetupConfigurationThreadLocal.setTransactionChunkSize(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SetupConfigurationThreadLocal.setTransactionChunkSize(0);
+    }
+
+    @Test
+    void itemsAreWrittenInChunks() {
+        List<String> written = new ArrayList<>();
+        TransactionChunks.forEach(Arrays.asList("a", "b", "c"), Function.identity(), written::add);
+        assertEquals(Arrays.asList("a", "b", "c"), written);
+        assertEquals(2, transactions.size());
+    }
+
+    @Test
+    void failedChunkIsRetriedOneByOne() {
+        List<String> written = new ArrayList<>();
+        TransactionChunks.forEach(Arrays.asList("a", "bad", "c"), Function.identity(), item -> {
+            if ("bad".equals(item)) {
+                throw new IllegalStateException(item);
+            }
+            written.add(item);
+        });
+        // a is written again after the chunk of a and bad was rolled back
+        assertEquals(Arrays.asList("a", "a", "c"), written);
+        assertEquals(4, transactions.size());
+    }
+
+    @Test
+    void chunkingIsOffByDefault() {
+        SetupConfigurationThreadLocal.setTransactionChunkSize(0);
+        List<String> written = new ArrayList<>();
+        TransactionChunks.forEach(Arrays.asList("a", "b"), Function.identity(), written::add);
+        assertEquals(Arrays.asList("a", "b"), written);
+        assertEquals(0, transactions.size());
+    }
+}